@@ -0,0 +1,131 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The segments that are closed right now, for accidents or roadworks, laid
+ * over the loaded graph so that closing or reopening a road doesn't mean
+ * loading the map again. The Router won't use a closed segment, and
+ * Connectivity keeps its articulation points and bridges up to date as
+ * segments close and reopen, by listening for the changes.
+ *
+ * Routers may be searching on other threads while roads close, so the closed
+ * flags are copied on every change rather than written in place. A search
+ * takes the current array once at the start (see snapshot) and sees the same
+ * closures all the way through. Closures change rarely, so the copying is
+ * cheap next to the searches.
+ */
+public class Closures {
+
+	/**
+	 * Is told about every segment that closes or reopens, after the change.
+	 */
+	public interface Listener {
+		void changed(int edge, boolean closed);
+	}
+
+	private final GraphCore core;
+	// never written once published.
+	private volatile boolean[] closed;
+	private volatile int count;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	public Closures(GraphCore core) {
+		this.core = core;
+		this.closed = new boolean[core.edgeCount];
+	}
+
+	/**
+	 * Returns whether each segment is closed, indexed by segment id. The array
+	 * won't change, so a search can keep using it while others close roads.
+	 */
+	public boolean[] snapshot() {
+		return closed;
+	}
+
+	public boolean isClosed(int edge) {
+		return closed[edge];
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Returns how many segments are closed.
+	 */
+	public int size() {
+		return count;
+	}
+
+	public void close(Segment segment) {
+		set(new int[] { segment.id }, true);
+	}
+
+	public void reopen(Segment segment) {
+		set(new int[] { segment.id }, false);
+	}
+
+	/**
+	 * Closes every segment of the road.
+	 */
+	public void close(Road road) {
+		set(roadEdges(road), true);
+	}
+
+	/**
+	 * Reopens every segment of the road.
+	 */
+	public void reopen(Road road) {
+		set(roadEdges(road), false);
+	}
+
+	/**
+	 * Reopens everything.
+	 */
+	public void clear() {
+		int[] edges = new int[count];
+		int n = 0;
+		boolean[] current = closed;
+		for (int e = 0; e < current.length; e++)
+			if (current[e])
+				edges[n++] = e;
+		set(edges, false);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private int[] roadEdges(Road road) {
+		int from = core.roadOffset[road.index], to = core.roadOffset[road.index + 1];
+		int[] edges = new int[to - from];
+		System.arraycopy(core.roadEdges, from, edges, 0, edges.length);
+		return edges;
+	}
+
+	/**
+	 * Publishes a copy of the flags with the given segments set, then tells
+	 * the listeners about each segment that actually changed.
+	 */
+	private synchronized void set(int[] edges, boolean value) {
+		boolean[] next = closed.clone();
+		int changed = 0;
+		for (int e : edges) {
+			if (next[e] != value) {
+				next[e] = value;
+				edges[changed++] = e;
+			}
+		}
+		if (changed == 0)
+			return;
+		count += value ? changed : -changed;
+		closed = next;
+		for (int i = 0; i < changed; i++)
+			for (Listener listener : listeners)
+				listener.changed(edges[i], value);
+	}
+}
@@ -0,0 +1,262 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * The weakly and strongly connected components of the road graph, worked out
+ * once when the map is loaded, so that we know how fragmented it is and the
+ * router can turn away pairs of nodes that can't be joined up without
+ * searching at all.
+ *
+ * The weak components ignore which way one-way roads go. They are found with
+ * a lock-free union-find over the segments, run in parallel: each segment
+ * joins the sets of its two ends, always hanging the root with the larger
+ * index under the smaller one, so the trees can never form a cycle however the
+ * threads interleave.
+ *
+ * The strong components follow the directed out arcs, so one-way roads only
+ * go one way. No arc leaves a weak component, so each weak component gets its
+ * own iterative Tarjan search, and these run in parallel. All the arrays are
+ * shared, with each component's stacks in its own slice of them. Tarjan
+ * finishes a strong component only after everything it can reach, so within a
+ * weak component the ids are in reverse topological order: a node can only
+ * reach nodes whose strong id is no greater than its own.
+ */
+public class Components {
+
+	private final int[] weak, strong;
+	private final int[] weakSize, strongSize;
+
+	public Components(GraphCore core) {
+		int n = core.nodeCount;
+
+		// the weak components, by union-find.
+		AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		for (int v = 0; v < n; v++)
+			parent.set(v, v);
+		IntStream.range(0, core.edgeCount).parallel().forEach(
+				e -> union(parent, core.edgeFrom[e], core.edgeTo[e]));
+		int[] root = new int[n];
+		IntStream.range(0, n).parallel().forEach(v -> root[v] = find(parent, v));
+
+		// number the components densely, in order of their smallest node.
+		weak = new int[n];
+		int[] rootId = new int[n];
+		int weakCount = 0;
+		for (int v = 0; v < n; v++) {
+			if (root[v] == v)
+				rootId[v] = weakCount++;
+			weak[v] = rootId[root[v]];
+		}
+		weakSize = new int[weakCount];
+		for (int v = 0; v < n; v++)
+			weakSize[weak[v]]++;
+
+		// the nodes grouped by weak component, which also gives each component
+		// its own slice of the search stacks.
+		int[] first = new int[weakCount + 1];
+		for (int c = 0; c < weakCount; c++)
+			first[c + 1] = first[c] + weakSize[c];
+		int[] order = new int[n];
+		int[] fill = first.clone();
+		for (int v = 0; v < n; v++)
+			order[fill[weak[v]]++] = v;
+
+		// the strong components, numbered from 0 within each weak component
+		// at first.
+		int[] local = new int[n];
+		int[] localCount = new int[weakCount];
+		int[] discovery = new int[n], low = new int[n], cursor = new int[n];
+		int[] callStack = new int[n], componentStack = new int[n];
+		boolean[] onStack = new boolean[n];
+		IntStream.range(0, weakCount).parallel().forEach(
+				c -> localCount[c] = tarjan(core, order, first[c], first[c + 1], local, discovery,
+						low, cursor, callStack, componentStack, onStack));
+
+		int[] base = new int[weakCount + 1];
+		for (int c = 0; c < weakCount; c++)
+			base[c + 1] = base[c] + localCount[c];
+		strong = new int[n];
+		IntStream.range(0, n).parallel().forEach(v -> strong[v] = base[weak[v]] + local[v]);
+		strongSize = new int[base[weakCount]];
+		for (int v = 0; v < n; v++)
+			strongSize[strong[v]]++;
+	}
+
+	/**
+	 * Makes the components found before, from the weak and strong ids of
+	 * every node that weak() and strong() returned (see MapSnapshot).
+	 */
+	Components(int[] weak, int[] strong, int weakCount, int strongCount) {
+		this.weak = weak;
+		this.strong = strong;
+		weakSize = new int[weakCount];
+		strongSize = new int[strongCount];
+		for (int v = 0; v < weak.length; v++) {
+			weakSize[weak[v]]++;
+			strongSize[strong[v]]++;
+		}
+	}
+
+	/**
+	 * Returns the weak component of every node. Not to be modified.
+	 */
+	int[] weak() {
+		return weak;
+	}
+
+	/**
+	 * Returns the strong component of every node. Not to be modified.
+	 */
+	int[] strong() {
+		return strong;
+	}
+
+	/**
+	 * Returns false if there is certainly no route from one node to the other,
+	 * in constant time. True means there may be one: there is if they are in
+	 * the same strong component, but otherwise only a search can tell.
+	 */
+	public boolean mayReach(int from, int to) {
+		return weak[from] == weak[to] && strong[from] >= strong[to];
+	}
+
+	public int getWeakComponent(int node) {
+		return weak[node];
+	}
+
+	public int getStrongComponent(int node) {
+		return strong[node];
+	}
+
+	public int getWeakCount() {
+		return weakSize.length;
+	}
+
+	public int getStrongCount() {
+		return strongSize.length;
+	}
+
+	/**
+	 * Returns how many nodes are in the given weak component.
+	 */
+	public int getWeakSize(int component) {
+		return weakSize[component];
+	}
+
+	/**
+	 * Returns how many nodes are in the given strong component.
+	 */
+	public int getStrongSize(int component) {
+		return strongSize[component];
+	}
+
+	/**
+	 * Returns a few lines on how the map breaks up: the number of components
+	 * of each kind, the largest of them and how many are single nodes.
+	 */
+	public String describe() {
+		int nodes = weak.length;
+		return "Weakly connected components: " + describe(weakSize, nodes) + "\n"
+				+ "Strongly connected components: " + describe(strongSize, nodes);
+	}
+
+	private static String describe(int[] sizes, int nodes) {
+		int largest = 0, singles = 0;
+		for (int size : sizes) {
+			largest = Math.max(largest, size);
+			if (size == 1)
+				singles++;
+		}
+		return String.format("%d (largest %d nodes, %.1f%% of the map; %d of a single node)",
+				sizes.length, largest, nodes == 0 ? 0 : 100.0 * largest / nodes, singles);
+	}
+
+	private static int find(AtomicIntegerArray parent, int v) {
+		while (true) {
+			int p = parent.get(v);
+			if (p == v)
+				return v;
+			// path halving. it doesn't matter if another thread got there
+			// first.
+			int grandparent = parent.get(p);
+			parent.compareAndSet(v, p, grandparent);
+			v = p;
+		}
+	}
+
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while (true) {
+			a = find(parent, a);
+			b = find(parent, b);
+			if (a == b)
+				return;
+			if (a < b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			// a may have stopped being a root in the meantime, in which case
+			// try again.
+			if (parent.compareAndSet(a, a, b))
+				return;
+		}
+	}
+
+	/**
+	 * Iterative Tarjan over the nodes order[from, to), which make up one weak
+	 * component, using the same slice of the stacks. Numbers the strong
+	 * components from 0 into local, and returns how many there are.
+	 */
+	private static int tarjan(GraphCore core, int[] order, int from, int to, int[] local,
+			int[] discovery, int[] low, int[] cursor, int[] callStack, int[] componentStack,
+			boolean[] onStack) {
+		for (int i = from; i < to; i++)
+			discovery[order[i]] = -1;
+		int time = 0, count = 0;
+		int callTop = from, componentTop = from;
+		for (int i = from; i < to; i++) {
+			int root = order[i];
+			if (discovery[root] >= 0)
+				continue;
+			discovery[root] = low[root] = time++;
+			cursor[root] = core.outOffset[root];
+			callStack[callTop++] = root;
+			componentStack[componentTop++] = root;
+			onStack[root] = true;
+
+			while (callTop > from) {
+				int u = callStack[callTop - 1];
+				if (cursor[u] < core.outOffset[u + 1]) {
+					int v = core.outTarget[cursor[u]++];
+					if (discovery[v] < 0) {
+						discovery[v] = low[v] = time++;
+						cursor[v] = core.outOffset[v];
+						callStack[callTop++] = v;
+						componentStack[componentTop++] = v;
+						onStack[v] = true;
+					} else if (onStack[v]) {
+						low[u] = Math.min(low[u], discovery[v]);
+					}
+				} else {
+					callTop--;
+					if (callTop > from) {
+						int p = callStack[callTop - 1];
+						low[p] = Math.min(low[p], low[u]);
+					}
+					if (low[u] == discovery[u]) {
+						// u is the first node of a strong component, which is
+						// everything above it on the stack.
+						int w;
+						do {
+							w = componentStack[--componentTop];
+							onStack[w] = false;
+							local[w] = count;
+						} while (w != u);
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,331 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The articulation points, bridges and biconnected components (blocks) of
+ * the whole (undirected) road graph, found with one iterative pass of
+ * Tarjan's algorithm over every connected component, in O(V + E), and then
+ * kept up to date as roads close and reopen.
+ *
+ * The depth-first search keeps its state in int arrays indexed by node (the
+ * discovery time, the low point, the segment each node was reached by and a
+ * cursor into its adjacency row), with an explicit node stack instead of
+ * recursion and a stack of segments for peeling off blocks. Nothing is stored
+ * on the Node objects.
+ *
+ * Every segment belongs to exactly one block, and the rest follows from the
+ * blocks: a node is an articulation point if it is in more than one, and a
+ * segment is a bridge if its block has no other segment. So only the blocks
+ * and how many each node is in are stored, and a change to one segment only
+ * touches the blocks around it:
+ *
+ * - closing a segment can only break up its own block, so the search is run
+ * again over just that block's segments;
+ *
+ * - reopening a segment merges all the blocks on the way from one of its ends
+ * to the other (in the tree of blocks and articulation points) into one, or
+ * makes a new bridge if the ends aren't connected. That way is found by a
+ * breadth-first search over the blocks, with no depth-first search at all.
+ *
+ * Parallel segments between the same two nodes are handled by skipping only
+ * the segment a node was reached by, rather than its parent node, so a pair of
+ * parallel segments is not a bridge. Loops (segments from a node to itself)
+ * don't affect connectivity and are in no block, and neither are closed
+ * segments. Block ids aren't reused once a block has been broken up or merged.
+ *
+ * Updates happen on the thread that changes the Closures, so this must only be
+ * used from that thread.
+ */
+public class Connectivity {
+
+	// the block of a segment that is waiting to be searched.
+	private static final int UNASSIGNED = -2;
+
+	private final GraphCore core;
+	// the block of each segment, or -1 for loops and closed segments.
+	private final int[] component;
+	// the segments of each block, by id, or null once it is gone.
+	private final List<int[]> blocks = new ArrayList<>();
+	private int blockCount;
+	// how many blocks each node is in.
+	private final int[] nodeBlocks;
+
+	// the search state, kept between updates so they allocate nothing per
+	// node.
+	private final int[] discovery, low, parentEdge, cursor, stack, edgeStack;
+	private int time;
+	// marks nodes as seen while counting the distinct nodes of a block, or
+	// while looking for the way between the ends of a reopened segment.
+	private final int[] mark;
+	private int markStamp;
+
+	public Connectivity(GraphCore core) {
+		this(core, null);
+	}
+
+	/**
+	 * Finds the blocks of the graph with the given segments closed, and
+	 * follows any changes to them from then on. closures may be null.
+	 */
+	public Connectivity(GraphCore core, Closures closures) {
+		this.core = core;
+		int n = core.nodeCount;
+		component = new int[core.edgeCount];
+		nodeBlocks = new int[n];
+		discovery = new int[n];
+		low = new int[n];
+		parentEdge = new int[n];
+		cursor = new int[n];
+		stack = new int[n];
+		mark = new int[n];
+		edgeStack = new int[core.edgeCount];
+
+		boolean[] closed = closures == null ? null : closures.snapshot();
+		for (int e = 0; e < core.edgeCount; e++) {
+			boolean open = closed == null || !closed[e];
+			component[e] = open && core.edgeFrom[e] != core.edgeTo[e] ? UNASSIGNED : -1;
+		}
+		Arrays.fill(discovery, -1);
+		for (int root = 0; root < n; root++)
+			if (discovery[root] < 0)
+				search(root);
+		if (closures != null)
+			closures.addListener(this::changed);
+	}
+
+	public boolean isArticulationPoint(int node) {
+		return nodeBlocks[node] > 1;
+	}
+
+	public boolean isBridge(int edge) {
+		return component[edge] >= 0 && blocks.get(component[edge]).length == 1;
+	}
+
+	/**
+	 * Returns the biconnected component a segment belongs to, or -1 for loops
+	 * and closed segments.
+	 */
+	public int getBiconnectedComponent(int edge) {
+		return component[edge];
+	}
+
+	public int getBiconnectedComponentCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Returns the indices of all the articulation points.
+	 */
+	public int[] getArticulationPoints() {
+		int count = 0;
+		for (int v = 0; v < core.nodeCount; v++)
+			if (isArticulationPoint(v))
+				count++;
+		int[] nodes = new int[count];
+		count = 0;
+		for (int v = 0; v < core.nodeCount; v++)
+			if (isArticulationPoint(v))
+				nodes[count++] = v;
+		return nodes;
+	}
+
+	/**
+	 * Returns the ids of all the bridges: the segments that would disconnect
+	 * part of the map if they were closed.
+	 */
+	public int[] getBridges() {
+		int count = 0;
+		for (int e = 0; e < core.edgeCount; e++)
+			if (isBridge(e))
+				count++;
+		int[] edges = new int[count];
+		count = 0;
+		for (int e = 0; e < core.edgeCount; e++)
+			if (isBridge(e))
+				edges[count++] = e;
+		return edges;
+	}
+
+	/**
+	 * Brings the blocks up to date after a segment closes or reopens.
+	 */
+	private void changed(int edge, boolean closed) {
+		if (core.edgeFrom[edge] == core.edgeTo[edge])
+			return;
+		if (closed)
+			closeEdge(edge);
+		else
+			reopenEdge(edge);
+	}
+
+	private void closeEdge(int edge) {
+		int block = component[edge];
+		if (block < 0)
+			return;
+		int[] edges = removeBlock(block);
+
+		// search the rest of the block again, from scratch.
+		component[edge] = -1;
+		for (int e : edges) {
+			if (e != edge)
+				component[e] = UNASSIGNED;
+			discovery[core.edgeFrom[e]] = discovery[core.edgeTo[e]] = -1;
+		}
+		for (int e : edges) {
+			if (discovery[core.edgeFrom[e]] < 0)
+				search(core.edgeFrom[e]);
+			if (discovery[core.edgeTo[e]] < 0)
+				search(core.edgeTo[e]);
+		}
+	}
+
+	private void reopenEdge(int edge) {
+		if (component[edge] != -1)
+			return;
+		int from = core.edgeFrom[edge], to = core.edgeTo[edge];
+
+		// breadth-first over the blocks, from those around one end until one
+		// that holds the other end, remembering which block led to which.
+		Map<Integer, Integer> previous = new HashMap<>();
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		markStamp++;
+		mark[from] = markStamp;
+		for (int i = core.adjOffset[from]; i < core.adjOffset[from + 1]; i++) {
+			int block = component[core.adjEdge[i]];
+			if (block >= 0 && previous.putIfAbsent(block, -1) == null)
+				queue.add(block);
+		}
+		int found = -1;
+		search: while (!queue.isEmpty()) {
+			int block = queue.poll();
+			for (int e : blocks.get(block)) {
+				for (int node = core.edgeFrom[e], end = 0; end < 2; end++, node = core.edgeTo[e]) {
+					if (node == to) {
+						found = block;
+						break search;
+					}
+					if (mark[node] == markStamp)
+						continue;
+					mark[node] = markStamp;
+					for (int i = core.adjOffset[node]; i < core.adjOffset[node + 1]; i++) {
+						int next = component[core.adjEdge[i]];
+						if (next >= 0 && previous.putIfAbsent(next, block) == null)
+							queue.add(next);
+					}
+				}
+			}
+		}
+
+		// the segment, and every block on the way, become one block.
+		List<int[]> merged = new ArrayList<>();
+		int size = 1;
+		for (int block = found; block >= 0; block = previous.get(block)) {
+			int[] edges = removeBlock(block);
+			merged.add(edges);
+			size += edges.length;
+		}
+		int[] edges = new int[size];
+		edges[0] = edge;
+		size = 1;
+		for (int[] part : merged) {
+			System.arraycopy(part, 0, edges, size, part.length);
+			size += part.length;
+		}
+		addBlock(edges);
+	}
+
+	/**
+	 * Tarjan's search from the root, over the segments that are waiting to be
+	 * searched, making a block of each group it finds.
+	 */
+	private void search(int root) {
+		int top = 0, edgeTop = 0;
+		discovery[root] = low[root] = time++;
+		parentEdge[root] = -1;
+		cursor[root] = core.adjOffset[root];
+		stack[top++] = root;
+
+		while (top > 0) {
+			int u = stack[top - 1];
+			if (cursor[u] < core.adjOffset[u + 1]) {
+				int i = cursor[u]++;
+				int v = core.adjTarget[i], e = core.adjEdge[i];
+				// segments already in a block have been dealt with from the
+				// other end, if they were ever needed.
+				if (e == parentEdge[u] || component[e] != UNASSIGNED)
+					continue;
+				if (discovery[v] < 0) {
+					// a tree segment: go down to v.
+					edgeStack[edgeTop++] = e;
+					discovery[v] = low[v] = time++;
+					parentEdge[v] = e;
+					cursor[v] = core.adjOffset[v];
+					stack[top++] = v;
+				} else if (discovery[v] < discovery[u]) {
+					// a back segment to an ancestor. (seen from the
+					// ancestor's end it goes to a finished descendant,
+					// and is skipped.)
+					edgeStack[edgeTop++] = e;
+					low[u] = Math.min(low[u], discovery[v]);
+				}
+			} else {
+				// u is finished; pass its low point up to its parent.
+				top--;
+				if (u == root)
+					break;
+				int e = parentEdge[u];
+				int p = core.opposite(e, u);
+				low[p] = Math.min(low[p], low[u]);
+				if (low[u] >= discovery[p]) {
+					// nothing below u reaches above p, so the segments pushed
+					// since e make up a block.
+					int count = 0;
+					while (edgeStack[edgeTop - 1 - count] != e)
+						count++;
+					count++;
+					edgeTop -= count;
+					addBlock(Arrays.copyOfRange(edgeStack, edgeTop, edgeTop + count));
+				}
+			}
+		}
+	}
+
+	private void addBlock(int[] edges) {
+		int block = blocks.size();
+		blocks.add(edges);
+		blockCount++;
+		for (int e : edges)
+			component[e] = block;
+		countNodes(edges, 1);
+	}
+
+	/**
+	 * Takes a block away, and returns its segments.
+	 */
+	private int[] removeBlock(int block) {
+		int[] edges = blocks.get(block);
+		blocks.set(block, null);
+		blockCount--;
+		countNodes(edges, -1);
+		return edges;
+	}
+
+	/**
+	 * Adds the change to the block count of each distinct node of a block.
+	 */
+	private void countNodes(int[] edges, int change) {
+		markStamp++;
+		for (int e : edges) {
+			for (int node = core.edgeFrom[e], end = 0; end < 2; end++, node = core.edgeTo[e]) {
+				if (mark[node] != markStamp) {
+					mark[node] = markStamp;
+					nodeBlocks[node] += change;
+				}
+			}
+		}
+	}
+}
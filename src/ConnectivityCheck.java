@@ -0,0 +1,160 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that Connectivity keeps its articulation points, bridges and blocks
+ * right as roads close and reopen. It makes a random run of closures and
+ * reopenings, some of single segments and some of whole roads, and after
+ * each one compares the incrementally updated Connectivity with one found
+ * from scratch with the same segments closed. It prints how many updates
+ * matched, and fails if any didn't.
+ *
+ * Before and after the run, the articulation points and bridges are also
+ * checked by brute force: each node and each segment is taken out of the map
+ * in turn, and the connected components that are left are counted.
+ */
+public class ConnectivityCheck {
+
+	// the same run every time.
+	private static final long SEED = 16;
+
+	/**
+	 * Returns how many ways the two differ: in which nodes are articulation
+	 * points, which segments are bridges, and how the segments are split
+	 * into blocks (whatever the blocks are numbered).
+	 */
+	private static int compare(GraphCore core, Connectivity expected, Connectivity actual) {
+		int differences = 0;
+		for (int v = 0; v < core.nodeCount; v++)
+			if (expected.isArticulationPoint(v) != actual.isArticulationPoint(v))
+				differences++;
+		Map<Integer, Integer> forward = new HashMap<>(), backward = new HashMap<>();
+		for (int e = 0; e < core.edgeCount; e++) {
+			if (expected.isBridge(e) != actual.isBridge(e))
+				differences++;
+			int a = expected.getBiconnectedComponent(e), b = actual.getBiconnectedComponent(e);
+			if ((a < 0) != (b < 0)) {
+				differences++;
+			} else if (a >= 0) {
+				// the blocks have to correspond one to one.
+				if (forward.computeIfAbsent(a, k -> b) != b
+						|| backward.computeIfAbsent(b, k -> a) != a)
+					differences++;
+			}
+		}
+		return differences;
+	}
+
+	/**
+	 * Returns how many nodes and segments Connectivity gets wrong: a node is
+	 * an articulation point, and a segment is a bridge, exactly when taking it
+	 * out of the map (leaving the closed segments out too) leaves more
+	 * connected components than there were.
+	 */
+	private static int bruteForce(GraphCore core, boolean[] closed, Connectivity connectivity) {
+		boolean[] isPoint = new boolean[core.nodeCount];
+		for (int v : connectivity.getArticulationPoints())
+			isPoint[v] = true;
+		boolean[] isBridge = new boolean[core.edgeCount];
+		for (int e : connectivity.getBridges())
+			isBridge[e] = true;
+
+		int components = countComponents(core, closed, -1, -1);
+		int differences = 0;
+		for (int v = 0; v < core.nodeCount; v++)
+			if ((countComponents(core, closed, v, -1) > components) != isPoint[v])
+				differences++;
+		for (int e = 0; e < core.edgeCount; e++)
+			if ((!closed[e] && countComponents(core, closed, -1, e) > components) != isBridge[e])
+				differences++;
+		return differences;
+	}
+
+	/**
+	 * Counts the connected components of the map without the given node and
+	 * segment (-1 for none) or any closed segment, with a union-find over the
+	 * ends of the segments.
+	 */
+	private static int countComponents(GraphCore core, boolean[] closed, int node, int edge) {
+		int[] parent = new int[core.nodeCount];
+		Arrays.setAll(parent, v -> v);
+		int count = node < 0 ? core.nodeCount : core.nodeCount - 1;
+		for (int e = 0; e < core.edgeCount; e++) {
+			if (e == edge || closed[e] || core.edgeFrom[e] == node || core.edgeTo[e] == node)
+				continue;
+			int a = find(parent, core.edgeFrom[e]), b = find(parent, core.edgeTo[e]);
+			if (a != b) {
+				parent[a] = b;
+				count--;
+			}
+		}
+		return count;
+	}
+
+	private static int find(int[] parent, int v) {
+		while (parent[v] != v)
+			v = parent[v] = parent[parent[v]];
+		return v;
+	}
+
+	/**
+	 * Runs the brute-force check, printing how many articulation points and
+	 * bridges there are and how many nodes and segments were wrong.
+	 */
+	private static int checkBruteForce(String when, GraphCore core, boolean[] closed,
+			Connectivity connectivity) {
+		int wrong = bruteForce(core, closed, connectivity);
+		System.out.printf("%s: %d articulation points and %d bridges, %d wrong by brute force%n",
+				when, connectivity.getArticulationPoints().length,
+				connectivity.getBridges().length, wrong);
+		return wrong;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("usage: java ConnectivityCheck <map directory> [updates]");
+			return;
+		}
+		File dir = new File(args[0]);
+		int updates = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		Graph graph = MapSnapshot.open(new File(dir, "nodeID-lat-lon.tab"), new File(
+				dir, "roadID-roadInfo.tab"), new File(dir,
+				"roadSeg-roadID-length-nodeID-nodeID-coords.tab"), null);
+		GraphCore core = graph.core;
+		Closures closures = new Closures(core);
+		Connectivity incremental = new Connectivity(core, closures);
+		Random random = new Random(SEED);
+		int bruteWrong = checkBruteForce("open map", core, closures.snapshot(), incremental);
+
+		int wrong = 0;
+		for (int i = 0; i < updates; i++) {
+			// mostly closing, so a good part of the map ends up closed.
+			int choice = random.nextInt(10);
+			if (choice < 5)
+				closures.close(core.segments[random.nextInt(core.edgeCount)]);
+			else if (choice < 8)
+				closures.reopen(core.segments[random.nextInt(core.edgeCount)]);
+			else if (choice < 9)
+				closures.close(core.roads[random.nextInt(core.roadCount)]);
+			else
+				closures.reopen(core.roads[random.nextInt(core.roadCount)]);
+
+			// a separate copy of the closures, so the fresh one isn't updated.
+			Closures copy = new Closures(core);
+			boolean[] closed = closures.snapshot();
+			for (int e = 0; e < core.edgeCount; e++)
+				if (closed[e])
+					copy.close(core.segments[e]);
+			if (compare(core, new Connectivity(core, copy), incremental) > 0)
+				wrong++;
+		}
+		System.out.printf("%d of %d updates match a fresh search (%d segments closed)%n",
+				updates - wrong, updates, closures.size());
+		bruteWrong += checkBruteForce("after the updates", core, closures.snapshot(), incremental);
+		if (wrong > 0 || bruteWrong > 0)
+			throw new RuntimeException("connectivity check failed.");
+	}
+}
@@ -0,0 +1,464 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A contraction hierarchy over the directed road graph, for answering
+ * point-to-point shortest path queries much faster than A*.
+ *
+ * Preprocessing contracts the nodes one at a time, least important first
+ * (by edge difference plus the number of neighbours already contracted). To
+ * contract a node v, every path u -> v -> x between remaining neighbours is
+ * checked with a small local Dijkstra search (the witness search) that avoids
+ * v; if no path at least as short is found, a shortcut u -> x is added. The
+ * order nodes were contracted in becomes their rank.
+ *
+ * A query then runs Dijkstra forwards from the start over arcs that go up in
+ * rank, and backwards from the target over arcs that come down in rank, and
+ * the shortest path goes through the node where the two searches' distances
+ * add up to the least. Shortcuts remember the two arcs they replace, so the
+ * path can be unpacked back into the original segments.
+ *
+ * One-way roads are respected, since the hierarchy is built from the directed
+ * out arcs of the GraphCore. Queries keep their state per thread, so one
+ * hierarchy can answer queries from several threads at once.
+ */
+public class ContractionHierarchy {
+
+	// a witness search gives up after settling this many nodes, and the
+	// shortcut is added to be safe.
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private final GraphCore core;
+	private final int n;
+
+	// the order in which the nodes were contracted.
+	private final int[] rank;
+
+	// the arcs of the hierarchy. original arcs know their segment and have no
+	// children; shortcuts have segment -1 and the two arcs (from -> middle and
+	// middle -> to) that they stand for.
+	private int arcCount, originalArcs;
+	private int[] arcFrom, arcTo, arcEdge, arcFirst, arcSecond;
+	private double[] arcWeight;
+
+	// the query graph, in CSR form. up arcs are stored with their tail and
+	// lead to a higher-ranked node; down arcs are stored with their head and
+	// come from a higher-ranked node, so the backward search can walk them in
+	// reverse.
+	private int[] upOffset, upTarget, upArc;
+	private int[] downOffset, downTarget, downArc;
+
+	// only used while contracting.
+	private int[][] outArcs, inArcs;
+	private int[] outDegree, inDegree;
+	private boolean[] contracted;
+
+	private final ThreadLocal<Search> searches;
+
+	/**
+	 * Builds the hierarchy, using the given cost for each segment (usually
+	 * GraphCore.edgeLength or GraphCore.edgeTime).
+	 */
+	public ContractionHierarchy(GraphCore core, double[] edgeWeight) {
+		this.core = core;
+		this.n = core.nodeCount;
+		this.rank = new int[n];
+		this.searches = ThreadLocal.withInitial(() -> new Search(n));
+
+		initialiseArcs(edgeWeight);
+		contractAll();
+		buildQueryGraph();
+		outArcs = inArcs = null;
+		outDegree = inDegree = null;
+		contracted = null;
+	}
+
+	/**
+	 * Returns the shortest route from one node to another, or null if the
+	 * target can't be reached.
+	 */
+	public Route route(int from, int to) {
+		Search s = searches.get();
+		s.reset();
+		s.forward.relax(from, 0, -1, 0);
+		s.backward.relax(to, 0, -1, 0);
+
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+		int settled = 0;
+		while (true) {
+			double f = s.forward.heap.peekKey(), b = s.backward.heap.peekKey();
+			if (Math.min(f, b) >= best)
+				break;
+
+			boolean forwards = f <= b;
+			SearchContext side = forwards ? s.forward : s.backward;
+			SearchContext other = forwards ? s.backward : s.forward;
+			int[] offset = forwards ? upOffset : downOffset;
+			int[] target = forwards ? upTarget : downTarget;
+			int[] arcs = forwards ? upArc : downArc;
+
+			int u = side.heap.poll();
+			double du = side.g(u);
+			settled++;
+			if (du + other.g(u) < best) {
+				best = du + other.g(u);
+				meet = u;
+			}
+			for (int i = offset[u]; i < offset[u + 1]; i++) {
+				int v = target[i];
+				double dv = du + arcWeight[arcs[i]];
+				if (side.relax(v, dv, arcs[i], dv)) {
+					if (dv + other.g(v) < best) {
+						best = dv + other.g(v);
+						meet = v;
+					}
+				}
+			}
+		}
+		if (meet < 0)
+			return null;
+
+		// collect the hierarchy arcs from the start up to the meeting node,
+		// and from there down to the target, then unpack them.
+		int[] path = new int[16];
+		int size = 0;
+		for (int v = meet; s.forward.parentEdge(v) >= 0; v = arcFrom[s.forward.parentEdge(v)]) {
+			if (size == path.length)
+				path = Arrays.copyOf(path, 2 * size);
+			path[size++] = s.forward.parentEdge(v);
+		}
+		reverse(path, size);
+		for (int v = meet; s.backward.parentEdge(v) >= 0; v = arcTo[s.backward.parentEdge(v)]) {
+			if (size == path.length)
+				path = Arrays.copyOf(path, 2 * size);
+			path[size++] = s.backward.parentEdge(v);
+		}
+		return new Route(best, unpack(path, size), settled);
+	}
+
+	public int shortcutCount() {
+		return arcCount - originalArcs;
+	}
+
+	/**
+	 * Expands a sequence of hierarchy arcs into the segments they stand for.
+	 */
+	private int[] unpack(int[] arcs, int count) {
+		int[] edges = new int[Math.max(16, count)];
+		int size = 0;
+		int[] stack = new int[32];
+		for (int i = 0; i < count; i++) {
+			int top = 0;
+			stack[top++] = arcs[i];
+			while (top > 0) {
+				int arc = stack[--top];
+				if (arcEdge[arc] >= 0) {
+					if (size == edges.length)
+						edges = Arrays.copyOf(edges, 2 * size);
+					edges[size++] = arcEdge[arc];
+				} else {
+					if (top + 2 > stack.length)
+						stack = Arrays.copyOf(stack, 2 * stack.length);
+					// push the second half first, so the first is expanded
+					// first.
+					stack[top++] = arcSecond[arc];
+					stack[top++] = arcFirst[arc];
+				}
+			}
+		}
+		return Arrays.copyOf(edges, size);
+	}
+
+	private static void reverse(int[] a, int size) {
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			int t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+
+	// ------------------------------------------------------------------
+	// preprocessing
+	// ------------------------------------------------------------------
+
+	/**
+	 * Makes one arc for every pair of nodes joined by a drivable segment,
+	 * keeping only the cheapest when there are several, and dropping loops.
+	 */
+	private void initialiseArcs(double[] edgeWeight) {
+		int capacity = Math.max(16, 2 * core.outTarget.length);
+		arcFrom = new int[capacity];
+		arcTo = new int[capacity];
+		arcEdge = new int[capacity];
+		arcFirst = new int[capacity];
+		arcSecond = new int[capacity];
+		arcWeight = new double[capacity];
+
+		outArcs = new int[n][];
+		inArcs = new int[n][];
+		outDegree = new int[n];
+		inDegree = new int[n];
+		contracted = new boolean[n];
+		for (int v = 0; v < n; v++) {
+			outArcs[v] = new int[core.outOffset[v + 1] - core.outOffset[v] + 2];
+			inArcs[v] = new int[core.inOffset[v + 1] - core.inOffset[v] + 2];
+		}
+
+		for (int u = 0; u < n; u++) {
+			for (int i = core.outOffset[u]; i < core.outOffset[u + 1]; i++) {
+				int v = core.outTarget[i], e = core.outEdge[i];
+				if (v == u)
+					continue;
+				int existing = findArc(u, v);
+				if (existing < 0)
+					addArc(u, v, edgeWeight[e], e, -1, -1);
+				else if (edgeWeight[e] < arcWeight[existing]) {
+					arcWeight[existing] = edgeWeight[e];
+					arcEdge[existing] = e;
+				}
+			}
+		}
+		originalArcs = arcCount;
+	}
+
+	private void contractAll() {
+		SearchContext witness = new SearchContext(n);
+		int[] contractedNeighbours = new int[n];
+		int[] priority = new int[n];
+
+		// entries are (priority, node) packed into a long, so they sort by
+		// priority and then node. entries whose priority no longer matches
+		// are stale and skipped.
+		PriorityQueue<Long> queue = new PriorityQueue<>();
+		for (int v = 0; v < n; v++) {
+			priority[v] = priority(v, contractedNeighbours, witness);
+			queue.add(entry(priority[v], v));
+		}
+
+		int next = 0;
+		while (!queue.isEmpty()) {
+			long top = queue.poll();
+			int v = (int) top;
+			if (contracted[v] || (int) (top >> 32) != priority[v])
+				continue;
+
+			// lazy update: if v has become more important than the next
+			// node in the queue, put it back.
+			int current = priority(v, contractedNeighbours, witness);
+			if (current != priority[v]) {
+				priority[v] = current;
+				queue.add(entry(current, v));
+				continue;
+			}
+
+			contract(v, false, witness);
+			contracted[v] = true;
+			rank[v] = next++;
+
+			// its neighbours' priorities have changed.
+			for (int i = 0; i < outDegree[v]; i++)
+				update(arcTo[outArcs[v][i]], contractedNeighbours, priority, queue, witness);
+			for (int i = 0; i < inDegree[v]; i++)
+				update(arcFrom[inArcs[v][i]], contractedNeighbours, priority, queue, witness);
+		}
+	}
+
+	private void update(int w, int[] contractedNeighbours, int[] priority,
+			PriorityQueue<Long> queue, SearchContext witness) {
+		if (contracted[w])
+			return;
+		contractedNeighbours[w]++;
+		priority[w] = priority(w, contractedNeighbours, witness);
+		queue.add(entry(priority[w], w));
+	}
+
+	private static long entry(int priority, int v) {
+		return ((long) priority << 32) | v;
+	}
+
+	/**
+	 * The edge difference of contracting v (shortcuts added minus arcs
+	 * removed), plus how many of its neighbours are already contracted, which
+	 * spreads the contraction evenly over the map.
+	 */
+	private int priority(int v, int[] contractedNeighbours, SearchContext witness) {
+		int removed = 0;
+		for (int i = 0; i < outDegree[v]; i++)
+			if (!contracted[arcTo[outArcs[v][i]]])
+				removed++;
+		for (int i = 0; i < inDegree[v]; i++)
+			if (!contracted[arcFrom[inArcs[v][i]]])
+				removed++;
+		return contract(v, true, witness) - removed + contractedNeighbours[v];
+	}
+
+	/**
+	 * Works out which shortcuts contracting v needs, and adds them unless
+	 * simulating. Returns how many there are.
+	 */
+	private int contract(int v, boolean simulate, SearchContext witness) {
+		int shortcuts = 0;
+		for (int i = 0; i < inDegree[v]; i++) {
+			int in = inArcs[v][i];
+			int u = arcFrom[in];
+			if (contracted[u])
+				continue;
+
+			double limit = -1;
+			for (int j = 0; j < outDegree[v]; j++) {
+				int out = outArcs[v][j];
+				int x = arcTo[out];
+				if (!contracted[x] && x != u)
+					limit = Math.max(limit, arcWeight[in] + arcWeight[out]);
+			}
+			if (limit < 0)
+				continue;
+
+			witnessSearch(witness, u, v, limit);
+			for (int j = 0; j < outDegree[v]; j++) {
+				int out = outArcs[v][j];
+				int x = arcTo[out];
+				if (contracted[x] || x == u)
+					continue;
+				double via = arcWeight[in] + arcWeight[out];
+				if (witness.g(x) > via) {
+					shortcuts++;
+					if (!simulate)
+						addShortcut(u, x, via, in, out);
+				}
+			}
+		}
+		return shortcuts;
+	}
+
+	/**
+	 * Dijkstra from u over the nodes not yet contracted, never going through
+	 * v, until everything within the limit is settled or it has settled
+	 * WITNESS_SETTLE_LIMIT nodes.
+	 */
+	private void witnessSearch(SearchContext witness, int u, int v, double limit) {
+		witness.reset();
+		witness.relax(u, 0, -1, 0);
+		int settled = 0;
+		while (!witness.heap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+			int w = witness.heap.poll();
+			double dw = witness.g(w);
+			if (dw > limit)
+				break;
+			settled++;
+			for (int i = 0; i < outDegree[w]; i++) {
+				int arc = outArcs[w][i];
+				int x = arcTo[arc];
+				if (x == v || contracted[x])
+					continue;
+				double dx = dw + arcWeight[arc];
+				witness.relax(x, dx, arc, dx);
+			}
+		}
+	}
+
+	private void addShortcut(int u, int x, double weight, int first, int second) {
+		// there can only be one arc between two uncontracted nodes. if one is
+		// already there and is longer, it can be replaced in place, as nothing
+		// refers to an arc between two uncontracted nodes yet.
+		int existing = findArc(u, x);
+		if (existing < 0) {
+			addArc(u, x, weight, -1, first, second);
+		} else if (weight < arcWeight[existing]) {
+			arcWeight[existing] = weight;
+			arcEdge[existing] = -1;
+			arcFirst[existing] = first;
+			arcSecond[existing] = second;
+		}
+	}
+
+	private int findArc(int u, int v) {
+		for (int i = 0; i < outDegree[u]; i++)
+			if (arcTo[outArcs[u][i]] == v)
+				return outArcs[u][i];
+		return -1;
+	}
+
+	private void addArc(int u, int v, double weight, int edge, int first, int second) {
+		if (arcCount == arcFrom.length) {
+			int capacity = 2 * arcCount;
+			arcFrom = Arrays.copyOf(arcFrom, capacity);
+			arcTo = Arrays.copyOf(arcTo, capacity);
+			arcEdge = Arrays.copyOf(arcEdge, capacity);
+			arcFirst = Arrays.copyOf(arcFirst, capacity);
+			arcSecond = Arrays.copyOf(arcSecond, capacity);
+			arcWeight = Arrays.copyOf(arcWeight, capacity);
+		}
+		int arc = arcCount++;
+		arcFrom[arc] = u;
+		arcTo[arc] = v;
+		arcWeight[arc] = weight;
+		arcEdge[arc] = edge;
+		arcFirst[arc] = first;
+		arcSecond[arc] = second;
+
+		if (outDegree[u] == outArcs[u].length)
+			outArcs[u] = Arrays.copyOf(outArcs[u], 2 * outDegree[u] + 2);
+		outArcs[u][outDegree[u]++] = arc;
+		if (inDegree[v] == inArcs[v].length)
+			inArcs[v] = Arrays.copyOf(inArcs[v], 2 * inDegree[v] + 2);
+		inArcs[v][inDegree[v]++] = arc;
+	}
+
+	/**
+	 * Sorts every arc into the up graph of its tail or the down graph of its
+	 * head, depending on which end has the higher rank.
+	 */
+	private void buildQueryGraph() {
+		upOffset = new int[n + 1];
+		downOffset = new int[n + 1];
+		for (int arc = 0; arc < arcCount; arc++) {
+			if (rank[arcTo[arc]] > rank[arcFrom[arc]])
+				upOffset[arcFrom[arc] + 1]++;
+			else
+				downOffset[arcTo[arc] + 1]++;
+		}
+		for (int v = 0; v < n; v++) {
+			upOffset[v + 1] += upOffset[v];
+			downOffset[v + 1] += downOffset[v];
+		}
+		upTarget = new int[upOffset[n]];
+		upArc = new int[upOffset[n]];
+		downTarget = new int[downOffset[n]];
+		downArc = new int[downOffset[n]];
+		int[] upFill = Arrays.copyOf(upOffset, n);
+		int[] downFill = Arrays.copyOf(downOffset, n);
+		for (int arc = 0; arc < arcCount; arc++) {
+			int u = arcFrom[arc], v = arcTo[arc];
+			if (rank[v] > rank[u]) {
+				upTarget[upFill[u]] = v;
+				upArc[upFill[u]++] = arc;
+			} else {
+				downTarget[downFill[v]] = u;
+				downArc[downFill[v]++] = arc;
+			}
+		}
+	}
+
+	// ------------------------------------------------------------------
+	// search state
+	// ------------------------------------------------------------------
+
+	/**
+	 * The forward and backward search state of one thread.
+	 */
+	private static class Search {
+		final SearchContext forward, backward;
+
+		Search(int n) {
+			forward = new SearchContext(n);
+			backward = new SearchContext(n);
+		}
+
+		void reset() {
+			forward.reset();
+			backward.reset();
+		}
+	}
+}
@@ -0,0 +1,588 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A customizable contraction hierarchy: a routing index that is built once
+ * from the shape of the road graph alone, and can then be given new segment
+ * costs (live congestion, closed roads, a different vehicle) many times over,
+ * each time in a few milliseconds, without building it again.
+ *
+ * Building it (the metric-independent part) orders the nodes by nested
+ * dissection: the map is cut in half along its longer side, the nodes on the
+ * smaller side of the cut that touch the other side become a separator, both
+ * halves are ordered the same way, and the separator goes above them. Then
+ * every node is eliminated in that order, joining all its higher neighbours
+ * up to each other, so the shortcuts only depend on the order, never on the
+ * costs. Everything is renumbered by rank, so node r is the r-th eliminated.
+ *
+ * Customising takes a cost for every segment (infinity for ones that can't be
+ * used) and works out the cost of each arc of the hierarchy in both
+ * directions. An arc x -> y between two higher neighbours of v costs no more
+ * than x -> v -> y (a lower triangle), so the arcs are worked out from the
+ * bottom up. A node's arcs only depend on the arcs of nodes below it, so all
+ * the nodes of the same level (one more than the highest level below them)
+ * are done in parallel. Each customisation is published as a whole, so
+ * queries running alongside see either the old costs or the new ones.
+ *
+ * A query walks up the elimination tree (each node's parent is its lowest
+ * higher neighbour) from both ends, relaxing the arcs of every node on the
+ * way, with no priority queue; the route goes through the common ancestor with
+ * the smallest total. Every higher neighbour of a node is one of its
+ * ancestors, so nothing off the two paths is ever touched. Arcs remember the
+ * triangle (or the segment) that gave their cost, so routes can be unpacked
+ * into segments.
+ *
+ * One-way roads are respected, as arcs have a separate cost each way. Queries
+ * keep their state per thread, so one hierarchy can answer queries from
+ * several threads at once, while another customises it.
+ */
+public class CustomizableHierarchy {
+
+	// parts of the map this small aren't dissected any further.
+	private static final int LEAF_SIZE = 32;
+	// levels with fewer nodes than this are customised on the calling thread.
+	private static final int PARALLEL_LEVEL = 256;
+
+	private final GraphCore core;
+	private final int n;
+	// the rank of each node.
+	private final int[] rank;
+
+	// the arcs, in CSR form by their lower end, each list in increasing rank.
+	// arc i joins upSource[i] and upTarget[i], the higher of the two.
+	private int[] upOffset, upSource, upTarget;
+	// the parent of each node in the elimination tree, or -1 for roots.
+	private int[] parent;
+
+	// for each node, the arcs to it from lower nodes (its lower triangles).
+	private int[] downOffset, downArc;
+
+	// the directed arcs of the GraphCore, grouped by the lower end of the arc
+	// of the hierarchy they belong to, and whether they go up or down it.
+	private int[] inputOffset, inputArc, inputEdge;
+	private boolean[] inputUp;
+
+	// the nodes of each customisation level, in CSR form.
+	private int[] levelOffset, levelNode;
+
+	private volatile Metric metric;
+	private final ThreadLocal<Query> queries;
+
+	/**
+	 * Orders the nodes and works out the shortcuts. The hierarchy can't
+	 * answer queries until it has been customised.
+	 */
+	public CustomizableHierarchy(GraphCore core) {
+		this.core = core;
+		this.n = core.nodeCount;
+		this.rank = new int[n];
+		this.queries = ThreadLocal.withInitial(() -> new Query(n));
+
+		order();
+		eliminate();
+		buildLowerTriangles();
+		buildInputs();
+		buildLevels();
+	}
+
+	/**
+	 * Builds the hierarchy and customises it with the given segment costs.
+	 */
+	public CustomizableHierarchy(GraphCore core, double[] edgeWeight) {
+		this(core);
+		customise(edgeWeight);
+	}
+
+	/**
+	 * Works out the costs of all the arcs from the cost of each segment,
+	 * indexed by segment id. A segment that costs infinity is never used.
+	 * Queries that start afterwards use the new costs.
+	 */
+	public void customise(double[] edgeWeight) {
+		Metric m = new Metric(upTarget.length);
+		for (int level = 0; level + 1 < levelOffset.length; level++) {
+			int from = levelOffset[level], to = levelOffset[level + 1];
+			if (to - from < PARALLEL_LEVEL) {
+				for (int i = from; i < to; i++)
+					customise(m, edgeWeight, levelNode[i]);
+			} else {
+				IntStream.range(from, to).parallel().forEach(
+						i -> customise(m, edgeWeight, levelNode[i]));
+			}
+		}
+		metric = m;
+	}
+
+	/**
+	 * Returns the cheapest route from one node to another by the last
+	 * customised costs, or null if the target can't be reached.
+	 */
+	public Route route(int from, int to) {
+		Metric m = metric;
+		if (m == null)
+			throw new IllegalStateException("hierarchy has not been customised.");
+		Query q = queries.get();
+		int s = rank[from], t = rank[to];
+		q.stamp++;
+		for (int v = s; v >= 0; v = parent[v]) {
+			q.forward[v] = Double.POSITIVE_INFINITY;
+			q.seen[v] = q.stamp;
+		}
+		for (int v = t; v >= 0; v = parent[v])
+			q.backward[v] = Double.POSITIVE_INFINITY;
+		q.forward[s] = 0;
+		q.backward[t] = 0;
+
+		int expanded = climb(s, q.forward, q.forwardArc, m.up)
+				+ climb(t, q.backward, q.backwardArc, m.down);
+
+		// the common ancestors are where the two paths up join.
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+		for (int v = t; v >= 0; v = parent[v]) {
+			if (q.seen[v] == q.stamp && q.forward[v] + q.backward[v] < best) {
+				best = q.forward[v] + q.backward[v];
+				meet = v;
+			}
+		}
+		if (meet < 0)
+			return null;
+
+		// the arcs from the start up to the meeting node, then down to the
+		// target, as 2 * arc + 1 for the ones taken downwards.
+		int upwards = 0, downwards = 0;
+		for (int v = meet; v != s; v = upSource[q.forwardArc[v]])
+			upwards++;
+		for (int v = meet; v != t; v = upSource[q.backwardArc[v]])
+			downwards++;
+		int[] path = new int[upwards + downwards];
+		int i = upwards;
+		for (int v = meet; v != s; v = upSource[q.forwardArc[v]])
+			path[--i] = 2 * q.forwardArc[v];
+		i = upwards;
+		for (int v = meet; v != t; v = upSource[q.backwardArc[v]])
+			path[i++] = 2 * q.backwardArc[v] + 1;
+		return new Route(best, unpack(m, path), expanded);
+	}
+
+	/**
+	 * Relaxes the arcs of every node on the way up the elimination tree from
+	 * v, and returns how many nodes that was.
+	 */
+	private int climb(int v, double[] g, int[] arcOf, double[] weight) {
+		int count = 0;
+		for (; v >= 0; v = parent[v]) {
+			count++;
+			if (g[v] == Double.POSITIVE_INFINITY)
+				continue;
+			for (int i = upOffset[v]; i < upOffset[v + 1]; i++) {
+				int y = upTarget[i];
+				double gy = g[v] + weight[i];
+				if (gy < g[y]) {
+					g[y] = gy;
+					arcOf[y] = i;
+				}
+			}
+		}
+		return count;
+	}
+
+	public int arcCount() {
+		return upTarget.length;
+	}
+
+	/**
+	 * Expands arcs (as 2 * arc, plus 1 if taken downwards) into the segments
+	 * they stand for.
+	 */
+	private int[] unpack(Metric m, int[] arcs) {
+		int[] edges = new int[Math.max(16, arcs.length)];
+		int size = 0;
+		int[] stack = new int[32];
+		for (int item : arcs) {
+			int top = 0;
+			stack[top++] = item;
+			while (top > 0) {
+				int next = stack[--top];
+				int arc = next >> 1;
+				boolean down = (next & 1) == 1;
+				int edge = down ? m.downEdge[arc] : m.upEdge[arc];
+				if (edge >= 0) {
+					if (size == edges.length)
+						edges = Arrays.copyOf(edges, 2 * size);
+					edges[size++] = edge;
+					continue;
+				}
+				// x -> y goes x -> middle -> y, and y -> x the other way.
+				int middle = down ? m.downMiddle[arc] : m.upMiddle[arc];
+				int low = 2 * arc(middle, upSource[arc]), high = 2 * arc(middle, upTarget[arc]);
+				if (top + 2 > stack.length)
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				// push the second half first, so the first is expanded first.
+				if (down) {
+					stack[top++] = low;
+					stack[top++] = high + 1;
+				} else {
+					stack[top++] = high;
+					stack[top++] = low + 1;
+				}
+			}
+		}
+		return Arrays.copyOf(edges, size);
+	}
+
+	/**
+	 * Returns the arc between a node and a higher one.
+	 */
+	private int arc(int low, int high) {
+		return Arrays.binarySearch(upTarget, upOffset[low], upOffset[low + 1], high);
+	}
+
+	// ------------------------------------------------------------------
+	// customisation
+	// ------------------------------------------------------------------
+
+	/**
+	 * Works out the costs of the arcs from x up, which only needs the arcs of
+	 * nodes below x to be done.
+	 */
+	private void customise(Metric m, double[] edgeWeight, int x) {
+		for (int i = upOffset[x]; i < upOffset[x + 1]; i++) {
+			m.up[i] = m.down[i] = Double.POSITIVE_INFINITY;
+			m.upEdge[i] = m.downEdge[i] = -1;
+			m.upMiddle[i] = m.downMiddle[i] = -1;
+		}
+
+		// the segments themselves.
+		for (int k = inputOffset[x]; k < inputOffset[x + 1]; k++) {
+			int i = inputArc[k], e = inputEdge[k];
+			double w = edgeWeight[e];
+			if (inputUp[k]) {
+				if (w < m.up[i]) {
+					m.up[i] = w;
+					m.upEdge[i] = e;
+				}
+			} else if (w < m.down[i]) {
+				m.down[i] = w;
+				m.downEdge[i] = e;
+			}
+		}
+
+		// the lower triangles: for each lower neighbour v, x -> v -> y and
+		// y -> v -> x for every higher neighbour y of v above x. those y are
+		// all higher neighbours of x too, in the same order.
+		for (int d = downOffset[x]; d < downOffset[x + 1]; d++) {
+			int vx = downArc[d];
+			int v = upSource[vx];
+			int k = upOffset[x];
+			for (int j = vx + 1; j < upOffset[v + 1]; j++) {
+				int y = upTarget[j];
+				while (upTarget[k] != y)
+					k++;
+				double through = m.down[vx] + m.up[j];
+				if (through < m.up[k]) {
+					m.up[k] = through;
+					m.upEdge[k] = -1;
+					m.upMiddle[k] = v;
+				}
+				through = m.down[j] + m.up[vx];
+				if (through < m.down[k]) {
+					m.down[k] = through;
+					m.downEdge[k] = -1;
+					m.downMiddle[k] = v;
+				}
+			}
+		}
+	}
+
+	// ------------------------------------------------------------------
+	// metric-independent preprocessing
+	// ------------------------------------------------------------------
+
+	/**
+	 * Ranks the nodes by nested dissection.
+	 */
+	private void order() {
+		int[] work = new int[n];
+		for (int v = 0; v < n; v++)
+			work[v] = v;
+		int[] label = new int[n];
+		int[] next = { 0 };
+		dissect(work, new int[n], 0, n, label, new int[] { 0 }, next);
+	}
+
+	/**
+	 * Ranks the nodes work[from, to), above every rank handed out before.
+	 */
+	private void dissect(int[] work, int[] scratch, int from, int to, int[] label,
+			int[] calls, int[] next) {
+		if (to - from <= LEAF_SIZE) {
+			for (int i = from; i < to; i++)
+				rank[work[i]] = next[0]++;
+			return;
+		}
+
+		// split at the median of the longer side.
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = from; i < to; i++) {
+			int v = work[i];
+			minX = Math.min(minX, core.nodeX[v]);
+			maxX = Math.max(maxX, core.nodeX[v]);
+			minY = Math.min(minY, core.nodeY[v]);
+			maxY = Math.max(maxY, core.nodeY[v]);
+		}
+		double[] key = maxX - minX >= maxY - minY ? core.nodeX : core.nodeY;
+		int middle = (from + to) >>> 1;
+		select(work, key, from, to, middle);
+
+		// the nodes on each side that touch the other side.
+		int call = ++calls[0];
+		for (int i = from; i < to; i++)
+			label[work[i]] = 2 * call + (i < middle ? 0 : 1);
+		int leftBoundary = 0, rightBoundary = 0;
+		for (int i = from; i < to; i++) {
+			if (touches(work[i], label, 2 * call + (i < middle ? 1 : 0))) {
+				if (i < middle)
+					leftBoundary++;
+				else
+					rightBoundary++;
+			}
+		}
+
+		// the smaller boundary is the separator, and goes to the end.
+		boolean leftSeparates = leftBoundary <= rightBoundary;
+		int left = from, right = from, separator = 0;
+		int[] separators = new int[Math.min(leftBoundary, rightBoundary)];
+		for (int i = from; i < to; i++) {
+			int v = work[i];
+			boolean isLeft = i < middle;
+			if (isLeft == leftSeparates && touches(v, label, 2 * call + (isLeft ? 1 : 0)))
+				separators[separator++] = v;
+			else if (isLeft)
+				work[left++] = v;
+			else
+				scratch[right++] = v;
+		}
+		// (left never gets ahead of i, so the left part can be written back
+		// in place.)
+		int leftEnd = left;
+		System.arraycopy(scratch, from, work, leftEnd, right - from);
+		int rightEnd = leftEnd + right - from;
+		System.arraycopy(separators, 0, work, rightEnd, separator);
+
+		dissect(work, scratch, from, leftEnd, label, calls, next);
+		dissect(work, scratch, leftEnd, rightEnd, label, calls, next);
+		for (int i = rightEnd; i < to; i++)
+			rank[work[i]] = next[0]++;
+	}
+
+	/**
+	 * Returns whether v has a neighbour with the given label.
+	 */
+	private boolean touches(int v, int[] label, int other) {
+		for (int i = core.adjOffset[v]; i < core.adjOffset[v + 1]; i++)
+			if (label[core.adjTarget[i]] == other)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Rearranges a[from, to) so that a[k] has the key it would have if sorted,
+	 * with no bigger keys before it and no smaller ones after.
+	 */
+	private static void select(int[] a, double[] key, int from, int to, int k) {
+		int lo = from, hi = to - 1;
+		while (lo < hi) {
+			double pivot = key[a[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (key[a[i]] < pivot)
+					i++;
+				while (key[a[j]] > pivot)
+					j--;
+				if (i <= j) {
+					int t = a[i];
+					a[i++] = a[j];
+					a[j--] = t;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Eliminates the nodes in rank order, joining the higher neighbours of
+	 * each up to each other. Only the lowest of them (the parent) needs to be
+	 * told about the rest: its own higher neighbours then include them, and it
+	 * passes them on in turn when it is eliminated.
+	 */
+	private void eliminate() {
+		int[][] pending = new int[n][];
+		int[] pendingSize = new int[n];
+		for (int r = 0; r < n; r++)
+			pending[r] = new int[4];
+		for (int v = 0; v < n; v++) {
+			for (int i = core.adjOffset[v]; i < core.adjOffset[v + 1]; i++) {
+				int a = rank[v], b = rank[core.adjTarget[i]];
+				if (a < b)
+					pendingSize[a] = push(pending, pendingSize[a], a, b);
+			}
+		}
+
+		int[][] up = new int[n][];
+		parent = new int[n];
+		int arcs = 0;
+		for (int r = 0; r < n; r++) {
+			int[] list = pending[r];
+			int size = pendingSize[r];
+			pending[r] = null;
+			Arrays.sort(list, 0, size);
+			int distinct = 0;
+			for (int i = 0; i < size; i++)
+				if (distinct == 0 || list[i] != list[distinct - 1])
+					list[distinct++] = list[i];
+			up[r] = Arrays.copyOf(list, distinct);
+			arcs += distinct;
+			parent[r] = distinct == 0 ? -1 : list[0];
+			if (distinct > 0) {
+				int p = list[0];
+				for (int i = 1; i < distinct; i++)
+					pendingSize[p] = push(pending, pendingSize[p], p, list[i]);
+			}
+		}
+
+		upOffset = new int[n + 1];
+		upSource = new int[arcs];
+		upTarget = new int[arcs];
+		for (int r = 0; r < n; r++) {
+			upOffset[r + 1] = upOffset[r] + up[r].length;
+			System.arraycopy(up[r], 0, upTarget, upOffset[r], up[r].length);
+			Arrays.fill(upSource, upOffset[r], upOffset[r + 1], r);
+		}
+	}
+
+	private static int push(int[][] lists, int size, int r, int value) {
+		if (size == lists[r].length)
+			lists[r] = Arrays.copyOf(lists[r], 2 * size);
+		lists[r][size] = value;
+		return size + 1;
+	}
+
+	private void buildLowerTriangles() {
+		downOffset = new int[n + 1];
+		for (int i = 0; i < upTarget.length; i++)
+			downOffset[upTarget[i] + 1]++;
+		for (int r = 0; r < n; r++)
+			downOffset[r + 1] += downOffset[r];
+		downArc = new int[upTarget.length];
+		int[] fill = Arrays.copyOf(downOffset, n);
+		for (int i = 0; i < upTarget.length; i++)
+			downArc[fill[upTarget[i]]++] = i;
+	}
+
+	/**
+	 * Finds the arc of the hierarchy that each directed arc of the GraphCore
+	 * lies along.
+	 */
+	private void buildInputs() {
+		inputOffset = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			for (int i = core.outOffset[v]; i < core.outOffset[v + 1]; i++) {
+				int a = rank[v], b = rank[core.outTarget[i]];
+				if (a != b)
+					inputOffset[Math.min(a, b) + 1]++;
+			}
+		}
+		for (int r = 0; r < n; r++)
+			inputOffset[r + 1] += inputOffset[r];
+		inputArc = new int[inputOffset[n]];
+		inputEdge = new int[inputOffset[n]];
+		inputUp = new boolean[inputOffset[n]];
+		int[] fill = Arrays.copyOf(inputOffset, n);
+		for (int v = 0; v < n; v++) {
+			for (int i = core.outOffset[v]; i < core.outOffset[v + 1]; i++) {
+				int a = rank[v], b = rank[core.outTarget[i]];
+				if (a == b)
+					continue;
+				int low = Math.min(a, b);
+				int k = fill[low]++;
+				inputArc[k] = arc(low, Math.max(a, b));
+				inputEdge[k] = core.outEdge[i];
+				inputUp[k] = a < b;
+			}
+		}
+	}
+
+	/**
+	 * Groups the nodes into levels, one above the highest level of their
+	 * lower neighbours.
+	 */
+	private void buildLevels() {
+		int[] level = new int[n];
+		int levels = 0;
+		for (int r = 0; r < n; r++) {
+			for (int d = downOffset[r]; d < downOffset[r + 1]; d++)
+				level[r] = Math.max(level[r], level[upSource[downArc[d]]] + 1);
+			levels = Math.max(levels, level[r] + 1);
+		}
+		levelOffset = new int[levels + 1];
+		for (int r = 0; r < n; r++)
+			levelOffset[level[r] + 1]++;
+		for (int l = 0; l < levels; l++)
+			levelOffset[l + 1] += levelOffset[l];
+		levelNode = new int[n];
+		int[] fill = Arrays.copyOf(levelOffset, levels);
+		for (int r = 0; r < n; r++)
+			levelNode[fill[level[r]]++] = r;
+	}
+
+	// ------------------------------------------------------------------
+	// customised costs and search state
+	// ------------------------------------------------------------------
+
+	/**
+	 * The costs of every arc going up (from its lower end) and down, and the
+	 * segment or the middle node of the lower triangle that each came from.
+	 */
+	private static class Metric {
+		final double[] up, down;
+		final int[] upEdge, downEdge, upMiddle, downMiddle;
+
+		Metric(int arcs) {
+			up = new double[arcs];
+			down = new double[arcs];
+			upEdge = new int[arcs];
+			downEdge = new int[arcs];
+			upMiddle = new int[arcs];
+			downMiddle = new int[arcs];
+		}
+	}
+
+	/**
+	 * The search state of one thread, by rank. Only the entries on the two
+	 * paths up the elimination tree are ever set, and they are set again at
+	 * the start of each query.
+	 */
+	private static class Query {
+		final double[] forward, backward;
+		final int[] forwardArc, backwardArc;
+		// which query last went through each node on its way up from the
+		// start.
+		final int[] seen;
+		int stamp;
+
+		Query(int n) {
+			forward = new double[n];
+			backward = new double[n];
+			forwardArc = new int[n];
+			backwardArc = new int[n];
+			seen = new int[n];
+		}
+	}
+}
@@ -0,0 +1,111 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Road distances (or travel times) between every one of a set of origins and
+ * every one of a set of destinations, such as a few hundred depots and
+ * customers.
+ *
+ * Rather than one A* search per pair, each origin gets a single Dijkstra
+ * search over the directed out arcs (so one-way roads are respected), which
+ * stops as soon as every destination has been settled, and keeps off the
+ * segments that are closed when the call starts. The origins are
+ * independent, so their searches run in parallel on the common fork-join
+ * pool. The SearchContexts are pooled for the call, so each is reused by
+ * one search after another, and they are all dropped when it returns.
+ *
+ * Turn restrictions are ignored: the searches are over the nodes, not the
+ * states of TurnRestrictions. On a map with restrictions an entry can be
+ * shorter than the route Router or RoutingService finds for the same pair,
+ * never longer.
+ */
+public class DistanceMatrix {
+
+	/**
+	 * Returns the matrix of road distances, where [i][j] is the distance
+	 * from node fromNodeIDs[i] to node toNodeIDs[j], or infinity if it can't
+	 * be reached.
+	 */
+	public static double[][] compute(Graph graph, int[] fromNodeIDs, int[] toNodeIDs) {
+		return compute(graph, fromNodeIDs, toNodeIDs, Router.Cost.DISTANCE);
+	}
+
+	/**
+	 * Returns the matrix of the given cost, where [i][j] is the cost from node
+	 * fromNodeIDs[i] to node toNodeIDs[j], or infinity if it can't be reached.
+	 */
+	public static double[][] compute(Graph graph, int[] fromNodeIDs, int[] toNodeIDs,
+			Router.Cost cost) {
+		GraphCore core = graph.core;
+		double[] weight = cost.weights(core);
+		// one snapshot for the whole call, so every row sees the same closures.
+		boolean[] closed = graph.closures.snapshot();
+		int[] from = indices(graph, fromNodeIDs);
+		int[] to = indices(graph, toNodeIDs);
+
+		// the distinct destinations, which each search counts down.
+		boolean[] isTarget = new boolean[core.nodeCount];
+		int targetCount = 0;
+		for (int t : to) {
+			if (!isTarget[t]) {
+				isTarget[t] = true;
+				targetCount++;
+			}
+		}
+		int targets = targetCount;
+
+		double[][] matrix = new double[from.length][];
+		ConcurrentLinkedQueue<SearchContext> contexts = new ConcurrentLinkedQueue<>();
+		IntStream.range(0, from.length).parallel().forEach(i -> {
+			SearchContext s = contexts.poll();
+			if (s == null)
+				s = new SearchContext(core.nodeCount);
+			search(core, weight, closed, s, from[i], isTarget, targets);
+			double[] row = new double[to.length];
+			for (int j = 0; j < to.length; j++)
+				row[j] = s.g(to[j]);
+			matrix[i] = row;
+			contexts.offer(s);
+		});
+		return matrix;
+	}
+
+	/**
+	 * Dijkstra from the source until all the targets are settled, or there is
+	 * nothing more to reach, not using closed segments.
+	 */
+	private static void search(GraphCore core, double[] weight, boolean[] closed, SearchContext s,
+			int source, boolean[] isTarget, int targets) {
+		s.reset();
+		if (targets == 0)
+			return;
+		s.relax(source, 0, -1, 0);
+		int remaining = targets;
+		while (!s.heap.isEmpty()) {
+			int node = s.heap.poll();
+			s.settle(node);
+			if (isTarget[node] && --remaining == 0)
+				return;
+
+			double g = s.g(node);
+			for (int i = core.outOffset[node]; i < core.outOffset[node + 1]; i++) {
+				int neigh = core.outTarget[i], edge = core.outEdge[i];
+				if (!s.isSettled(neigh) && !closed[edge]) {
+					double gNeigh = g + weight[edge];
+					s.relax(neigh, gNeigh, edge, gNeigh);
+				}
+			}
+		}
+	}
+
+	private static int[] indices(Graph graph, int[] nodeIDs) {
+		int[] indices = new int[nodeIDs.length];
+		for (int i = 0; i < nodeIDs.length; i++) {
+			Node node = graph.nodes.get(nodeIDs[i]);
+			if (node == null)
+				throw new IllegalArgumentException("no node with ID " + nodeIDs[i]);
+			indices[i] = node.index;
+		}
+		return indices;
+	}
+}
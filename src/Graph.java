@@ -11,45 +11,213 @@ import java.util.List;
  * @author tony
  */
 public class Graph {
+	// whether to load the tab files with ParallelParser, which builds exactly
+	// the same graph as the original, sequential Parser.
+	private static final boolean PARALLEL_PARSING = true;
+
 	// map node IDs to Nodes.
 	Map<Integer, Node> nodes = new HashMap<>();
 	// map road IDs to Roads.
 	Map<Integer, Road> roads;
-	// just some collection of Segments.
-	Collection<Segment> segments;
+	// the names, cities and other attributes of the roads, by road index.
+	RoadAttributes roadAttributes = new RoadAttributes();
+	// all the Segments, in the order of their ids.
+	List<Segment> segments;
+	// the flat-array representation of the graph that searches run over.
+	GraphCore core;
+	// spatial indices over the node locations and the segment bounding boxes.
+	KDTree nodeIndex;
+	RTree segmentIndex;
+	// simplified segment geometry for drawing zoomed out.
+	LevelOfDetail levelOfDetail;
+	// the turns that aren't allowed.
+	TurnRestrictions restrictions;
+	// the weakly and strongly connected components.
+	Components components;
+	// the segments closed for now.
+	Closures closures;
+	// the roads grouped by name and city.
+	RoadIndex roadIndex;
+	// the parks, water and buildings, if the map has them.
+	Polygons polygons;
 
 	Node highlightedNode;
 	Node highlightedTargetNode;
 	Collection<Node> highlightedAPs = new ArrayList<>();
-	Collection<Road> highlightedRoads = new HashSet<>();
+	Collection<RoadIndex.Group> highlightedGroups = new ArrayList<>();
 	Collection<Segment> highlightedSegments = new HashSet<>();
 
 	public Graph(File nodes, File roads, File segments, File polygons) {
-		this.nodes = Parser.parseNodes(nodes, this);
-		this.roads = Parser.parseRoads(roads, this);
-		this.segments = Parser.parseSegments(segments, this);
+		if (PARALLEL_PARSING) {
+			this.nodes = ParallelParser.parseNodes(nodes, this);
+			this.roads = ParallelParser.parseRoads(roads, this);
+			this.segments = ParallelParser.parseSegments(segments, this);
+		} else {
+			this.nodes = Parser.parseNodes(nodes, this);
+			this.roads = Parser.parseRoads(roads, this);
+			this.segments = Parser.parseSegments(segments, this);
+		}
+		index();
+		loadRestrictions(nodes.getAbsoluteFile().getParentFile());
+		loadPolygons(polygons);
+	}
+
+	/**
+	 * Makes an empty graph, for loaders (like MapSnapshot) that fill in the
+	 * nodes, roads and segments themselves and then call index().
+	 */
+	Graph() {
+	}
+
+	/**
+	 * Builds the GraphCore, the spatial indices and the connected components
+	 * over the loaded nodes, roads and segments. This has to happen last, as
+	 * the core needs everything to have its index.
+	 */
+	void index() {
+		index(null);
+	}
+
+	/**
+	 * Builds the GraphCore as index() does, but with the given CSR rows if
+	 * they aren't null, and keeps any of the indices and components that the
+	 * loader has already filled in. MapSnapshot stores all of them.
+	 */
+	void index(int[][] rows) {
+		roadAttributes.trim();
+		Node[] nodeArray = new Node[nodes.size()];
+		for (Node node : nodes.values())
+			nodeArray[node.index] = node;
+		Road[] roadArray = new Road[roads.size()];
+		for (Road road : roads.values())
+			roadArray[road.index] = road;
+		core = new GraphCore(nodeArray, roadArray,
+				segments.toArray(new Segment[0]), rows);
+		if (nodeIndex == null)
+			nodeIndex = new KDTree(core.nodeX, core.nodeY);
+		if (segmentIndex == null)
+			segmentIndex = buildSegmentIndex();
+		if (levelOfDetail == null)
+			levelOfDetail = new LevelOfDetail(core.segments);
+		restrictions = new TurnRestrictions(core);
+		if (components == null)
+			components = new Components(core);
+		closures = new Closures(core);
+		roadIndex = new RoadIndex(core);
+	}
+
+	/**
+	 * Loads the turn restrictions from the restrictions file in the given
+	 * directory, if there is one. Not every map has them.
+	 */
+	void loadRestrictions(File directory) {
+		File file = new File(directory, TurnRestrictions.FILENAME);
+		if (file.exists())
+			restrictions = new TurnRestrictions(this, Parser.parseRestrictions(file));
+	}
+
+	/**
+	 * Loads the polygons from the given file. Like the turn restrictions, they
+	 * aren't part of the snapshot, and not every map has them, so file may
+	 * be null.
+	 */
+	void loadPolygons(File file) {
+		if (file != null && file.exists())
+			polygons = new Polygons(file);
+	}
+
+	private RTree buildSegmentIndex() {
+		int n = segments.size();
+		double[] minX = new double[n], minY = new double[n];
+		double[] maxX = new double[n], maxY = new double[n];
+		for (Segment seg : segments) {
+			int i = seg.id;
+			minX[i] = maxX[i] = seg.start.location.x;
+			minY[i] = maxY[i] = seg.start.location.y;
+			for (Location p : seg.points) {
+				minX[i] = Math.min(minX[i], p.x);
+				minY[i] = Math.min(minY[i], p.y);
+				maxX[i] = Math.max(maxX[i], p.x);
+				maxY[i] = Math.max(maxY[i], p.y);
+			}
+		}
+		return new RTree(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Returns the node nearest to the given location, or null if the graph has
+	 * no nodes.
+	 */
+	public Node nearestNode(Location location) {
+		int nearest = nodeIndex.nearest(location.x, location.y);
+		return nearest < 0 ? null : core.nodes[nearest];
+	}
+
+	/**
+	 * Returns the (up to) k nodes nearest to the given location, closest
+	 * first.
+	 */
+	public List<Node> nearestNodes(Location location, int k) {
+		List<Node> result = new ArrayList<>();
+		for (int i : nodeIndex.nearest(location.x, location.y, k))
+			result.add(core.nodes[i]);
+		return result;
 	}
 
 	public void draw(Graphics g, Dimension screen, Location origin, double scale) {
+		drawBase(g, screen, origin, scale);
+		drawHighlights(g, screen, origin, scale);
+	}
+
+	/**
+	 * Draws the map itself: every segment and node in view. This never changes
+	 * once the graph is loaded, so it is safe to call from the tile rendering
+	 * threads.
+	 */
+	public void drawBase(Graphics g, Dimension screen, Location origin, double scale) {
 		// a compatibility wart on swing is that it has to give out Graphics
 		// objects, but Graphics2D objects are nicer to work with. Luckily
 		// they're a subclass, and swing always gives them out anyway, so we can
 		// just do this.
 		Graphics2D g2 = (Graphics2D) g;
 
-		// draw all the segments.
+		// work out which part of the map is on screen, so we only have to draw
+		// the segments and nodes that can be seen. nodes are squares, so let
+		// the ones just off the edge draw their overhanging part.
+		double minX = origin.x, maxX = origin.x + screen.width / scale;
+		double minY = origin.y - screen.height / scale, maxY = origin.y;
+		double margin = Node.size(scale) / scale;
+
+		// draw the parks, water and buildings underneath everything else.
+		if (polygons != null)
+			polygons.draw(g2, minX, minY, maxX, maxY, origin, scale);
+
+		// draw all the visible segments, as simplified as this scale allows.
 		g2.setColor(Mapper.SEGMENT_COLOUR);
-		for (Segment s : segments)
-			s.draw(g2, origin, scale);
+		int level = levelOfDetail.level(scale);
+		segmentIndex.query(minX, minY, maxX, maxY, s -> levelOfDetail.draw(
+				g2, core.segments[s], level, origin, scale));
+
+		// draw all the visible nodes.
+		g2.setColor(Mapper.NODE_COLOUR);
+		nodeIndex.range(minX - margin, minY - margin, maxX + margin, maxY
+				+ margin, n -> core.nodes[n].draw(g2, screen, origin, scale));
+	}
 
-		// draw the segments of all highlighted roads.
+	/**
+	 * Draws the highlighted roads, path and nodes over the top of the map.
+	 */
+	public void drawHighlights(Graphics g, Dimension screen, Location origin, double scale) {
+		Graphics2D g2 = (Graphics2D) g;
+
+		// draw the highlighted roads that are in view, a group at a time.
 		g2.setColor(Mapper.HIGHLIGHT_COLOUR);
 		g2.setStroke(new BasicStroke(3));
-		for (Road road : highlightedRoads) {
-			for (Segment seg : road.components) {
-				seg.draw(g2, origin, scale);
-			}
-		}
+		double minX = origin.x, maxX = origin.x + screen.width / scale;
+		double minY = origin.y - screen.height / scale, maxY = origin.y;
+		for (RoadIndex.Group group : highlightedGroups)
+			if (group.intersects(minX, minY, maxX, maxY))
+				group.draw(g2, origin, scale);
 
 		// draw the segments of the shortest path.
 		if (!highlightedSegments.isEmpty()) {
@@ -60,10 +228,15 @@ public class Graph {
 			}
 		}
 
-		// draw all the nodes.
-		g2.setColor(Mapper.NODE_COLOUR);
-		for (Node n : nodes.values())
-			n.draw(g2, screen, origin, scale);
+		// draw the closed segments.
+		if (closures != null && !closures.isEmpty()) {
+			boolean[] closed = closures.snapshot();
+			g2.setColor(Color.RED);
+			g2.setStroke(new BasicStroke(3));
+			for (int e = 0; e < closed.length; e++)
+				if (closed[e])
+					core.segments[e].draw(g2, origin, scale);
+		}
 
 		// draw the highlighted node, if it exists.
 		if (highlightedNode != null) {
@@ -99,8 +272,8 @@ public class Graph {
 		this.highlightedAPs = nodes;
 	}
 
-	public void setHighlight(Collection<Road> roads) {
-		this.highlightedRoads = roads;
+	public void setHighlightedGroups(Collection<RoadIndex.Group> groups) {
+		this.highlightedGroups = groups;
 	}
 
 	public void setHighlightedSegments(Collection<Segment> segments) {
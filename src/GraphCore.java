@@ -0,0 +1,274 @@
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * GraphCore is the compact, primitive-array representation of the road graph
+ * that the routing and articulation point searches run over. Nodes, roads and
+ * segments are given dense int indices (their position in the arrays below),
+ * and the adjacency of every node is stored in compressed sparse row (CSR)
+ * form: the entries for node i live at [offset[i], offset[i + 1]) of the
+ * parallel target and edge arrays.
+ *
+ * The Node, Road and Segment objects are kept as thin views over this, so the
+ * GUI can carry on working with objects while the searches only touch arrays.
+ */
+public class GraphCore {
+
+	public final int nodeCount, roadCount, edgeCount;
+
+	// views, indexed by node index, road index and edge (segment) id.
+	public final Node[] nodes;
+	public final Road[] roads;
+	public final Segment[] segments;
+
+	// per-node data.
+	public final int[] nodeIds;
+	public final double[] nodeX, nodeY;
+
+	// per-edge data. edgeRoad holds road indices, not road IDs.
+	public final int[] edgeFrom, edgeTo, edgeRoad;
+	public final double[] edgeLength;
+	// hours to drive each edge at its road's speed limit, and the fastest
+	// speed limit (in km/h) anywhere on the map.
+	public final double[] edgeTime;
+	public final double topSpeed;
+
+	// per-road data.
+	public final int[] roadIds;
+
+	// undirected incidence: every segment touching a node, ignoring one-way
+	// restrictions. used for the articulation point search and for the Node
+	// and Road views.
+	public final int[] adjOffset, adjTarget, adjEdge;
+
+	// directed arcs that may be driven out of (out) or into (in) each node,
+	// respecting one-way roads.
+	public final int[] outOffset, outTarget, outEdge;
+	public final int[] inOffset, inTarget, inEdge;
+
+	// the segments making up each road.
+	public final int[] roadOffset, roadEdges;
+
+	/**
+	 * Builds the core from the views, which must already be indexed so that
+	 * nodes[i].index == i, roads[i].index == i and segments[i].id == i.
+	 */
+	public GraphCore(Node[] nodes, Road[] roads, Segment[] segments) {
+		this(nodes, roads, segments, null);
+	}
+
+	/**
+	 * Builds the core the same way, but takes the CSR rows, in the order rows()
+	 * returns them, from a MapSnapshot instead of working them out again.
+	 */
+	GraphCore(Node[] nodes, Road[] roads, Segment[] segments, int[][] rows) {
+		this.nodes = nodes;
+		this.roads = roads;
+		this.segments = segments;
+		this.nodeCount = nodes.length;
+		this.roadCount = roads.length;
+		this.edgeCount = segments.length;
+
+		nodeIds = new int[nodeCount];
+		nodeX = new double[nodeCount];
+		nodeY = new double[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			nodeIds[i] = nodes[i].nodeID;
+			nodeX[i] = nodes[i].location.x;
+			nodeY[i] = nodes[i].location.y;
+		}
+
+		roadIds = new int[roadCount];
+		for (int i = 0; i < roadCount; i++)
+			roadIds[i] = roads[i].getRoadID();
+
+		edgeFrom = new int[edgeCount];
+		edgeTo = new int[edgeCount];
+		edgeRoad = new int[edgeCount];
+		edgeLength = new double[edgeCount];
+		edgeTime = new double[edgeCount];
+		boolean[] oneway = new boolean[edgeCount];
+		int fastest = 0;
+		for (int e = 0; e < edgeCount; e++) {
+			Segment seg = segments[e];
+			edgeFrom[e] = seg.start.index;
+			edgeTo[e] = seg.end.index;
+			edgeRoad[e] = seg.road.index;
+			edgeLength[e] = seg.length;
+			edgeTime[e] = seg.length / seg.road.getSpeedLimit();
+			oneway[e] = seg.road.isOneway();
+			fastest = Math.max(fastest, seg.road.getSpeedLimit());
+		}
+		topSpeed = fastest;
+
+		if (rows == null)
+			rows = buildRows(oneway);
+		adjOffset = rows[0];
+		adjTarget = rows[1];
+		adjEdge = rows[2];
+		outOffset = rows[3];
+		outTarget = rows[4];
+		outEdge = rows[5];
+		inOffset = rows[6];
+		inTarget = rows[7];
+		inEdge = rows[8];
+		roadOffset = rows[9];
+		roadEdges = rows[10];
+	}
+
+	/**
+	 * Returns the CSR rows: the adjacency, out and in offsets, targets and
+	 * edges, then the road offsets and edges.
+	 */
+	int[][] rows() {
+		return new int[][] { adjOffset, adjTarget, adjEdge, outOffset, outTarget,
+				outEdge, inOffset, inTarget, inEdge, roadOffset, roadEdges };
+	}
+
+	private int[][] buildRows(boolean[] oneway) {
+		// count the entries of each row first, then fill them in. a self-loop
+		// only gets one entry, the same as it did in the old per-node sets.
+		int[] adjOffset = new int[nodeCount + 1];
+		int[] outOffset = new int[nodeCount + 1];
+		int[] inOffset = new int[nodeCount + 1];
+		int[] roadOffset = new int[roadCount + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			int a = edgeFrom[e], b = edgeTo[e];
+			adjOffset[a + 1]++;
+			outOffset[a + 1]++;
+			inOffset[b + 1]++;
+			if (a != b) {
+				adjOffset[b + 1]++;
+				if (!oneway[e]) {
+					outOffset[b + 1]++;
+					inOffset[a + 1]++;
+				}
+			}
+			roadOffset[edgeRoad[e] + 1]++;
+		}
+		prefixSum(adjOffset);
+		prefixSum(outOffset);
+		prefixSum(inOffset);
+		prefixSum(roadOffset);
+
+		int[] adjTarget = new int[adjOffset[nodeCount]];
+		int[] adjEdge = new int[adjTarget.length];
+		int[] outTarget = new int[outOffset[nodeCount]];
+		int[] outEdge = new int[outTarget.length];
+		int[] inTarget = new int[inOffset[nodeCount]];
+		int[] inEdge = new int[inTarget.length];
+		int[] roadEdges = new int[roadOffset[roadCount]];
+
+		int[] adjFill = new int[nodeCount];
+		int[] outFill = new int[nodeCount];
+		int[] inFill = new int[nodeCount];
+		int[] roadFill = new int[roadCount];
+		for (int e = 0; e < edgeCount; e++) {
+			int a = edgeFrom[e], b = edgeTo[e];
+			add(adjOffset, adjFill, adjTarget, adjEdge, a, b, e);
+			add(outOffset, outFill, outTarget, outEdge, a, b, e);
+			add(inOffset, inFill, inTarget, inEdge, b, a, e);
+			if (a != b) {
+				add(adjOffset, adjFill, adjTarget, adjEdge, b, a, e);
+				if (!oneway[e]) {
+					add(outOffset, outFill, outTarget, outEdge, b, a, e);
+					add(inOffset, inFill, inTarget, inEdge, a, b, e);
+				}
+			}
+			int r = edgeRoad[e];
+			roadEdges[roadOffset[r] + roadFill[r]++] = e;
+		}
+		return new int[][] { adjOffset, adjTarget, adjEdge, outOffset, outTarget,
+				outEdge, inOffset, inTarget, inEdge, roadOffset, roadEdges };
+	}
+
+	/**
+	 * Returns the node at the other end of edge e from node n.
+	 */
+	public int opposite(int e, int n) {
+		return edgeFrom[e] == n ? edgeTo[e] : edgeFrom[e];
+	}
+
+	/**
+	 * Returns the straight-line distance between two nodes.
+	 */
+	public double distance(int a, int b) {
+		return Math.hypot(nodeX[a] - nodeX[b], nodeY[a] - nodeY[b]);
+	}
+
+	/**
+	 * Returns the largest ratio of straight-line distance to segment length
+	 * over all the segments (at least 1). The node coordinates don't always
+	 * agree with the segment lengths, so the straight-line distance divided by
+	 * this is what is guaranteed never to overestimate the road distance.
+	 *
+	 * A segment of length zero between two nodes in different places makes
+	 * the stretch infinite: any distance can then be crossed for nothing, so
+	 * the only safe estimate is 0. One between two nodes in the same place
+	 * doesn't count.
+	 */
+	public double maxStretch() {
+		double stretch = 1;
+		for (int e = 0; e < edgeCount; e++) {
+			double distance = distance(edgeFrom[e], edgeTo[e]);
+			if (edgeLength[e] > 0)
+				stretch = Math.max(stretch, distance / edgeLength[e]);
+			else if (distance > 0)
+				return Double.POSITIVE_INFINITY;
+		}
+		return stretch;
+	}
+
+	/**
+	 * Returns the segments touching a node, as a read-only view.
+	 */
+	public List<Segment> incidentSegments(int node) {
+		return new SegmentView(adjEdge, adjOffset[node], adjOffset[node + 1]);
+	}
+
+	/**
+	 * Returns the segments making up a road, as a read-only view.
+	 */
+	public List<Segment> roadSegments(int road) {
+		return new SegmentView(roadEdges, roadOffset[road], roadOffset[road + 1]);
+	}
+
+	private static void prefixSum(int[] offset) {
+		for (int i = 1; i < offset.length; i++)
+			offset[i] += offset[i - 1];
+	}
+
+	private static void add(int[] offset, int[] fill, int[] target, int[] edge,
+			int from, int to, int e) {
+		int slot = offset[from] + fill[from]++;
+		target[slot] = to;
+		edge[slot] = e;
+	}
+
+	/**
+	 * A read-only list of the segments whose ids are stored in a slice of one
+	 * of the CSR edge arrays.
+	 */
+	private class SegmentView extends AbstractList<Segment> {
+		private final int[] edges;
+		private final int from, to;
+
+		SegmentView(int[] edges, int from, int to) {
+			this.edges = edges;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public Segment get(int i) {
+			if (i < 0 || i >= to - from)
+				throw new IndexOutOfBoundsException(i);
+			return segments[edges[from + i]];
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+	}
+}
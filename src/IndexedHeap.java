@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * A d-ary min-heap of int ids (0 up to the capacity it was made with), keyed by
+ * doubles, that knows where every id is so an id's key can be lowered in
+ * place. This lets Dijkstra and A* keep at most one entry per node, rather
+ * than piling up stale entries and skipping them later.
+ *
+ * Ids and keys are kept in parallel arrays in heap order, and a third array
+ * maps each id to its slot (-1 when it isn't in the heap). Nothing is
+ * allocated once the heap is made, and clearing it only touches the ids
+ * actually in it.
+ */
+public class IndexedHeap {
+
+	// a 4-ary heap is shallower than a binary one, and the children of a
+	// slot sit next to each other in memory.
+	private static final int ARITY = 4;
+
+	private final int[] ids;
+	private final double[] keys;
+	private final int[] position;
+	private int size;
+
+	public IndexedHeap(int capacity) {
+		ids = new int[capacity];
+		keys = new double[capacity];
+		position = new int[capacity];
+		Arrays.fill(position, -1);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int id) {
+		return position[id] >= 0;
+	}
+
+	/**
+	 * Returns the id with the smallest key, without removing it.
+	 */
+	public int peek() {
+		return ids[0];
+	}
+
+	/**
+	 * Returns the smallest key, or infinity if the heap is empty.
+	 */
+	public double peekKey() {
+		return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+	}
+
+	/**
+	 * Adds an id with the given key, or changes its key if it is already in
+	 * the heap.
+	 */
+	public void update(int id, double key) {
+		int slot = position[id];
+		if (slot < 0) {
+			slot = size++;
+			siftUp(slot, id, key);
+		} else if (key < keys[slot]) {
+			siftUp(slot, id, key);
+		} else {
+			siftDown(slot, id, key);
+		}
+	}
+
+	/**
+	 * Removes and returns the id with the smallest key.
+	 */
+	public int poll() {
+		int top = ids[0];
+		position[top] = -1;
+		size--;
+		if (size > 0)
+			siftDown(0, ids[size], keys[size]);
+		return top;
+	}
+
+	/**
+	 * Empties the heap.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			position[ids[i]] = -1;
+		size = 0;
+	}
+
+	/**
+	 * Moves the hole at the given slot up until the id fits, and puts it
+	 * there.
+	 */
+	private void siftUp(int slot, int id, double key) {
+		while (slot > 0) {
+			int parent = (slot - 1) / ARITY;
+			if (keys[parent] <= key)
+				break;
+			move(parent, slot);
+			slot = parent;
+		}
+		place(slot, id, key);
+	}
+
+	/**
+	 * Moves the hole at the given slot down until the id fits, and puts it
+	 * there.
+	 */
+	private void siftDown(int slot, int id, double key) {
+		while (true) {
+			int first = ARITY * slot + 1;
+			if (first >= size)
+				break;
+			int last = Math.min(first + ARITY, size);
+			int child = first;
+			for (int c = first + 1; c < last; c++)
+				if (keys[c] < keys[child])
+					child = c;
+			if (keys[child] >= key)
+				break;
+			move(child, slot);
+			slot = child;
+		}
+		place(slot, id, key);
+	}
+
+	private void move(int from, int to) {
+		ids[to] = ids[from];
+		keys[to] = keys[from];
+		position[ids[to]] = to;
+	}
+
+	private void place(int slot, int id, double key) {
+		ids[slot] = id;
+		keys[slot] = key;
+		position[id] = slot;
+	}
+}
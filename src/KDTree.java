@@ -0,0 +1,251 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A packed 2D KD-tree over the nodes of the graph, used to answer "which node
+ * is nearest to this point" without looking at every node. The tree is
+ * implicit: the points are permuted so that for any range [lo, hi) the median
+ * sits at the middle index, the smaller half (along the range's split axis) on
+ * its left and the larger half on its right. Split axes alternate between x
+ * and y with depth.
+ *
+ * Queries return node indices into the GraphCore, and the tree never changes
+ * after it is built, so it can be searched from any number of threads.
+ */
+public class KDTree {
+
+	// node indices and their coordinates, in tree order.
+	private final int[] ids;
+	private final double[] xs, ys;
+
+	public KDTree(double[] x, double[] y) {
+		int n = x.length;
+		ids = new int[n];
+		xs = Arrays.copyOf(x, n);
+		ys = Arrays.copyOf(y, n);
+		for (int i = 0; i < n; i++)
+			ids[i] = i;
+		build(0, n, true);
+	}
+
+	/**
+	 * Makes the tree that was built over these points before, from the tree
+	 * order order() returned for it (see MapSnapshot), without building it
+	 * again.
+	 */
+	KDTree(double[] x, double[] y, int[] order) {
+		int n = order.length;
+		ids = order;
+		xs = new double[n];
+		ys = new double[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = x[order[i]];
+			ys[i] = y[order[i]];
+		}
+	}
+
+	/**
+	 * Returns the node indices in tree order. Not to be modified.
+	 */
+	int[] order() {
+		return ids;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Returns the index of the node nearest to (x, y), or -1 if the tree is
+	 * empty.
+	 */
+	public int nearest(double x, double y) {
+		int[] result = nearest(x, y, 1);
+		return result.length == 0 ? -1 : result[0];
+	}
+
+	/**
+	 * Returns the indices of the k nodes nearest to (x, y), closest first. If
+	 * there are fewer than k nodes, all of them are returned.
+	 */
+	public int[] nearest(double x, double y, int k) {
+		Neighbours found = new Neighbours(Math.min(k, ids.length));
+		if (found.capacity > 0)
+			search(0, ids.length, true, x, y, found);
+		return found.sorted();
+	}
+
+	/**
+	 * Calls the visitor with the index of every node inside the given
+	 * rectangle (edges included).
+	 */
+	public void range(double minX, double minY, double maxX, double maxY,
+			IntConsumer visitor) {
+		range(0, ids.length, true, minX, minY, maxX, maxY, visitor);
+	}
+
+	private void range(int lo, int hi, boolean splitX, double minX,
+			double minY, double maxX, double maxY, IntConsumer visitor) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			double x = xs[mid], y = ys[mid];
+			if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+				visitor.accept(ids[mid]);
+
+			// everything left of mid is <= it on the split axis, and everything
+			// right of it is >=, so skip whichever side can't overlap.
+			double key = splitX ? x : y;
+			boolean left = (splitX ? minX : minY) <= key;
+			boolean right = (splitX ? maxX : maxY) >= key;
+			if (left && right) {
+				range(lo, mid, !splitX, minX, minY, maxX, maxY, visitor);
+				lo = mid + 1;
+			} else if (left) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+			splitX = !splitX;
+		}
+	}
+
+	private void build(int lo, int hi, boolean splitX) {
+		if (hi - lo <= 1)
+			return;
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi, mid, splitX);
+		build(lo, mid, !splitX);
+		build(mid + 1, hi, !splitX);
+	}
+
+	/**
+	 * Quickselect: rearranges [lo, hi) so that position k holds the element it
+	 * would hold if the range were sorted along the given axis, with nothing
+	 * larger before it and nothing smaller after it.
+	 */
+	private void select(int lo, int hi, int k, boolean splitX) {
+		double[] key = splitX ? xs : ys;
+		int left = lo, right = hi - 1;
+		while (left < right) {
+			double pivot = key[(left + right) >>> 1];
+			int i = left, j = right;
+			while (i <= j) {
+				while (key[i] < pivot)
+					i++;
+				while (key[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		double t = xs[i];
+		xs[i] = xs[j];
+		xs[j] = t;
+		t = ys[i];
+		ys[i] = ys[j];
+		ys[j] = t;
+	}
+
+	private void search(int lo, int hi, boolean splitX, double x, double y,
+			Neighbours found) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		double dx = x - xs[mid], dy = y - ys[mid];
+		found.offer(ids[mid], dx * dx + dy * dy);
+
+		// go down the side of the split the query is on first, and only visit
+		// the other side if the splitting line is closer than the current
+		// k-th best.
+		double diff = splitX ? dx : dy;
+		if (diff < 0) {
+			search(lo, mid, !splitX, x, y, found);
+			if (diff * diff < found.bound())
+				search(mid + 1, hi, !splitX, x, y, found);
+		} else {
+			search(mid + 1, hi, !splitX, x, y, found);
+			if (diff * diff < found.bound())
+				search(lo, mid, !splitX, x, y, found);
+		}
+	}
+
+	/**
+	 * The best k candidates seen so far, kept as a binary max-heap on squared
+	 * distance so the worst one can be replaced cheaply.
+	 */
+	private static class Neighbours {
+		final int capacity;
+		final int[] ids;
+		final double[] dists;
+		int size;
+
+		Neighbours(int capacity) {
+			this.capacity = capacity;
+			this.ids = new int[capacity];
+			this.dists = new double[capacity];
+		}
+
+		/**
+		 * The squared distance a candidate has to beat to be kept.
+		 */
+		double bound() {
+			return size < capacity ? Double.POSITIVE_INFINITY : dists[0];
+		}
+
+		void offer(int id, double dist) {
+			if (size < capacity) {
+				int i = size++;
+				// sift up.
+				while (i > 0 && dists[(i - 1) / 2] < dist) {
+					ids[i] = ids[(i - 1) / 2];
+					dists[i] = dists[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				ids[i] = id;
+				dists[i] = dist;
+			} else if (dist < dists[0]) {
+				siftDown(0, id, dist, size);
+			}
+		}
+
+		private void siftDown(int i, int id, double dist, int n) {
+			while (2 * i + 1 < n) {
+				int c = 2 * i + 1;
+				if (c + 1 < n && dists[c + 1] > dists[c])
+					c++;
+				if (dists[c] <= dist)
+					break;
+				ids[i] = ids[c];
+				dists[i] = dists[c];
+				i = c;
+			}
+			ids[i] = id;
+			dists[i] = dist;
+		}
+
+		/**
+		 * Empties the heap into an array, nearest first.
+		 */
+		int[] sorted() {
+			int[] result = new int[size];
+			for (int n = size; n > 0; n--) {
+				result[n - 1] = ids[0];
+				siftDown(0, ids[n - 1], dists[n - 1], n - 1);
+			}
+			size = 0;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Landmarks for the ALT (A*, landmarks and triangle inequality) heuristic.
+ * A handful of nodes are picked as landmarks, and the shortest distances from
+ * every landmark to every node, and from every node back to every landmark,
+ * are worked out once when the map is loaded. By the triangle inequality,
+ * for any landmark L the distance from v to t is at least
+ * d(L, t) - d(L, v) and at least d(v, L) - d(t, L), which is usually a much
+ * tighter lower bound than the straight-line distance, particularly where
+ * roads go the long way round a harbour.
+ *
+ * Landmarks are picked by farthest selection: each new landmark is the node
+ * farthest (by road) from all the landmarks so far, which puts them around
+ * the edges of the map where they do the most good.
+ *
+ * The tables are stored node-major in flat arrays, so the bounds for one node
+ * are next to each other: the distance from landmark i to node v is at
+ * from[v * count + i], and from v to landmark i at to[v * count + i].
+ * Unreachable pairs are infinite.
+ *
+ * The distances are measured in whatever cost the landmarks were made with
+ * (length or travel time), and only give bounds for that cost.
+ */
+public class Landmarks {
+
+	public static final int DEFAULT_COUNT = 16;
+
+	public final int count;
+	private final int[] landmarks;
+	private final double[] from, to;
+
+	/**
+	 * Picks the landmarks and works out their distances, using the given cost
+	 * for each segment (such as GraphCore.edgeLength).
+	 */
+	public Landmarks(GraphCore core, double[] edgeWeight, int count) {
+		int n = core.nodeCount;
+		this.count = Math.min(count, n);
+		this.landmarks = select(core, edgeWeight, this.count);
+		this.from = new double[n * this.count];
+		this.to = new double[n * this.count];
+
+		// the tables are independent one-to-all searches, so they can all run
+		// at once. the search contexts are pooled, so there are only ever as
+		// many as searches running at the same time.
+		ConcurrentLinkedQueue<SearchContext> contexts = new ConcurrentLinkedQueue<>();
+		IntStream.range(0, 2 * this.count).parallel().forEach(job -> {
+			int i = job / 2;
+			boolean forwards = job % 2 == 0;
+			SearchContext context = contexts.poll();
+			if (context == null)
+				context = new SearchContext(n);
+			if (forwards)
+				dijkstra(core, edgeWeight, landmarks[i], core.outOffset,
+						core.outTarget, core.outEdge, context);
+			else
+				dijkstra(core, edgeWeight, landmarks[i], core.inOffset,
+						core.inTarget, core.inEdge, context);
+			double[] table = forwards ? from : to;
+			for (int v = 0; v < n; v++)
+				table[v * this.count + i] = context.g(v);
+			contexts.offer(context);
+		});
+	}
+
+	/**
+	 * Returns the node indices of the landmarks.
+	 */
+	public int[] getLandmarks() {
+		return landmarks.clone();
+	}
+
+	/**
+	 * A lower bound on the road distance from node v to node t. This is
+	 * consistent (it never drops by more than the length of a segment), so A*
+	 * never has to expand a node twice.
+	 */
+	public double estimate(int v, int t) {
+		double best = 0;
+		int vi = v * count, ti = t * count;
+		for (int i = 0; i < count; i++) {
+			double forward = from[ti + i] - from[vi + i];
+			double backward = to[vi + i] - to[ti + i];
+			// a landmark that can't reach one of them (or be reached) tells
+			// us nothing, and would give infinity minus infinity.
+			if (forward > best && forward < Double.POSITIVE_INFINITY)
+				best = forward;
+			if (backward > best && backward < Double.POSITIVE_INFINITY)
+				best = backward;
+		}
+		return best;
+	}
+
+	/**
+	 * Farthest selection, measured along roads in either direction. The first
+	 * landmark is the node farthest from a node in the largest connected part
+	 * of the map, and each one after that the node farthest from all the
+	 * landmarks picked so far. Nodes that can't be reached from there are left
+	 * out, so the landmarks aren't wasted on islands and isolated nodes.
+	 */
+	private static int[] select(GraphCore core, double[] edgeWeight, int count) {
+		int[] selected = new int[count];
+		if (count == 0)
+			return selected;
+		int seed = largestComponentNode(core);
+		SearchContext context = new SearchContext(core.nodeCount);
+		dijkstra(core, edgeWeight, seed, core.adjOffset, core.adjTarget,
+				core.adjEdge, context);
+		double[] nearest = new double[core.nodeCount];
+		for (int v = 0; v < core.nodeCount; v++)
+			nearest[v] = context.g(v);
+		for (int k = 0; k < count; k++) {
+			int farthest = seed;
+			for (int v = 0; v < core.nodeCount; v++)
+				if (nearest[v] < Double.POSITIVE_INFINITY
+						&& nearest[v] > nearest[farthest])
+					farthest = v;
+			selected[k] = farthest;
+
+			dijkstra(core, edgeWeight, farthest, core.adjOffset,
+					core.adjTarget, core.adjEdge, context);
+			for (int v = 0; v < core.nodeCount; v++)
+				nearest[v] = k == 0 ? context.g(v) : Math.min(nearest[v], context.g(v));
+		}
+		return selected;
+	}
+
+	/**
+	 * Returns a node in the largest connected part of the map, found by a
+	 * breadth first search from every node not yet labelled.
+	 */
+	private static int largestComponentNode(GraphCore core) {
+		int[] label = new int[core.nodeCount];
+		Arrays.fill(label, -1);
+		int[] queue = new int[core.nodeCount];
+		int best = 0, bestSize = 0;
+		for (int root = 0; root < core.nodeCount; root++) {
+			if (label[root] >= 0)
+				continue;
+			int head = 0, tail = 0;
+			label[root] = root;
+			queue[tail++] = root;
+			while (head < tail) {
+				int u = queue[head++];
+				for (int i = core.adjOffset[u]; i < core.adjOffset[u + 1]; i++) {
+					int v = core.adjTarget[i];
+					if (label[v] < 0) {
+						label[v] = root;
+						queue[tail++] = v;
+					}
+				}
+			}
+			if (tail > bestSize) {
+				bestSize = tail;
+				best = root;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Plain one-to-all Dijkstra over one of the GraphCore's CSR adjacencies,
+	 * leaving the distances in the context (read them with context.g).
+	 */
+	private static void dijkstra(GraphCore core, double[] edgeWeight,
+			int source, int[] offset, int[] target, int[] edge,
+			SearchContext context) {
+		context.reset();
+		context.relax(source, 0, -1, 0);
+		IndexedHeap heap = context.heap;
+		while (!heap.isEmpty()) {
+			int u = heap.poll();
+			double g = context.g(u);
+			for (int i = offset[u]; i < offset[u + 1]; i++) {
+				double d = g + edgeWeight[edge[i]];
+				context.relax(target[i], d, edge[i], d);
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+import java.awt.Graphics;
+
+/**
+ * Simplified versions of every segment's polyline, for drawing the map when
+ * it is zoomed out. Level k is meant for scales up to
+ * MIN_ZOOM * ZOOM_FACTOR^(ZOOMS_PER_LEVEL * k), and is simplified with
+ * Douglas-Peucker so that no dropped point is more than PIXEL_TOLERANCE
+ * pixels off the line at that scale. Zoomed in past the last level, segments
+ * are drawn at full resolution.
+ *
+ * Douglas-Peucker is only run once per segment: a point survives simplifying
+ * with tolerance t exactly when its own split distance, and that of every
+ * split above it, is more than t. So we record the smallest split distance on
+ * the way down to each point, and each level just keeps the points whose
+ * value is above its tolerance. The kept points are stored as indices into
+ * Segment.points, packed in CSR form per level.
+ */
+public class LevelOfDetail {
+
+	// how far, in pixels, a simplified line may stray from the real one.
+	private static final double PIXEL_TOLERANCE = 0.5;
+	// each level covers this many presses of the zoom buttons.
+	private static final int ZOOMS_PER_LEVEL = 2;
+	static final int LEVELS = 5;
+
+	private final double[] levelScale = new double[LEVELS];
+	// the points of segment s at level k are points[offset[k][s]] up to
+	// points[offset[k][s + 1]] (exclusive).
+	private final int[][] offset = new int[LEVELS][];
+	private final int[][] points = new int[LEVELS][];
+
+	public LevelOfDetail(Segment[] segments) {
+		setScales();
+		double[] tolerance = new double[LEVELS];
+		for (int k = 0; k < LEVELS; k++) {
+			tolerance[k] = PIXEL_TOLERANCE / levelScale[k];
+			offset[k] = new int[segments.length + 1];
+		}
+
+		// first pass: count what each level keeps, so the arrays can be sized.
+		double[][] importance = new double[segments.length][];
+		for (Segment seg : segments) {
+			importance[seg.id] = importance(seg.points);
+			for (double value : importance[seg.id])
+				for (int k = 0; k < LEVELS; k++)
+					if (value > tolerance[k])
+						offset[k][seg.id + 1]++;
+		}
+		for (int k = 0; k < LEVELS; k++) {
+			for (int s = 0; s < segments.length; s++)
+				offset[k][s + 1] += offset[k][s];
+			points[k] = new int[offset[k][segments.length]];
+		}
+
+		// second pass: fill them in.
+		for (Segment seg : segments) {
+			double[] values = importance[seg.id];
+			for (int k = 0; k < LEVELS; k++) {
+				int fill = offset[k][seg.id];
+				for (int i = 0; i < values.length; i++)
+					if (values[i] > tolerance[k])
+						points[k][fill++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Makes the levels simplified before, from the offsets() and points()
+	 * they had (see MapSnapshot), without simplifying them again.
+	 */
+	LevelOfDetail(int[][] offset, int[][] points) {
+		setScales();
+		for (int k = 0; k < LEVELS; k++) {
+			this.offset[k] = offset[k];
+			this.points[k] = points[k];
+		}
+	}
+
+	private void setScales() {
+		for (int k = 0; k < LEVELS; k++)
+			levelScale[k] = Mapper.MIN_ZOOM
+					* Math.pow(Mapper.ZOOM_FACTOR, ZOOMS_PER_LEVEL * k);
+	}
+
+	/**
+	 * Returns each level's offsets into its points. Not to be modified.
+	 */
+	int[][] offsets() {
+		return offset;
+	}
+
+	/**
+	 * Returns the points each level keeps, as indices into Segment.points.
+	 * Not to be modified.
+	 */
+	int[][] points() {
+		return points;
+	}
+
+	/**
+	 * Returns the level to draw at the given scale, or -1 for full
+	 * resolution.
+	 */
+	public int level(double scale) {
+		for (int k = 0; k < LEVELS; k++)
+			if (scale <= levelScale[k])
+				return k;
+		return -1;
+	}
+
+	/**
+	 * Draws a segment at the given level, skipping lines that start and end
+	 * on the same pixel.
+	 */
+	public void draw(Graphics g, Segment seg, int level, Location origin,
+			double scale) {
+		if (level < 0) {
+			seg.draw(g, origin, scale);
+			return;
+		}
+		int[] kept = points[level];
+		int from = offset[level][seg.id], to = offset[level][seg.id + 1];
+		if (to - from < 2)
+			return;
+
+		Location p = seg.points[kept[from]];
+		int px = (int) ((p.x - origin.x) * scale);
+		int py = (int) ((origin.y - p.y) * scale);
+		for (int i = from + 1; i < to; i++) {
+			Location q = seg.points[kept[i]];
+			int qx = (int) ((q.x - origin.x) * scale);
+			int qy = (int) ((origin.y - q.y) * scale);
+			if (qx != px || qy != py || i == to - 1) {
+				g.drawLine(px, py, qx, qy);
+				px = qx;
+				py = qy;
+			}
+		}
+	}
+
+	/**
+	 * Runs Douglas-Peucker with no tolerance over a polyline, and returns for
+	 * each point the largest tolerance at which it would still be kept. The
+	 * end points are always kept.
+	 */
+	private static double[] importance(Location[] line) {
+		int n = line.length;
+		double[] value = new double[n];
+		if (n == 0)
+			return value;
+		value[0] = value[n - 1] = Double.POSITIVE_INFINITY;
+
+		// explicit stack of (first, last, bound) ranges still to split, where
+		// bound is the smallest split distance above the range.
+		int[] stack = new int[2 * n];
+		double[] bounds = new double[n];
+		int top = 0;
+		if (n > 2) {
+			stack[0] = 0;
+			stack[1] = n - 1;
+			bounds[0] = Double.POSITIVE_INFINITY;
+			top = 1;
+		}
+		while (top > 0) {
+			top--;
+			int first = stack[2 * top], last = stack[2 * top + 1];
+			double bound = bounds[top];
+
+			int split = -1;
+			double max = -1;
+			for (int i = first + 1; i < last; i++) {
+				double d = distance(line[i], line[first], line[last]);
+				if (d > max) {
+					max = d;
+					split = i;
+				}
+			}
+			double kept = Math.min(max, bound);
+			value[split] = kept;
+
+			if (split - first > 1) {
+				stack[2 * top] = first;
+				stack[2 * top + 1] = split;
+				bounds[top++] = kept;
+			}
+			if (last - split > 1) {
+				stack[2 * top] = split;
+				stack[2 * top + 1] = last;
+				bounds[top++] = kept;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Distance from p to the line segment from a to b.
+	 */
+	private static double distance(Location p, Location a, Location b) {
+		double dx = b.x - a.x, dy = b.y - a.y;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = 0;
+		if (lengthSquared > 0)
+			t = ((p.x - a.x) * dx + (p.y - a.y) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(p.x - (a.x + t * dx), p.y - (a.y + t * dy));
+	}
+}
@@ -0,0 +1,241 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the faster ways of loading a map give exactly the graph the
+ * text files describe: that ParallelParser reads the same graph as Parser, and
+ * that a snapshot reads back the graph it was written from. It compares every
+ * node, road and segment, and for a snapshot the indices it stores too,
+ * prints what it found, and fails if anything differs. It also checks that a
+ * snapshot stops being used once its tab files change, and that the
+ * snapshot.dir and snapshot.write properties are honoured, on copies of the
+ * tab files. It prints how fast ParallelParser read each file, and the
+ * estimate of the memory the road attributes take.
+ */
+public class LoadCheck {
+
+	private int differences;
+
+	/**
+	 * Compares two graphs node by node, road by road and segment by segment,
+	 * printing the first few differences.
+	 */
+	private void compare(String what, Graph expected, Graph actual) {
+		int before = differences;
+		compareNodes(expected.nodes, actual.nodes);
+		compareRoads(expected.roads, actual.roads);
+		compareSegments(expected.segments, actual.segments);
+		System.out.printf("%s: %d nodes, %d roads, %d segments, %d differences%n",
+				what, actual.nodes.size(), actual.roads.size(),
+				actual.segments.size(), differences - before);
+	}
+
+	/**
+	 * Compares the GraphCore rows, spatial indices, level of detail and
+	 * components of two indexed graphs, array by array.
+	 */
+	private void compareIndices(String what, Graph expected, Graph actual) {
+		int before = differences;
+		compareArrays("rows", expected.core.rows(), actual.core.rows());
+		compareArrays("node tree", new int[][] { expected.nodeIndex.order() },
+				new int[][] { actual.nodeIndex.order() });
+		RTree tree = expected.segmentIndex, other = actual.segmentIndex;
+		if (tree.leafCount() != other.leafCount())
+			differ("segment tree leaves", tree.leafCount(), other.leafCount());
+		compareArrays("segment tree", tree.ranges(), other.ranges());
+		if (!Arrays.deepEquals(tree.itemBoxes(), other.itemBoxes())
+				|| !Arrays.deepEquals(tree.boxes(), other.boxes()))
+			differ("segment tree boxes", "the same", "different");
+		compareArrays("level of detail offsets", expected.levelOfDetail.offsets(),
+				actual.levelOfDetail.offsets());
+		compareArrays("level of detail points", expected.levelOfDetail.points(),
+				actual.levelOfDetail.points());
+		compareArrays("components", new int[][] { expected.components.weak(),
+				expected.components.strong() }, new int[][] { actual.components.weak(),
+				actual.components.strong() });
+		System.out.printf("%s: %d differences%n", what, differences - before);
+	}
+
+	private void compareArrays(String what, int[][] expected, int[][] actual) {
+		for (int i = 0; i < expected.length; i++)
+			if (!Arrays.equals(expected[i], actual[i]))
+				differ(what + " " + i, expected[i].length + " entries",
+						actual[i].length + " different entries");
+	}
+
+	private void compareNodes(Map<Integer, Node> expected, Map<Integer, Node> actual) {
+		if (expected.size() != actual.size())
+			differ("node count", expected.size(), actual.size());
+		for (Node node : expected.values()) {
+			Node other = actual.get(node.nodeID);
+			if (other == null)
+				differ("node " + node.nodeID, node, null);
+			else if (other.index != node.index || other.location.x != node.location.x
+					|| other.location.y != node.location.y)
+				differ("node " + node.nodeID, node.location, other.location);
+		}
+	}
+
+	private void compareRoads(Map<Integer, Road> expected, Map<Integer, Road> actual) {
+		if (expected.size() != actual.size())
+			differ("road count", expected.size(), actual.size());
+		for (Road road : expected.values()) {
+			Road other = actual.get(road.getRoadID());
+			if (other == null)
+				differ("road " + road.getRoadID(), describe(road), null);
+			else if (other.index != road.index || !describe(other).equals(describe(road)))
+				differ("road " + road.getRoadID(), describe(road), describe(other));
+		}
+	}
+
+	private void compareSegments(List<Segment> expected, List<Segment> actual) {
+		if (expected.size() != actual.size()) {
+			differ("segment count", expected.size(), actual.size());
+			return;
+		}
+		for (int i = 0; i < expected.size(); i++) {
+			Segment segment = expected.get(i), other = actual.get(i);
+			if (other.id != segment.id || other.road.getRoadID() != segment.road.getRoadID()
+					|| other.start.nodeID != segment.start.nodeID
+					|| other.end.nodeID != segment.end.nodeID
+					|| other.length != segment.length
+					|| !samePoints(segment.points, other.points))
+				differ("segment " + i, segment.road.getRoadID() + " " + segment.start.nodeID
+						+ "-" + segment.end.nodeID, other.road.getRoadID() + " "
+						+ other.start.nodeID + "-" + other.end.nodeID);
+		}
+	}
+
+	private static boolean samePoints(Location[] a, Location[] b) {
+		if (a.length != b.length)
+			return false;
+		for (int i = 0; i < a.length; i++)
+			if (a[i].x != b[i].x || a[i].y != b[i].y)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Checks MapSnapshot.isFresh and where open() writes snapshots, on copies
+	 * of the three tab files in a temporary directory.
+	 */
+	private void checkSnapshotFiles(File nodes, File roads, File segments)
+			throws IOException {
+		int before = differences;
+		File dir = Files.createTempDirectory("map").toFile();
+		File cache = new File(dir, "cache");
+		File[] copies = new File[3];
+		File[] sources = { nodes, roads, segments };
+		for (int i = 0; i < 3; i++) {
+			copies[i] = new File(dir, sources[i].getName());
+			Files.copy(sources[i].toPath(), copies[i].toPath(),
+					StandardCopyOption.COPY_ATTRIBUTES);
+		}
+		File snapshot = new File(dir, MapSnapshot.FILENAME);
+		try {
+			System.setProperty("snapshot.write", "false");
+			MapSnapshot.open(copies[0], copies[1], copies[2], null);
+			if (snapshot.exists())
+				differ("with snapshot.write=false", "no snapshot", "one written");
+			System.clearProperty("snapshot.write");
+
+			MapSnapshot.open(copies[0], copies[1], copies[2], null);
+			if (!MapSnapshot.isFresh(snapshot, copies))
+				differ("after open", "a fresh snapshot", "none");
+
+			// a newer modification time, then the same time but a new length.
+			long modified = copies[1].lastModified();
+			copies[1].setLastModified(modified + 2000);
+			if (MapSnapshot.isFresh(snapshot, copies))
+				differ("after touching the roads file", "stale", "fresh");
+			copies[1].setLastModified(modified);
+			if (!MapSnapshot.isFresh(snapshot, copies))
+				differ("after setting the time back", "fresh", "stale");
+			Files.write(copies[1].toPath(), "\n".getBytes(), StandardOpenOption.APPEND);
+			copies[1].setLastModified(modified);
+			if (MapSnapshot.isFresh(snapshot, copies))
+				differ("after growing the roads file", "stale", "fresh");
+
+			System.setProperty("snapshot.dir", cache.getPath());
+			File cached = MapSnapshot.locate(dir);
+			MapSnapshot.open(copies[0], copies[1], copies[2], null);
+			if (!cached.getParentFile().equals(cache)
+					|| !MapSnapshot.isFresh(cached, copies))
+				differ("with snapshot.dir", "a fresh snapshot in " + cache, cached);
+			if (MapSnapshot.isFresh(snapshot, copies))
+				differ("with snapshot.dir", "the old snapshot left stale", "fresh");
+		} finally {
+			System.clearProperty("snapshot.write");
+			System.clearProperty("snapshot.dir");
+			for (File d : new File[] { cache, dir }) {
+				File[] files = d.listFiles();
+				if (files != null)
+					for (File file : files)
+						file.delete();
+				d.delete();
+			}
+		}
+		System.out.printf("snapshot freshness: %d differences%n", differences - before);
+	}
+
+	private static String describe(Road road) {
+		return road.getType() + " " + road.getName() + " " + road.getCity() + " "
+				+ road.isOneway() + " " + road.getSpeed() + " " + road.getRoadClass() + " "
+				+ road.isNotForCar() + " " + road.isNotForPedestrians() + " "
+				+ road.isNotForBicycles();
+	}
+
+	private void differ(String what, Object expected, Object actual) {
+		if (differences++ < 10)
+			System.out.println("  " + what + ": expected " + expected + ", got " + actual);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("usage: java LoadCheck <map directory>");
+			return;
+		}
+		File dir = new File(args[0]);
+		File nodes = new File(dir, "nodeID-lat-lon.tab");
+		File roads = new File(dir, "roadID-roadInfo.tab");
+		File segments = new File(dir, "roadSeg-roadID-length-nodeID-nodeID-coords.tab");
+		LoadCheck check = new LoadCheck();
+
+		Graph serial = new Graph();
+		serial.nodes = Parser.parseNodes(nodes, serial);
+		serial.roads = Parser.parseRoads(roads, serial);
+		serial.segments = Parser.parseSegments(segments, serial);
+		Graph parallel = new Graph();
+		List<ParallelParser.Throughput> stats = new ArrayList<>();
+		parallel.nodes = ParallelParser.parseNodes(nodes, parallel, stats);
+		parallel.roads = ParallelParser.parseRoads(roads, parallel, stats);
+		parallel.segments = ParallelParser.parseSegments(segments, parallel, stats);
+		for (ParallelParser.Throughput throughput : stats)
+			System.out.println("Parsed " + throughput);
+		check.compare("parallel parser", serial, parallel);
+
+		Graph text = new Graph(nodes, roads, segments, null);
+		System.out.println(text.roadAttributes.describeMemory());
+		File snapshot = File.createTempFile("map", ".snapshot");
+		try {
+			MapSnapshot.write(text, snapshot, nodes, roads, segments);
+			Graph read = MapSnapshot.read(snapshot);
+			check.compare("snapshot round trip", text, read);
+			check.compareIndices("snapshot indices", text, read);
+		} finally {
+			snapshot.delete();
+		}
+		check.checkSnapshotFiles(nodes, roads, segments);
+
+		if (check.differences > 0)
+			throw new RuntimeException("load check failed.");
+		System.out.println("All loads match");
+	}
+}
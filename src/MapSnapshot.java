@@ -0,0 +1,590 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MapSnapshot is a compiled, binary copy of the three tab files, so that a
+ * map we have already loaded once can be opened again without parsing any
+ * text. The snapshot is written next to the tab files the first time they are
+ * loaded, and read back with a memory-mapped FileChannel after that, as long
+ * as the tab files still have the size and modification time they had when
+ * it was written.
+ *
+ * Two system properties change where snapshots go: snapshot.dir names a
+ * directory to keep them in instead, one per map directory, and
+ * snapshot.write=false stops them being written at all (an existing one is
+ * still read). If the directory can't be written to, the map is just loaded
+ * from the text each time.
+ *
+ * The file is a header followed by one block per column, each a flat run of
+ * big-endian ints or doubles so it can be bulk-copied out of the mapped
+ * buffer:
+ *
+ * <pre>
+ * header:     MAGIC, VERSION, nodeCount, roadCount, segmentCount, pointCount,
+ *             stringBytes, adjCount, outCount, inCount, treeNodes, leafCount,
+ *             detailPoints, weakCount, strongCount
+ * sources:    long length, long lastModified, for each of the nodes, roads
+ *             and segments files
+ * nodes:      int id[], double x[], double y[]
+ * roads:      int attributes[ROAD_FIELDS * roadCount], int nameLength[],
+ *             int cityLength[]
+ * segments:   int road[], int start[], int end[], double length[],
+ *             int pointOffset[segmentCount + 1], double x[], double y[]
+ * rows:       int adjOffset[nodeCount + 1], int adjTarget[adjCount],
+ *             int adjEdge[adjCount], the same for out and in,
+ *             int roadOffset[roadCount + 1], int roadEdges[segmentCount]
+ * node tree:  int order[nodeCount]
+ * segment     double itemMinX[segmentCount], itemMinY[], itemMaxX[],
+ * tree:       itemMaxY[], int items[segmentCount], int first[treeNodes],
+ *             int last[treeNodes], double minX[treeNodes], minY[], maxX[],
+ *             maxY[]
+ * detail:     int offset[LEVELS][segmentCount + 1], int points[detailPoints],
+ *             every level's points one after the other
+ * components: int weak[nodeCount], int strong[nodeCount]
+ * strings:    byte utf8[stringBytes], the names and cities of every road
+ * </pre>
+ *
+ * Node, road and segment references are by index, and coordinates are stored
+ * already converted to Location space. The GraphCore rows, the KDTree, RTree
+ * and LevelOfDetail and the Components are stored as they were built, so
+ * reading a snapshot only has to check them; the RoadIndex builds itself the
+ * first time it is searched.
+ */
+public class MapSnapshot {
+
+	public static final String FILENAME = "map.snapshot";
+
+	// "MAPS", and the format version. bump the version whenever the layout,
+	// how the tab files are read, or how any of the stored indices are built
+	// changes; older snapshots are then recompiled from the tab files.
+	private static final int MAGIC = 0x4D415053;
+	private static final int VERSION = 4;
+
+	private static final int HEADER_INTS = 15;
+	// the nodes, roads and segments files.
+	private static final int SOURCES = 3;
+	// roadID, type, oneway, speed, roadclass, notforcar, notforpede,
+	// notforbicy.
+	private static final int ROAD_FIELDS = 8;
+
+	/**
+	 * Loads the graph for the given tab files, from their snapshot if there is
+	 * an up-to-date one, and otherwise by parsing the text and then compiling
+	 * a snapshot for next time. The turn restrictions and polygons aren't part
+	 * of the snapshot; their files are small, so they are always read.
+	 */
+	public static Graph open(File nodes, File roads, File segments,
+			File polygons) {
+		File snapshot = locate(nodes.getAbsoluteFile().getParentFile());
+
+		if (isFresh(snapshot, nodes, roads, segments)) {
+			try {
+				Graph graph = read(snapshot);
+				graph.loadRestrictions(snapshot.getParentFile());
+				graph.loadPolygons(polygons);
+				return graph;
+			} catch (IOException e) {
+				// fall through and rebuild it from the text files.
+				System.out.println("Ignoring snapshot: " + e.getMessage());
+			} catch (RuntimeException e) {
+				// anything read() didn't catch itself; rebuild it too.
+				System.out.println("Ignoring snapshot: " + snapshot
+						+ " could not be read (" + e + ")");
+			}
+		}
+
+		Graph graph = new Graph(nodes, roads, segments, polygons);
+		// a read-only directory (a CD, or someone else's copy of the data) is
+		// fine; the map just gets parsed from the text every time.
+		File dir = snapshot.getParentFile();
+		if (!"false".equals(System.getProperty("snapshot.write"))
+				&& (dir.isDirectory() || dir.mkdirs()) && dir.canWrite()) {
+			try {
+				write(graph, snapshot, nodes, roads, segments);
+			} catch (IOException e) {
+				System.out.println("Could not write snapshot: " + e.getMessage());
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Returns where the snapshot of the map in the given directory goes: in
+	 * the directory itself, or, if the snapshot.dir property is set, in that
+	 * directory under a name made from the map directory's path.
+	 */
+	static File locate(File mapDir) {
+		String cache = System.getProperty("snapshot.dir");
+		if (cache == null)
+			return new File(mapDir, FILENAME);
+		String path = mapDir.getAbsoluteFile().toPath().normalize().toString();
+		return new File(cache, String.format("map-%08x.snapshot",
+				path.hashCode()));
+	}
+
+	/**
+	 * Returns whether the snapshot exists, is of this version and was written
+	 * from the given tab files as they are now: each has the same length and
+	 * modification time that were stored in its header. Only the header is
+	 * read, and a snapshot that can't be read is just not fresh.
+	 */
+	static boolean isFresh(File snapshot, File... sources) {
+		if (!snapshot.isFile() || sources.length != SOURCES)
+			return false;
+		ByteBuffer buf = ByteBuffer.allocate(4 * HEADER_INTS + 16 * SOURCES);
+		try (FileChannel ch = FileChannel.open(snapshot.toPath(),
+				StandardOpenOption.READ)) {
+			while (buf.hasRemaining())
+				if (ch.read(buf) < 0)
+					return false;
+		} catch (IOException e) {
+			return false;
+		}
+		buf.flip();
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+			return false;
+		skip(buf, 4 * (HEADER_INTS - 2));
+		for (File source : sources)
+			if (buf.getLong() != source.length()
+					|| buf.getLong() != source.lastModified())
+				return false;
+		return true;
+	}
+
+	/**
+	 * Writes the given graph out as a snapshot, stamped with the length and
+	 * modification time of the nodes, roads and segments files it was loaded
+	 * from. The file is written to a temporary name first and then moved into
+	 * place, so a half-written snapshot is never picked up.
+	 */
+	public static void write(Graph graph, File file, File nodes, File roads,
+			File segments) throws IOException {
+		GraphCore core = graph.core;
+
+		byte[][] names = new byte[core.roadCount][];
+		byte[][] cities = new byte[core.roadCount][];
+		int stringBytes = 0;
+		for (int i = 0; i < core.roadCount; i++) {
+			names[i] = core.roads[i].getName().getBytes(StandardCharsets.UTF_8);
+			cities[i] = core.roads[i].getCity().getBytes(StandardCharsets.UTF_8);
+			stringBytes += names[i].length + cities[i].length;
+		}
+
+		int pointCount = 0;
+		for (Segment seg : core.segments)
+			pointCount += seg.points.length;
+
+		int[][] rows = core.rows();
+		RTree tree = graph.segmentIndex;
+		int[][] ranges = tree.ranges();
+		int[][] detail = graph.levelOfDetail.points();
+		int detailPoints = 0;
+		for (int[] points : detail)
+			detailPoints += points.length;
+		Components components = graph.components;
+
+		long size = size(core.nodeCount, core.roadCount, core.edgeCount,
+				pointCount, stringBytes, rows[1].length, rows[4].length,
+				rows[7].length, ranges[1].length, detailPoints);
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("map is too large for a snapshot");
+		ByteBuffer buf = ByteBuffer.allocate((int) size);
+
+		buf.putInt(MAGIC).putInt(VERSION);
+		buf.putInt(core.nodeCount).putInt(core.roadCount)
+				.putInt(core.edgeCount).putInt(pointCount).putInt(stringBytes);
+		buf.putInt(rows[1].length).putInt(rows[4].length)
+				.putInt(rows[7].length).putInt(ranges[1].length)
+				.putInt(tree.leafCount()).putInt(detailPoints)
+				.putInt(components.getWeakCount())
+				.putInt(components.getStrongCount());
+		for (File source : new File[] { nodes, roads, segments })
+			buf.putLong(source.length()).putLong(source.lastModified());
+
+		buf.asIntBuffer().put(core.nodeIds);
+		skip(buf, 4 * core.nodeCount);
+		buf.asDoubleBuffer().put(core.nodeX);
+		skip(buf, 8 * core.nodeCount);
+		buf.asDoubleBuffer().put(core.nodeY);
+		skip(buf, 8 * core.nodeCount);
+
+		for (Road road : core.roads) {
+			buf.putInt(road.getRoadID()).putInt(road.getType())
+					.putInt(road.isOneway() ? 1 : 0).putInt(road.getSpeed())
+					.putInt(road.getRoadClass())
+					.putInt(road.isNotForCar() ? 1 : 0)
+					.putInt(road.isNotForPedestrians() ? 1 : 0)
+					.putInt(road.isNotForBicycles() ? 1 : 0);
+		}
+		for (byte[] name : names)
+			buf.putInt(name.length);
+		for (byte[] city : cities)
+			buf.putInt(city.length);
+
+		buf.asIntBuffer().put(core.edgeRoad);
+		skip(buf, 4 * core.edgeCount);
+		buf.asIntBuffer().put(core.edgeFrom);
+		skip(buf, 4 * core.edgeCount);
+		buf.asIntBuffer().put(core.edgeTo);
+		skip(buf, 4 * core.edgeCount);
+		buf.asDoubleBuffer().put(core.edgeLength);
+		skip(buf, 8 * core.edgeCount);
+
+		int offset = 0;
+		buf.putInt(offset);
+		for (Segment seg : core.segments) {
+			offset += seg.points.length;
+			buf.putInt(offset);
+		}
+		for (Segment seg : core.segments)
+			for (Location p : seg.points)
+				buf.putDouble(p.x);
+		for (Segment seg : core.segments)
+			for (Location p : seg.points)
+				buf.putDouble(p.y);
+
+		for (int[] row : rows)
+			putInts(buf, row);
+		putInts(buf, graph.nodeIndex.order());
+		for (double[] column : tree.itemBoxes())
+			putDoubles(buf, column);
+		for (int[] column : ranges)
+			putInts(buf, column);
+		for (double[] column : tree.boxes())
+			putDoubles(buf, column);
+		for (int[] levelOffset : graph.levelOfDetail.offsets())
+			putInts(buf, levelOffset);
+		for (int[] points : detail)
+			putInts(buf, points);
+		putInts(buf, components.weak());
+		putInts(buf, components.strong());
+
+		for (int i = 0; i < core.roadCount; i++)
+			buf.put(names[i]).put(cities[i]);
+
+		buf.flip();
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			try (FileChannel ch = FileChannel.open(temp.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (buf.hasRemaining())
+					ch.write(buf);
+			}
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Reads a snapshot back into a graph, by mapping the file and copying each
+	 * column straight out of the mapped buffer. The stored indices are checked
+	 * to be in range, but not built again.
+	 */
+	public static Graph read(File file) throws IOException {
+		MappedByteBuffer buf;
+		try (FileChannel ch = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+
+		if (buf.remaining() < 4 * HEADER_INTS + 16 * SOURCES
+				|| buf.getInt() != MAGIC)
+			throw new IOException(file + " is not a map snapshot");
+		int version = buf.getInt();
+		if (version != VERSION)
+			throw new IOException(file + " has version " + version
+					+ ", expected " + VERSION);
+
+		int nodeCount = buf.getInt();
+		int roadCount = buf.getInt();
+		int segmentCount = buf.getInt();
+		int pointCount = buf.getInt();
+		int stringBytes = buf.getInt();
+		int adjCount = buf.getInt();
+		int outCount = buf.getInt();
+		int inCount = buf.getInt();
+		int treeNodes = buf.getInt();
+		int leafCount = buf.getInt();
+		int detailPoints = buf.getInt();
+		int weakCount = buf.getInt();
+		int strongCount = buf.getInt();
+		// the sources are only for isFresh.
+		skip(buf, 16 * SOURCES);
+		// a truncated or corrupt file shows up as counts that don't add up to
+		// its length.
+		if (nodeCount < 0 || roadCount < 0 || segmentCount < 0
+				|| pointCount < 0 || stringBytes < 0 || adjCount < 0
+				|| outCount < 0 || inCount < 0 || treeNodes < 0
+				|| leafCount < 0 || leafCount > treeNodes || detailPoints < 0
+				|| weakCount < 0 || strongCount < 0
+				|| size(nodeCount, roadCount, segmentCount, pointCount,
+						stringBytes, adjCount, outCount, inCount, treeNodes,
+						detailPoints) != buf.limit())
+			throw new IOException(file + " is truncated or corrupt");
+
+		Graph graph = new Graph();
+
+		// nodes.
+		int[] nodeIds = readInts(buf, nodeCount);
+		double[] nodeX = readDoubles(buf, nodeCount);
+		double[] nodeY = readDoubles(buf, nodeCount);
+		Node[] nodes = new Node[nodeCount];
+		graph.nodes = new HashMap<>(2 * nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			nodes[i] = new Node(graph, i, nodeIds[i], new Location(nodeX[i],
+					nodeY[i]));
+			graph.nodes.put(nodeIds[i], nodes[i]);
+		}
+
+		// roads. the strings come last in the file, so find them first.
+		int[] attributes = readInts(buf, ROAD_FIELDS * roadCount);
+		int[] nameLength = readInts(buf, roadCount);
+		int[] cityLength = readInts(buf, roadCount);
+		long totalLength = 0;
+		for (int i = 0; i < roadCount; i++) {
+			if (nameLength[i] < 0 || cityLength[i] < 0)
+				throw new IOException(file + " is corrupt");
+			totalLength += nameLength[i] + cityLength[i];
+		}
+		if (totalLength != stringBytes)
+			throw new IOException(file + " is corrupt");
+		int segmentsStart = buf.position();
+		int stringsStart = buf.limit() - stringBytes;
+
+		buf.position(stringsStart);
+		byte[] strings = new byte[stringBytes];
+		buf.get(strings);
+		buf.position(segmentsStart);
+
+		Road[] roads = new Road[roadCount];
+		Map<Integer, Road> roadMap = new HashMap<>(2 * roadCount);
+		int pos = 0;
+		for (int i = 0; i < roadCount; i++) {
+			String name = new String(strings, pos, nameLength[i],
+					StandardCharsets.UTF_8);
+			pos += nameLength[i];
+			String city = new String(strings, pos, cityLength[i],
+					StandardCharsets.UTF_8);
+			pos += cityLength[i];
+
+			int a = ROAD_FIELDS * i;
+			int index = graph.roadAttributes.add(attributes[a],
+					attributes[a + 1], name, city, attributes[a + 2],
+					attributes[a + 3], attributes[a + 4], attributes[a + 5],
+					attributes[a + 6], attributes[a + 7]);
+			roads[i] = new Road(graph, index);
+			roadMap.put(attributes[a], roads[i]);
+		}
+		graph.roads = roadMap;
+
+		// segments.
+		int[] segRoad = readInts(buf, segmentCount);
+		int[] segStart = readInts(buf, segmentCount);
+		int[] segEnd = readInts(buf, segmentCount);
+		double[] segLength = readDoubles(buf, segmentCount);
+		int[] pointOffset = readInts(buf, segmentCount + 1);
+		double[] pointX = readDoubles(buf, pointCount);
+		double[] pointY = readDoubles(buf, pointCount);
+		if (pointOffset[0] != 0 || pointOffset[segmentCount] != pointCount)
+			throw new IOException(file + " is corrupt");
+		for (int i = 0; i < segmentCount; i++) {
+			if (segRoad[i] < 0 || segRoad[i] >= roadCount
+					|| segStart[i] < 0 || segStart[i] >= nodeCount
+					|| segEnd[i] < 0 || segEnd[i] >= nodeCount
+					|| pointOffset[i + 1] < pointOffset[i])
+				throw new IOException(file + " is corrupt");
+		}
+
+		List<Segment> segments = new ArrayList<>(segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			Location[] points = new Location[pointOffset[i + 1]
+					- pointOffset[i]];
+			for (int j = 0; j < points.length; j++) {
+				int p = pointOffset[i] + j;
+				points[j] = new Location(pointX[p], pointY[p]);
+			}
+			segments.add(new Segment(i, roads[segRoad[i]], nodes[segStart[i]],
+					nodes[segEnd[i]], segLength[i], points));
+		}
+		graph.segments = segments;
+
+		// the GraphCore rows.
+		int[][] rows = new int[11][];
+		int[] rowCounts = { adjCount, outCount, inCount };
+		for (int i = 0; i < 3; i++) {
+			rows[3 * i] = readOffsets(buf, nodeCount, rowCounts[i], file);
+			rows[3 * i + 1] = readIndices(buf, rowCounts[i], nodeCount, file);
+			rows[3 * i + 2] = readIndices(buf, rowCounts[i], segmentCount, file);
+		}
+		rows[9] = readOffsets(buf, roadCount, segmentCount, file);
+		rows[10] = readIndices(buf, segmentCount, segmentCount, file);
+
+		// the spatial indices.
+		graph.nodeIndex = new KDTree(nodeX, nodeY, readIndices(buf, nodeCount,
+				nodeCount, file));
+		double[][] itemBoxes = new double[4][];
+		for (int i = 0; i < 4; i++)
+			itemBoxes[i] = readDoubles(buf, segmentCount);
+		int[] items = readIndices(buf, segmentCount, segmentCount, file);
+		int[] first = readInts(buf, treeNodes);
+		int[] last = readInts(buf, treeNodes);
+		for (int i = 0; i < treeNodes; i++) {
+			// a leaf covers a range of the items, and any other node a range
+			// of the nodes before it, so a query always terminates.
+			int limit = i < leafCount ? segmentCount : i;
+			if (first[i] < 0 || first[i] > last[i] || last[i] > limit)
+				throw new IOException(file + " is corrupt");
+		}
+		double[][] boxes = new double[4][];
+		for (int i = 0; i < 4; i++)
+			boxes[i] = readDoubles(buf, treeNodes);
+		graph.segmentIndex = new RTree(itemBoxes, leafCount, new int[][] {
+				items, first, last }, boxes);
+
+		// the level of detail, whose points index into each segment's own.
+		int[][] detailOffset = new int[LevelOfDetail.LEVELS][];
+		int[][] detail = new int[LevelOfDetail.LEVELS][];
+		long total = 0;
+		for (int k = 0; k < LevelOfDetail.LEVELS; k++) {
+			detailOffset[k] = readInts(buf, segmentCount + 1);
+			total += detailOffset[k][segmentCount];
+		}
+		if (total != detailPoints)
+			throw new IOException(file + " is corrupt");
+		for (int k = 0; k < LevelOfDetail.LEVELS; k++) {
+			int count = detailOffset[k][segmentCount];
+			checkOffsets(detailOffset[k], count, file);
+			detail[k] = readInts(buf, count);
+			for (int i = 0; i < segmentCount; i++)
+				for (int j = detailOffset[k][i]; j < detailOffset[k][i + 1]; j++)
+					if (detail[k][j] < 0
+							|| detail[k][j] >= pointOffset[i + 1] - pointOffset[i])
+						throw new IOException(file + " is corrupt");
+		}
+		graph.levelOfDetail = new LevelOfDetail(detailOffset, detail);
+
+		graph.components = new Components(readIndices(buf, nodeCount,
+				weakCount, file), readIndices(buf, nodeCount, strongCount,
+				file), weakCount, strongCount);
+
+		graph.index(rows);
+		return graph;
+	}
+
+	/**
+	 * Returns how many bytes a snapshot with the given counts takes.
+	 */
+	private static long size(int nodeCount, int roadCount, int segmentCount,
+			int pointCount, int stringBytes, int adjCount, int outCount,
+			int inCount, int treeNodes, int detailPoints) {
+		return 4L * HEADER_INTS + 16L * SOURCES
+				+ (4L + 8 + 8) * nodeCount
+				+ 4L * (ROAD_FIELDS + 2) * roadCount
+				+ (4L + 4 + 4 + 8 + 4) * segmentCount + 4
+				+ (8L + 8) * pointCount
+				// rows.
+				+ 4L * 3 * (nodeCount + 1) + 8L * (adjCount + outCount + inCount)
+				+ 4L * (roadCount + 1) + 4L * segmentCount
+				// the node tree, segment tree, detail and components.
+				+ 4L * nodeCount
+				+ (8L * 4 + 4) * segmentCount + (4L + 4 + 8 * 4) * treeNodes
+				+ 4L * LevelOfDetail.LEVELS * (segmentCount + 1) + 4L * detailPoints
+				+ (4L + 4) * nodeCount
+				+ stringBytes;
+	}
+
+	/**
+	 * Reads the offsets of a CSR row, which have to run from 0 up to count.
+	 */
+	private static int[] readOffsets(ByteBuffer buf, int rows, int count,
+			File file) throws IOException {
+		int[] offset = readInts(buf, rows + 1);
+		checkOffsets(offset, count, file);
+		return offset;
+	}
+
+	private static void checkOffsets(int[] offset, int count, File file)
+			throws IOException {
+		if (offset[0] != 0 || offset[offset.length - 1] != count)
+			throw new IOException(file + " is corrupt");
+		for (int i = 1; i < offset.length; i++)
+			if (offset[i] < offset[i - 1])
+				throw new IOException(file + " is corrupt");
+	}
+
+	/**
+	 * Reads count ints that all have to be indices below bound.
+	 */
+	private static int[] readIndices(ByteBuffer buf, int count, int bound,
+			File file) throws IOException {
+		int[] values = readInts(buf, count);
+		for (int value : values)
+			if (value < 0 || value >= bound)
+				throw new IOException(file + " is corrupt");
+		return values;
+	}
+
+	private static int[] readInts(ByteBuffer buf, int count) {
+		int[] values = new int[count];
+		buf.asIntBuffer().get(values);
+		skip(buf, 4 * count);
+		return values;
+	}
+
+	private static double[] readDoubles(ByteBuffer buf, int count) {
+		double[] values = new double[count];
+		buf.asDoubleBuffer().get(values);
+		skip(buf, 8 * count);
+		return values;
+	}
+
+	private static void putInts(ByteBuffer buf, int[] values) {
+		buf.asIntBuffer().put(values);
+		skip(buf, 4 * values.length);
+	}
+
+	private static void putDoubles(ByteBuffer buf, double[] values) {
+		buf.asDoubleBuffer().put(values);
+		skip(buf, 8 * values.length);
+	}
+
+	private static void skip(ByteBuffer buf, int bytes) {
+		buf.position(buf.position() + bytes);
+	}
+
+	/**
+	 * Compiles the snapshot for a directory of tab files ahead of time, so the
+	 * first load in the GUI is fast too. It goes wherever open() would look
+	 * for it, so snapshot.dir is honoured. Usage: java MapSnapshot directory
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("usage: java MapSnapshot <map directory>");
+			return;
+		}
+		File dir = new File(args[0]);
+		File nodes = new File(dir, "nodeID-lat-lon.tab");
+		File roads = new File(dir, "roadID-roadInfo.tab");
+		File segments = new File(dir,
+				"roadSeg-roadID-length-nodeID-nodeID-coords.tab");
+		Graph graph = new Graph(nodes, roads, segments, null);
+		File snapshot = locate(dir);
+		snapshot.getAbsoluteFile().getParentFile().mkdirs();
+		write(graph, snapshot, nodes, roads, segments);
+		System.out.println("Wrote " + snapshot);
+	}
+}
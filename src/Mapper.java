@@ -35,6 +35,26 @@ public class Mapper extends GUI {
 	// how far away from a node you can click before it isn't counted.
 	public static final double MAX_CLICKED_DISTANCE = 0.15;
 
+	// which engine onAStar uses to find the shortest path. A_STAR estimates
+	// the remaining distance as the crow flies, and ALT uses landmarks, which
+	// expands far fewer nodes. the contraction hierarchy answers queries
+	// faster still, but takes a while to build when a map is loaded, and
+	// doesn't know about turn restrictions. the customizable one is quicker to
+	// build, and is customised again whenever roads close, so it follows the
+	// closures, but it doesn't know about turn restrictions either.
+	public enum Search {
+		A_STAR, ALT, CONTRACTION_HIERARCHY, CUSTOMIZABLE_CH
+	}
+
+	private static final Search SEARCH = Search.A_STAR;
+	// whether A_STAR and ALT search from both ends at once.
+	private static final boolean BIDIRECTIONAL = false;
+	// whether routes are the shortest, or the fastest at the speed limits.
+	private static final Router.Cost COST = Router.Cost.DISTANCE;
+
+	// whether a search that exactly matches a road's name zooms to the road.
+	private static final boolean ZOOM_TO_ROAD = true;
+
 	// these two define the 'view' of the program, ie. where you're looking and
 	// how zoomed in you are.
 	private Location origin;
@@ -42,7 +62,20 @@ public class Mapper extends GUI {
 
 	// our data structures.
 	private Graph graph;
-	private Trie trie;
+	// runs the search box's queries over the road name trie.
+	private RoadSearch roadSearch;
+	// the base map, rendered in the background as cached tiles.
+	private TileCache tiles;
+	// finds the shortest paths for A_STAR and ALT.
+	private Router router;
+	// only built if SEARCH asks for it.
+	private ContractionHierarchy hierarchy;
+	private CustomizableHierarchy customizable;
+	// the closures that customizable was last customised for.
+	private boolean[] customisedFor;
+	// the articulation points and bridges, built the first time they're
+	// asked for and then kept up to date as roads close.
+	private Connectivity connectivity;
 
 	// set of articulation points
 	private Set<Node> APs = new HashSet<>();
@@ -56,27 +89,23 @@ public class Mapper extends GUI {
 
 	@Override
 	protected void redraw(Graphics g) {
-		if (graph != null)
-			graph.draw(g, getDrawingAreaDimension(), origin, scale);
+		if (graph != null) {
+			// the map itself comes from the tile cache, and only the
+			// highlights are drawn directly.
+			Dimension area = getDrawingAreaDimension();
+			tiles.draw(g, area, origin, scale);
+			graph.drawHighlights(g, area, origin, scale);
+		}
 	}
 
 	@Override
 	protected void onClick(MouseEvent e) {
 		Location clicked = Location.newFromPoint(e.getPoint(), origin, scale);
-		// find the closest node.
-		double bestDist = Double.MAX_VALUE;
-		Node closest = null;
-
-		for (Node node : graph.nodes.values()) {
-			double distance = clicked.distance(node.location);
-			if (distance < bestDist) {
-				bestDist = distance;
-				closest = node;
-			}
-		}
+		// find the closest node, using the graph's spatial index.
+		Node closest = graph.nearestNode(clicked);
 
 		// if it's close enough, highlight it and show some information.
-		if (clicked.distance(closest.location) < MAX_CLICKED_DISTANCE) {
+		if (closest != null && clicked.distance(closest.location) < MAX_CLICKED_DISTANCE) {
 			getTextOutputArea().append("\n" + closest);
 
 			if (startNode == null) {
@@ -93,47 +122,46 @@ public class Mapper extends GUI {
 
 	@Override
 	protected void onSearch() {
-		if (trie == null)
-			return;
-
-		// get the search query and run it through the trie.
-		String query = getSearchBox().getText();
-		Collection<Road> selected = trie.get(query);
-
-		// figure out if any of our selected roads exactly matches the search
-		// query. if so, as per the specification, we should only highlight
-		// exact matches. there may be (and are) many exact matches, however, so
-		// we have to do this carefully.
-		boolean exactMatch = false;
-		for (Road road : selected)
-			if (road.name.equals(query))
-				exactMatch = true;
-
-		// make a set of all the roads that match exactly, and make this our new
-		// selected set.
-		if (exactMatch) {
-			Collection<Road> exactMatches = new HashSet<>();
-			for (Road road : selected)
-				if (road.name.equals(query))
-					exactMatches.add(road);
-			selected = exactMatches;
-		}
+		// the search runs in the background, and shows its results when done.
+		if (roadSearch != null)
+			roadSearch.submit(getSearchBox().getText());
+	}
+
+	/**
+	 * Highlights the roads a search found, and lists their names. If they are
+	 * an exact match, the view zooms to fit them.
+	 */
+	private void showSearchResult(RoadSearch.Result result) {
+		graph.setHighlightedGroups(result.groups);
+		getTextOutputArea().setText(result.text);
+		if (result.exact && ZOOM_TO_ROAD)
+			zoomTo(result.groups);
+		redraw();
+	}
 
-		// set the highlighted roads.
-		graph.setHighlight(selected);
-
-		// now build the string for display. we filter out duplicates by putting
-		// it through a set first, and then combine it.
-		Collection<String> names = new HashSet<>();
-		for (Road road : selected)
-			names.add(road.name);
-		String str = "";
-		for (String name : names)
-			str += name + "; ";
-
-		if (str.length() != 0)
-			str = str.substring(0, str.length() - 2);
-		getTextOutputArea().setText(str);
+	/**
+	 * Moves and zooms the view so the road groups fill most of it. The scale
+	 * is one the zoom buttons could reach, MIN_ZOOM * ZOOM_FACTOR^k, as the
+	 * tile cache and the polygon levels expect: the closest in that still
+	 * fits, but no further in or out than the buttons go.
+	 */
+	private void zoomTo(List<RoadIndex.Group> groups) {
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (RoadIndex.Group group : groups) {
+			minX = Math.min(minX, group.minX);
+			minY = Math.min(minY, group.minY);
+			maxX = Math.max(maxX, group.maxX);
+			maxY = Math.max(maxY, group.maxY);
+		}
+		Dimension area = getDrawingAreaDimension();
+		// leave a margin around the roads.
+		double fit = Math.min(area.width / (maxX - minX), area.height / (maxY - minY)) * 0.8;
+		double maxZooms = Math.ceil(Math.log(MAX_ZOOM / MIN_ZOOM) / Math.log(ZOOM_FACTOR) - 1e-9);
+		double zooms = Math.floor(Math.log(fit / MIN_ZOOM) / Math.log(ZOOM_FACTOR) + 1e-9);
+		scale = MIN_ZOOM * Math.pow(ZOOM_FACTOR, Math.max(0, Math.min(maxZooms, zooms)));
+		double centreX = (minX + maxX) / 2, centreY = (minY + maxY) / 2;
+		origin = new Location(centreX - area.width / 2 / scale, centreY + area.height / 2 / scale);
 	}
 
 	@Override
@@ -187,7 +215,30 @@ public class Mapper extends GUI {
 			getTextOutputArea().setText("Needs to specific both nodes.");
 		} else {
 			redraw();
-			findShortestPath(startNode,targetNode);
+			Route route;
+			// the search that actually ran, for the output.
+			String search;
+			// the hierarchy doesn't know about closed roads.
+			if (SEARCH == Search.CONTRACTION_HIERARCHY && graph.closures.isEmpty()) {
+				route = hierarchy.route(startNode.index, targetNode.index);
+				search = SEARCH.toString();
+			} else if (SEARCH == Search.CUSTOMIZABLE_CH) {
+				route = customisedHierarchy().route(startNode.index, targetNode.index);
+				search = SEARCH.toString();
+			} else {
+				// with roads closed, the contraction hierarchy falls back to A*.
+				search = (SEARCH == Search.ALT ? Search.ALT : Search.A_STAR).toString();
+				if (BIDIRECTIONAL) {
+					route = router.routeBidirectional(startNode.index, targetNode.index);
+					search += ", bidirectional";
+				} else {
+					route = router.route(startNode.index, targetNode.index);
+				}
+				if (route != null && route.withTurns)
+					search += ", then again with turn restrictions";
+			}
+			// the path stays empty if the target can't be reached.
+			shortestPath = route == null ? new ArrayList<>() : route.getSegments(graph.core);
 			graph.setHighlightedSegments(shortestPath);
 
 			String output = "";
@@ -197,7 +248,7 @@ public class Mapper extends GUI {
 			for (Segment seg : shortestPath) {
 
 				double segmentLength = seg.length;
-				String roadName = seg.road.name;
+				String roadName = seg.road.getName();
 
 				if (roadMap.containsKey(roadName)) {
 					double distance = roadMap.get(roadName);
@@ -212,6 +263,10 @@ public class Mapper extends GUI {
 				totalDistance += path.getValue();
 			}
 			output += "\n Total Distance: " + Math.round(totalDistance*1000.0)/1000.0 + "km";
+			if (route != null && COST == Router.Cost.TIME)
+				output += "\n Travel Time: " + Math.round(route.length*60.0*10.0)/10.0 + "min";
+			if (route != null)
+				output += "\n Nodes expanded (" + search + "): " + route.expanded;
 			getTextOutputArea().append("\n\n" + output);
 		}
 		startNode = null;
@@ -219,174 +274,65 @@ public class Mapper extends GUI {
 	}
 
 	/**
-	 * It is called when select the start point and target point,
-	 * and then find the shortest path between these two points.
-	 * @param startNode
-	 * @param targetNode
+	 * Returns the customizable hierarchy, customised again first if roads
+	 * have closed or reopened since last time. Closed segments cost infinity.
 	 */
-	public void findShortestPath(Node startNode, Node targetNode) {
-		// A set of nodes that only add visited ones to it.
-		Set<Node> visited = new HashSet<>();
-		// Initialize the fringe with only start node.
-		Fringe initialFringe = new Fringe(startNode, null, 0, startNode.location.distance(targetNode.location));
-		PriorityQueue<Fringe> fringes = new PriorityQueue<Fringe>();
-		// Add start node into priority queue.
-		fringes.offer(initialFringe);
-
-		while (!fringes.isEmpty()) {
-			// Pull the node at the head of the priority queue.
-			Fringe fringe = fringes.poll();
-			Node currentNode = fringe.getCurrentNode(); // node*
-			Node prevNode = fringe.getPreviousNode(); // prev*
-			double g_value = fringe.getG_Value(); //g*
-			double f_value = fringe.getF_Value(); // f*
-			if (!visited.contains(currentNode)) {
-				visited.add(currentNode);
-				// Set currentNode's "prev" node to the previous current node.
-				currentNode.previous = prevNode;
-				if (currentNode == targetNode) {
-					trackBack(fringe);
-					break;
-				}
-				// In each segment of the current node
-				for (Segment seg : currentNode.segments) {
-					// estimate the one-way roads.
-					if (!(seg.road.oneway == 1 && seg.end == currentNode)) {
-						Node neigh;
-						// for outgoing neighbours
-						if (currentNode != seg.start) {
-							neigh = seg.start;
-						} else {
-							// Incoming neighbours
-							neigh = seg.end;
-						}
-
-						if (!visited.contains(neigh)) {
-							// g value of neighbour = g value of previous current node + segment length between current node and previous current node
-							double g_neigh = g_value + seg.length;
-							// f value of neighbour = g value of neighbour + estimate cost from neigh node to goal node.
-							double f_neigh = g_neigh + neigh.location.distance(targetNode.location);
-							// Add new element into the fringe.
-							Fringe newFringe = new Fringe(neigh, currentNode, g_neigh, f_neigh);
-							fringes.offer(newFringe);
-						}
-					}
-				}
-			}
-		}
-	}
-
-	/**
-	 * It is called when the A* search find the target node and get the shortest path.
-	 * Backtrack from the target node to the start node by using prevNodes, which
-	 * achieved by A loop, get the segments between the currentNode and prevNode,
-	 * adds them to a list of segments and keep assign the currentNode as prevNode
-	 * until the prevNode is null.
-	 * @param fringe
-	 * @return
-	 */
-	public List<Segment> trackBack(Fringe fringe) {
-		shortestPath = new ArrayList<>();
-		Node currentNode = fringe.getCurrentNode();
-		Node prevNode = fringe.getPreviousNode();
-		while (!(prevNode == null))  {
-			//gets the segment between the currentNode and prevNode and adds it to a list of segments.
-				shortestPath.add(prevNode.getSegment(currentNode));
-				// assign currentNode as prevNode
-				Node assign = prevNode;
-				prevNode = prevNode.previous;
-				currentNode = assign;
+	private CustomizableHierarchy customisedHierarchy() {
+		boolean[] closed = graph.closures.snapshot();
+		if (closed != customisedFor) {
+			double[] weights = COST.weights(graph.core).clone();
+			for (int e = 0; e < closed.length; e++)
+				if (closed[e])
+					weights[e] = Double.POSITIVE_INFINITY;
+			customizable.customise(weights);
+			customisedFor = closed;
 		}
-		return shortestPath;
+		return customizable;
 	}
 
 	/**
-	 * It is called when click A* button. All of the articulation point in the graph
-	 * will be found.
+	 * It is called when click APts button. All of the articulation points in
+	 * the graph will be found, in every connected component, along with the
+	 * bridges. Closed roads are left out.
 	 */
 	@Override
 	protected void onAPs() {
-		// Initialize the articulation points.
+		if (connectivity == null)
+			connectivity = new Connectivity(graph.core, graph.closures);
 		APs.clear();
-		for (Node node : graph.nodes.values()) {
-			node.depth = Integer.MAX_VALUE;
-		}
-		Node root = graph.nodes.get(12420);
-		root.depth = 0;
-		int numSubTrees = 0;
-
-		for (Node neighbour : root.getNeighbours()) {
-			if (neighbour.depth == Integer.MAX_VALUE) {
-				iterAPs(neighbour, 1, root);
-				numSubTrees++;
-			}
-
-			if (numSubTrees > 1) {
-				APs.add(root);
-			}
-		}
+		for (int node : connectivity.getArticulationPoints())
+			APs.add(graph.core.nodes[node]);
 		redraw();
 		graph.setHighlightedAPs(APs);
-		getTextOutputArea().setText("There are " + APs.size() + " articulation points in the graph.");
-	}
-
-	/**
-	 * It is called when finding the articulation point by using iterative method.
-	 * @param firstNode
-	 * @param depth
-	 * @param root
-	 */
-	public void iterAPs(Node firstNode, int depth, Node root) {
-		// Initialise stack as single element
-		Stack<IterAPsObject> stack = new Stack<>();
-		IterAPsObject first = new IterAPsObject(firstNode, depth, root);
-		stack.push(first);
-		// repeat until stack is empty
-		while (!stack.isEmpty()) {
-			// peek the last element of stack
-			IterAPsObject current = stack.peek();
-			Node currentNode = current.getNode();
-			int currentDepth = current.getDepth();
-			Node parentNode = current.getParent();
-
-			if (currentNode.depth == Integer.MAX_VALUE) {
-				currentNode.depth = currentDepth;
-				currentNode.reachBack = currentDepth;
-				// set all the neighbours of the currentNode (except its parent firstNode) as children firstNode.
-				for (Node neighbour : currentNode.getNeighbours()) {
-					if (neighbour != parentNode) {
-						currentNode.children.add(neighbour);
-					}
-				}
-
-			} else if (!currentNode.children.isEmpty()) {
-				Node child = currentNode.children.get(0);
-				currentNode.children.remove(0);
-				// if the child has been visited, then we found the alternative path,
-				// and set the reachBack as the minimum of the child's depth or the currentNode's reachBack.
-				if (child.depth < Integer.MAX_VALUE) {
-					currentNode.reachBack = Math.min(child.depth, currentNode.reachBack);
-				} else {
-					stack.push(new IterAPsObject(child, currentDepth+ 1, currentNode));
-				}
-			} else {
-				// if the currentNode is not the firstNode, then set the parentNode's reachBack as
-				// the minimum of the child's depth or the currentNode's reachBack.
-				if (currentNode != firstNode) {
-					parentNode.reachBack = Math.min(currentNode.reachBack, parentNode.reachBack);
-					if (currentNode.reachBack >= parentNode.depth) {
-						APs.add(parentNode);
-					}
-				}
-				stack.remove(current);
-			}
-		}
+		getTextOutputArea().setText("There are " + APs.size() + " articulation points and "
+				+ connectivity.getBridges().length + " bridges in the graph.");
 	}
 
 	@Override
 	protected void onLoad(File nodes, File roads, File segments, File polygons) {
-		graph = new Graph(nodes, roads, segments, polygons);
-		trie = new Trie(graph.roads.values());
+		graph = MapSnapshot.open(nodes, roads, segments, polygons);
+		if (tiles != null)
+			tiles.shutdown();
+		tiles = new TileCache(graph, this::redraw);
+		if (roadSearch != null)
+			roadSearch.shutdown();
+		roadSearch = new RoadSearch(new Trie(graph.core), graph.roadIndex,
+				this::showSearchResult);
+		hierarchy = null;
+		if (SEARCH == Search.CONTRACTION_HIERARCHY)
+			hierarchy = new ContractionHierarchy(graph.core, COST.weights(graph.core));
+		customizable = null;
+		if (SEARCH == Search.CUSTOMIZABLE_CH)
+			customizable = new CustomizableHierarchy(graph.core);
+		customisedFor = null;
+		Landmarks landmarks = null;
+		if (SEARCH == Search.ALT)
+			landmarks = new Landmarks(graph.core, COST.weights(graph.core), Landmarks.DEFAULT_COUNT);
+		router = new Router(graph.core, landmarks, COST, graph.restrictions,
+				graph.components, graph.closures);
+		connectivity = null;
+		// how fragmented the map is.
+		getTextOutputArea().setText(graph.components.describe());
 		origin = new Location(-250, 250); // close enough
 		scale = 1;
 	}
@@ -5,55 +5,68 @@ import java.util.*;
 
 /**
  * Node represents an intersection in the road graph. It stores its ID and its
- * location, as well as all the segments that it connects to. It knows how to
- * draw itself, and has an informative toString method.
+ * location, and is a thin view over the GraphCore for the segments that it
+ * connects to. It knows how to draw itself, and has an informative toString
+ * method.
  * 
  * @author tony
  */
 public class Node {
 
+	public final int index; // position of this node in the GraphCore arrays.
 	public final int nodeID;
 	public final Location location;
-	public final Collection<Segment> segments;
-	public Node previous;	// node*.prev
-	public int reachBack;
-	public int depth; // depth*
-	public Set<Node> neighbours = new HashSet<>();
-	public List<Node> children = new ArrayList<>();
+	private final Graph graph;
 
-	public Node(int nodeID, double lat, double lon) {
+	public Node(Graph graph, int index, int nodeID, double lat, double lon) {
+		this(graph, index, nodeID, Location.newFromLatLon(lat, lon));
+	}
+
+	public Node(Graph graph, int index, int nodeID, Location location) {
+		this.graph = graph;
+		this.index = index;
 		this.nodeID = nodeID;
-		this.location = Location.newFromLatLon(lat, lon);
-		this.segments = new HashSet<Segment>();
+		this.location = location;
 	}
 
-	public void addSegment(Segment seg) {
-		segments.add(seg);
+	/**
+	 * Returns the segments that this node connects to, as a read-only view
+	 * over the graph core.
+	 */
+	public List<Segment> getSegments() {
+		return graph.core.incidentSegments(index);
 	}
 
 	public void draw(Graphics g, Dimension area, Location origin, double scale) {
 		Point p = location.asPoint(origin, scale);
+		int size = size(scale);
 
 		// for efficiency, don't render nodes that are off-screen.
-		if (p.x < 0 || p.x > area.width || p.y < 0 || p.y > area.height)
+		if (p.x < -size || p.x > area.width + size || p.y < -size
+				|| p.y > area.height + size)
 			return;
 
-		int size = (int) (Mapper.NODE_GRADIENT * Math.log(scale) + Mapper.NODE_INTERCEPT);
 		g.fillRect(p.x - size / 2, p.y - size / 2, size, size);
 	}
 
+	/**
+	 * Returns the width, in pixels, of the square drawn for a node at the
+	 * given scale.
+	 */
+	public static int size(double scale) {
+		return (int) (Mapper.NODE_GRADIENT * Math.log(scale) + Mapper.NODE_INTERCEPT);
+	}
+
 	/**
 	 * Return the segment between this node and the other node.
 	 * @param other
 	 * @return
 	 */
 	public Segment getSegment(Node other) {
-		for (Segment seg : segments) {
-			for (Segment otherSeg : other.segments) {
-				if (seg.equals(otherSeg)) {
-					return seg;
-				}
-			}
+		GraphCore core = graph.core;
+		for (int i = core.adjOffset[index]; i < core.adjOffset[index + 1]; i++) {
+			if (core.adjTarget[i] == other.index)
+				return core.segments[core.adjEdge[i]];
 		}
 		return null;
 	}
@@ -63,18 +76,18 @@ public class Node {
 	 * @return
 	 */
 	public Set<Node> getNeighbours() {
-		for (Segment seg : segments) {
-			Node neigh = seg.getNodeNeighbour(this);
-			neighbours.add(neigh);
-		}
+		GraphCore core = graph.core;
+		Set<Node> neighbours = new HashSet<>();
+		for (int i = core.adjOffset[index]; i < core.adjOffset[index + 1]; i++)
+			neighbours.add(core.nodes[core.adjTarget[i]]);
 		return neighbours;
 	}
 
 	public String toString() {
 		Set<String> edges = new HashSet<String>();
-		for (Segment s : segments) {
-			if (!edges.contains(s.road.name))
-				edges.add(s.road.name);
+		for (Segment s : getSegments()) {
+			if (!edges.contains(s.road.getName()))
+				edges.add(s.road.getName());
 		}
 
 		String str = "ID: " + nodeID + "  loc: " + location + "\nroads: ";
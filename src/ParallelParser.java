@@ -0,0 +1,534 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A drop-in replacement for Parser that builds exactly the same Nodes, Roads
+ * and Segments, only faster. Each file is memory-mapped and cut into chunks
+ * that start and end on line boundaries, and the chunks are parsed in
+ * parallel on the common fork-join pool by a hand-written scanner that reads
+ * tabs and numbers straight out of the bytes, without making a String or
+ * String[] for every line. The chunks' results are then merged in file order,
+ * so nodes, roads and segments get the same indices as with Parser.
+ *
+ * Each parse can record the file's throughput, in MB/s, into a list of
+ * Throughputs passed in for it. Nothing is printed while loading; LoadCheck
+ * prints what it recorded.
+ */
+public class ParallelParser {
+
+	/**
+	 * How long one file took to parse, and so how fast it went.
+	 */
+	public static final class Throughput {
+		public final String file;
+		public final long bytes, nanos;
+
+		Throughput(File file, long nanos) {
+			this.file = file.getName();
+			this.bytes = file.length();
+			this.nanos = nanos;
+		}
+
+		public double megabytesPerSecond() {
+			return bytes / 1e6 / (nanos / 1e9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %.1f MB in %.0f ms (%.1f MB/s)", file,
+					bytes / 1e6, nanos / 1e6, megabytesPerSecond());
+		}
+	}
+
+	// chunks are at least this many bytes, so small files aren't split into
+	// more tasks than they are worth.
+	private static final int MIN_CHUNK = 1 << 16;
+	// and we aim for a few chunks per worker, to even out the load.
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	public static Map<Integer, Node> parseNodes(File nodes, Graph graph) {
+		return parseNodes(nodes, graph, null);
+	}
+
+	/**
+	 * Parses the nodes file, adding how fast it went to stats if that isn't
+	 * null.
+	 */
+	public static Map<Integer, Node> parseNodes(File nodes, Graph graph,
+			List<Throughput> stats) {
+		long start = System.nanoTime();
+		ByteBuffer buf = map(nodes);
+
+		List<NodeChunk> chunks = new ArrayList<>();
+		for (int[] range : split(buf, 0))
+			chunks.add(new NodeChunk(buf, range[0], range[1]));
+		ForkJoinTask.invokeAll(chunks);
+
+		Map<Integer, Node> map = new HashMap<Integer, Node>();
+		for (NodeChunk chunk : chunks) {
+			for (int i = 0; i < chunk.count; i++) {
+				Node node = new Node(graph, map.size(), chunk.ids[i],
+						chunk.lats[i], chunk.lons[i]);
+				map.put(chunk.ids[i], node);
+			}
+		}
+
+		record(stats, nodes, start);
+		return map;
+	}
+
+	public static Map<Integer, Road> parseRoads(File roads, Graph graph) {
+		return parseRoads(roads, graph, null);
+	}
+
+	/**
+	 * Parses the roads file, adding how fast it went to stats if that isn't
+	 * null.
+	 */
+	public static Map<Integer, Road> parseRoads(File roads, Graph graph,
+			List<Throughput> stats) {
+		long start = System.nanoTime();
+		ByteBuffer buf = map(roads);
+
+		// throw away the top line of the file.
+		List<RoadChunk> chunks = new ArrayList<>();
+		for (int[] range : split(buf, nextLine(buf, 0)))
+			chunks.add(new RoadChunk(buf, range[0], range[1]));
+		ForkJoinTask.invokeAll(chunks);
+
+		Map<Integer, Road> map = new HashMap<Integer, Road>();
+		for (RoadChunk chunk : chunks) {
+			for (int i = 0; i < chunk.count; i++) {
+				int[] f = chunk.fields;
+				int a = RoadChunk.FIELDS * i;
+				int index = graph.roadAttributes.add(f[a], f[a + 1],
+						chunk.labels[i], chunk.cities[i], f[a + 2], f[a + 3],
+						f[a + 4], f[a + 5], f[a + 6], f[a + 7]);
+				Road road = new Road(graph, index);
+				map.put(f[a], road);
+			}
+		}
+
+		record(stats, roads, start);
+		return map;
+	}
+
+	public static List<Segment> parseSegments(File segments, Graph graph) {
+		return parseSegments(segments, graph, null);
+	}
+
+	/**
+	 * Parses the segments file, adding how fast it went to stats if that isn't
+	 * null.
+	 */
+	public static List<Segment> parseSegments(File segments, Graph graph,
+			List<Throughput> stats) {
+		long start = System.nanoTime();
+		ByteBuffer buf = map(segments);
+
+		// throw away the top line of the file.
+		List<SegmentChunk> chunks = new ArrayList<>();
+		for (int[] range : split(buf, nextLine(buf, 0)))
+			chunks.add(new SegmentChunk(buf, range[0], range[1], graph));
+		ForkJoinTask.invokeAll(chunks);
+
+		// segment ids follow file order, so each chunk can only make its
+		// Segments once it knows how many came before it.
+		int total = 0;
+		for (SegmentChunk chunk : chunks) {
+			chunk.firstId = total;
+			total += chunk.count;
+			chunk.reinitialize();
+		}
+		ForkJoinTask.invokeAll(chunks);
+
+		List<Segment> list = new ArrayList<Segment>(total);
+		for (SegmentChunk chunk : chunks)
+			list.addAll(Arrays.asList(chunk.built));
+
+		record(stats, segments, start);
+		return list;
+	}
+
+	private static ByteBuffer map(File file) {
+		try (FileChannel ch = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} catch (IOException e) {
+			throw new RuntimeException("file reading failed.");
+		}
+	}
+
+	private static void record(List<Throughput> stats, File file, long start) {
+		if (stats != null)
+			stats.add(new Throughput(file, System.nanoTime() - start));
+	}
+
+	/**
+	 * Cuts [from, limit) of the buffer into chunks that each hold whole
+	 * lines, returned as {start, end} pairs.
+	 */
+	private static List<int[]> split(ByteBuffer buf, int from) {
+		int limit = buf.limit();
+		int threads = ForkJoinPool.commonPool().getParallelism();
+		int size = Math.max(MIN_CHUNK, (limit - from)
+				/ (threads * CHUNKS_PER_THREAD) + 1);
+
+		List<int[]> ranges = new ArrayList<>();
+		int start = from;
+		while (start < limit) {
+			int end = start + size >= limit ? limit : nextLine(buf, start
+					+ size);
+			ranges.add(new int[] { start, end });
+			start = end;
+		}
+		return ranges;
+	}
+
+	/**
+	 * Returns the position just after the end of the line containing pos.
+	 */
+	private static int nextLine(ByteBuffer buf, int pos) {
+		int limit = buf.limit();
+		while (pos < limit && buf.get(pos) != '\n')
+			pos++;
+		return Math.min(pos + 1, limit);
+	}
+
+	/**
+	 * Reads tab-separated tokens out of one chunk of a buffer, a line at a
+	 * time. Runs of tabs count as a single separator, as with the
+	 * split("[\t]+") in Parser, and both \n and \r\n line endings are
+	 * understood.
+	 */
+	private static class TabScanner {
+		private static final Charset CHARSET = Charset.defaultCharset();
+		// powers of ten that are exactly representable as doubles.
+		private static final double[] POW10 = new double[23];
+		static {
+			POW10[0] = 1;
+			for (int i = 1; i < POW10.length; i++)
+				POW10[i] = POW10[i - 1] * 10;
+		}
+
+		private final ByteBuffer buf;
+		private final int end;
+		private int pos, lineEnd;
+		private byte[] scratch = new byte[64];
+
+		TabScanner(ByteBuffer buf, int start, int end) {
+			this.buf = buf;
+			this.pos = start;
+			this.end = end;
+			this.lineEnd = start;
+		}
+
+		/**
+		 * Moves on to the next non-blank line, returning false at the end of
+		 * the chunk.
+		 */
+		boolean nextLine() {
+			pos = lineEnd;
+			while (pos < end && isLineBreak(buf.get(pos)))
+				pos++;
+			if (pos >= end)
+				return false;
+			lineEnd = pos;
+			while (lineEnd < end && !isLineBreak(buf.get(lineEnd)))
+				lineEnd++;
+			// a line of nothing but tabs has no tokens.
+			skipTabs();
+			return pos < lineEnd || nextLine();
+		}
+
+		/**
+		 * Returns true if there is another token on the current line.
+		 */
+		boolean hasToken() {
+			skipTabs();
+			return pos < lineEnd;
+		}
+
+		int nextInt() {
+			skipTabs();
+			int start = pos;
+			boolean negative = false;
+			if (pos < lineEnd && (buf.get(pos) == '-' || buf.get(pos) == '+'))
+				negative = buf.get(pos++) == '-';
+
+			long value = 0;
+			int digits = 0;
+			while (pos < lineEnd && digits < 11) {
+				int d = buf.get(pos) - '0';
+				if (d < 0 || d > 9)
+					break;
+				value = value * 10 + d;
+				pos++;
+				digits++;
+			}
+			value = negative ? -value : value;
+			if (digits == 0 || !atTokenEnd() || value != (int) value) {
+				// let Integer report the malformed number.
+				pos = start;
+				return Integer.parseInt(nextString());
+			}
+			return (int) value;
+		}
+
+		/**
+		 * Parses a decimal number. Numbers with at most 15 significant digits
+		 * and a small power of ten are computed as one exact long divided or
+		 * multiplied by one exact power of ten, which rounds correctly and so
+		 * gives the same double as Double.parseDouble; anything else falls
+		 * back to Double.parseDouble itself.
+		 */
+		double nextDouble() {
+			skipTabs();
+			int start = pos;
+			boolean negative = false;
+			if (pos < lineEnd && (buf.get(pos) == '-' || buf.get(pos) == '+'))
+				negative = buf.get(pos++) == '-';
+
+			long mantissa = 0;
+			int significant = 0, digits = 0, scale = 0;
+			boolean point = false;
+			while (pos < lineEnd) {
+				byte b = buf.get(pos);
+				if (b == '.' && !point) {
+					point = true;
+				} else if (b >= '0' && b <= '9') {
+					digits++;
+					if (mantissa != 0 || b != '0')
+						significant++;
+					if (significant <= 18)
+						mantissa = mantissa * 10 + (b - '0');
+					if (point)
+						scale--;
+				} else {
+					break;
+				}
+				pos++;
+			}
+			if (pos < lineEnd && (buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+				pos++;
+				boolean negativeExp = false;
+				if (pos < lineEnd
+						&& (buf.get(pos) == '-' || buf.get(pos) == '+'))
+					negativeExp = buf.get(pos++) == '-';
+				int exp = 0, expDigits = 0;
+				while (pos < lineEnd && buf.get(pos) >= '0'
+						&& buf.get(pos) <= '9' && exp < 10000) {
+					exp = exp * 10 + (buf.get(pos++) - '0');
+					expDigits++;
+				}
+				if (expDigits == 0)
+					digits = 0; // malformed, let the fallback complain.
+				scale += negativeExp ? -exp : exp;
+			}
+
+			if (digits == 0 || significant > 15 || !atTokenEnd()
+					|| scale < -22 || scale > 22) {
+				pos = start;
+				return Double.parseDouble(nextString());
+			}
+			double value = scale < 0 ? mantissa / POW10[-scale] : mantissa
+					* POW10[scale];
+			return negative ? -value : value;
+		}
+
+		String nextString() {
+			skipTabs();
+			int start = pos;
+			while (pos < lineEnd && buf.get(pos) != '\t')
+				pos++;
+			int length = pos - start;
+			if (scratch.length < length)
+				scratch = new byte[Math.max(length, 2 * scratch.length)];
+			for (int i = 0; i < length; i++)
+				scratch[i] = buf.get(start + i);
+			return new String(scratch, 0, length, CHARSET);
+		}
+
+		private boolean atTokenEnd() {
+			return pos == lineEnd || buf.get(pos) == '\t';
+		}
+
+		private void skipTabs() {
+			while (pos < lineEnd && buf.get(pos) == '\t')
+				pos++;
+		}
+
+		private static boolean isLineBreak(byte b) {
+			return b == '\n' || b == '\r';
+		}
+	}
+
+	/**
+	 * Parses the lines of one chunk of the nodes file.
+	 */
+	@SuppressWarnings("serial")
+	private static class NodeChunk extends RecursiveAction {
+		private final ByteBuffer buf;
+		private final int start, end;
+		int count;
+		int[] ids = new int[256];
+		double[] lats = new double[256], lons = new double[256];
+
+		NodeChunk(ByteBuffer buf, int start, int end) {
+			this.buf = buf;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			TabScanner in = new TabScanner(buf, start, end);
+			while (in.nextLine()) {
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, 2 * count);
+					lats = Arrays.copyOf(lats, 2 * count);
+					lons = Arrays.copyOf(lons, 2 * count);
+				}
+				ids[count] = in.nextInt();
+				lats[count] = in.nextDouble();
+				lons[count] = in.nextDouble();
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * Parses the lines of one chunk of the roads file.
+	 */
+	@SuppressWarnings("serial")
+	private static class RoadChunk extends RecursiveAction {
+		// roadID, type, oneway, speed, roadclass, notforcar, notforpede,
+		// notforbicy.
+		static final int FIELDS = 8;
+
+		private final ByteBuffer buf;
+		private final int start, end;
+		int count;
+		int[] fields = new int[FIELDS * 256];
+		String[] labels = new String[256], cities = new String[256];
+
+		RoadChunk(ByteBuffer buf, int start, int end) {
+			this.buf = buf;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			TabScanner in = new TabScanner(buf, start, end);
+			while (in.nextLine()) {
+				if (count == labels.length) {
+					fields = Arrays.copyOf(fields, 2 * fields.length);
+					labels = Arrays.copyOf(labels, 2 * count);
+					cities = Arrays.copyOf(cities, 2 * count);
+				}
+				int a = FIELDS * count;
+				fields[a] = in.nextInt();
+				fields[a + 1] = in.nextInt();
+				labels[count] = in.nextString();
+				cities[count] = in.nextString();
+				fields[a + 2] = in.nextInt();
+				fields[a + 3] = in.nextInt();
+				fields[a + 4] = in.nextInt();
+				fields[a + 5] = in.nextInt();
+				fields[a + 6] = in.nextInt();
+				fields[a + 7] = in.nextInt();
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * Parses the lines of one chunk of the segments file, and then, once the
+	 * id of its first segment is known, makes the Segments.
+	 */
+	@SuppressWarnings("serial")
+	private static class SegmentChunk extends RecursiveAction {
+		private final ByteBuffer buf;
+		private final int start, end;
+		private final Graph graph;
+		int count;
+		int[] roadIds = new int[256], node1Ids = new int[256],
+				node2Ids = new int[256];
+		double[] lengths = new double[256];
+		// the coordinates of segment i are at [coordOffset[i],
+		// coordOffset[i + 1]) of coords.
+		int[] coordOffset = new int[257];
+		double[] coords = new double[2048];
+
+		int firstId = -1;
+		Segment[] built;
+
+		SegmentChunk(ByteBuffer buf, int start, int end, Graph graph) {
+			this.buf = buf;
+			this.start = start;
+			this.end = end;
+			this.graph = graph;
+		}
+
+		@Override
+		protected void compute() {
+			if (firstId < 0)
+				parse();
+			else
+				build();
+		}
+
+		private void parse() {
+			TabScanner in = new TabScanner(buf, start, end);
+			while (in.nextLine()) {
+				if (count == roadIds.length) {
+					roadIds = Arrays.copyOf(roadIds, 2 * count);
+					node1Ids = Arrays.copyOf(node1Ids, 2 * count);
+					node2Ids = Arrays.copyOf(node2Ids, 2 * count);
+					lengths = Arrays.copyOf(lengths, 2 * count);
+					coordOffset = Arrays.copyOf(coordOffset, 2 * count + 1);
+				}
+				roadIds[count] = in.nextInt();
+				lengths[count] = in.nextDouble();
+				node1Ids[count] = in.nextInt();
+				node2Ids[count] = in.nextInt();
+
+				int c = coordOffset[count];
+				while (in.hasToken()) {
+					if (c == coords.length)
+						coords = Arrays.copyOf(coords, 2 * c);
+					coords[c++] = in.nextDouble();
+				}
+				count++;
+				coordOffset[count] = c;
+			}
+		}
+
+		private void build() {
+			built = new Segment[count];
+			for (int i = 0; i < count; i++) {
+				Location[] points = new Location[(coordOffset[i + 1] - coordOffset[i]) / 2];
+				for (int j = 0; j < points.length; j++) {
+					int c = coordOffset[i] + 2 * j;
+					points[j] = Location.newFromLatLon(coords[c], coords[c + 1]);
+				}
+				built[i] = new Segment(firstId + i, graph.roads.get(roadIds[i]),
+						graph.nodes.get(node1Ids[i]),
+						graph.nodes.get(node2Ids[i]), lengths[i], points);
+			}
+		}
+	}
+}
@@ -2,18 +2,20 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
- * This utility class provides three static methods for parsing each of the
- * three files we're interested in, and returning the relevant data structure.
+ * This utility class provides static methods for parsing each of the files
+ * we're interested in, and returning the relevant data structure.
  * Internally it uses BufferedReaders instead of Scanners to read in the files,
  * as Scanners are pathetically slow.
  * 
+ * Nodes, roads and segments are numbered in the order they appear in their
+ * files, which gives them their dense indices in the GraphCore.
+ * 
  * @author tony
  */
 public class Parser {
@@ -36,7 +38,7 @@ public class Parser {
 				double lat = asDouble(tokens[1]);
 				double lon = asDouble(tokens[2]);
 
-				Node node = new Node(nodeID, lat, lon);
+				Node node = new Node(graph, map.size(), nodeID, lat, lon);
 				map.put(nodeID, node);
 			}
 
@@ -68,10 +70,11 @@ public class Parser {
 				int roadclass = asInt(tokens[6]);
 				int notforcar = asInt(tokens[7]);
 				int notforpede = asInt(tokens[8]);
-				int notforbicy = asInt(tokens[8]);
+				int notforbicy = asInt(tokens[9]);
 
-				Road road = new Road(roadID, type, label, city, oneway, speed,
-						roadclass, notforcar, notforpede, notforbicy);
+				int index = graph.roadAttributes.add(roadID, type, label, city,
+						oneway, speed, roadclass, notforcar, notforpede, notforbicy);
+				Road road = new Road(graph, index);
 				map.put(roadID, road);
 			}
 
@@ -83,8 +86,8 @@ public class Parser {
 		return map;
 	}
 
-	public static Collection<Segment> parseSegments(File segments, Graph graph) {
-		Set<Segment> set = new HashSet<Segment>();
+	public static List<Segment> parseSegments(File segments, Graph graph) {
+		List<Segment> list = new ArrayList<Segment>();
 
 		try {
 			BufferedReader br = new BufferedReader(new FileReader(segments));
@@ -103,9 +106,41 @@ public class Parser {
 				for (int i = 4; i < tokens.length; i++)
 					coords[i - 4] = asDouble(tokens[i]);
 
-				Segment segment = new Segment(graph, roadID, length, node1ID,
-						node2ID, coords);
-				set.add(segment);
+				Segment segment = new Segment(graph, list.size(), roadID,
+						length, node1ID, node2ID, coords);
+				list.add(segment);
+			}
+
+			br.close();
+		} catch (IOException e) {
+			throw new RuntimeException("file reading failed.");
+		}
+
+		return list;
+	}
+
+	/**
+	 * Reads the turn restrictions, returning each as its five IDs: the node
+	 * the turn comes from, the road it comes along, the intersection, the road
+	 * it goes onto, and the node it goes to.
+	 */
+	public static List<int[]> parseRestrictions(File restrictions) {
+		List<int[]> list = new ArrayList<int[]>();
+
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(restrictions));
+			br.readLine(); // throw away the top line of the file.
+			String line;
+
+			while ((line = br.readLine()) != null) {
+				String[] tokens = line.split("[\t]+");
+				if (tokens.length < 5)
+					continue;
+
+				int[] restriction = new int[5];
+				for (int i = 0; i < 5; i++)
+					restriction[i] = asInt(tokens[i].trim());
+				list.add(restriction);
 			}
 
 			br.close();
@@ -113,7 +148,7 @@ public class Parser {
 			throw new RuntimeException("file reading failed.");
 		}
 
-		return set;
+		return list;
 	}
 
 	private static int asInt(String str) {
@@ -0,0 +1,184 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks how Polygons reads a .mp file, on a small one written to a temporary
+ * file: that only the most detailed DataN shape of each polygon is kept, with
+ * all its rings, that rings of fewer than three points are dropped (and a
+ * polygon left with none), that the background and coverage types (0x4a and
+ * 0x4b) are skipped, that the polygons end up in layer order, keeping the
+ * file order within a layer, and which of them are drawn at each scale,
+ * against their EndLevel. It prints what it found, and fails if anything is
+ * wrong.
+ *
+ * Given a .mp file as well, it then times loading it, and drawing the
+ * polygons of random tiles of the map at each level, which is what they add
+ * to rendering a tile of the base map.
+ */
+public class PolygonCheck {
+
+	// the same tiles every run.
+	private static final long SEED = 25;
+
+	// every polygon is a square or triangle of about a kilometre or more, so
+	// none is below a pixel at the scales checked.
+	private static final String[] FIXTURE = {
+			"[IMG ID]", "Name=check", "[END-IMG ID]", "",
+			// a building, whose Data0 comes after its Data1.
+			"[POLYGON]", "Type=0x13", "EndLevel=1",
+			"Data1=(-36.860,174.700),(-36.860,174.710),(-36.870,174.710),(-36.870,174.700)",
+			"Data0=(-36.860,174.700),(-36.860,174.705),(-36.860,174.710),(-36.870,174.710),(-36.870,174.700)",
+			"[END]", "",
+			// a lake, whose less detailed Data1 comes after its Data0.
+			"[POLYGON]", "Type=0x3c", "EndLevel=3",
+			"Data0=(-36.880,174.700),(-36.880,174.730),(-36.910,174.730),(-36.910,174.700)",
+			"Data1=(-36.880,174.700),(-36.880,174.730),(-36.890,174.730),(-36.900,174.730),(-36.910,174.730),(-36.910,174.700)",
+			"[END]", "",
+			// the background and coverage areas.
+			"[POLYGON]", "Type=0x4a", "EndLevel=3",
+			"Data0=(-36.800,174.600),(-36.800,174.800),(-37.000,174.800),(-37.000,174.600)",
+			"[END]", "",
+			"[POLYGON]", "Type=0x4b", "EndLevel=3",
+			"Data0=(-36.800,174.600),(-36.800,174.800),(-37.000,174.800),(-37.000,174.600)",
+			"[END]", "",
+			// a park with a hole, and a ring too short to be an area.
+			"[POLYGON]", "Type=0x16", "EndLevel=0",
+			"Data0=(-36.920,174.700),(-36.920,174.720),(-36.940,174.720),(-36.940,174.700)",
+			"Data0=(-36.925,174.705),(-36.925,174.715),(-36.935,174.710)",
+			"Data0=(-36.920,174.700),(-36.940,174.720)",
+			"[END]", "",
+			// a built-up area with no ring long enough, which is dropped.
+			"[POLYGON]", "Type=0x2", "EndLevel=2",
+			"Data0=(-36.950,174.700),(-36.960,174.720)",
+			"[END]", "",
+			// a line, which isn't an area at all.
+			"[POLYLINE]", "Type=0x1",
+			"Data0=(-36.950,174.700),(-36.960,174.720),(-36.970,174.700)",
+			"[END]", "",
+			// a built-up area.
+			"[POLYGON]", "Type=0x1", "EndLevel=2",
+			"Data0=(-36.950,174.740),(-36.950,174.760),(-36.965,174.760),(-36.965,174.740)",
+			"[END]", "",
+			// more water, after the lake in the file.
+			"[POLYGON]", "Type=0x28", "EndLevel=0",
+			"Data0=(-36.970,174.700),(-36.970,174.710),(-36.980,174.705)",
+			"[END]" };
+
+	// the polygons that should be kept, in layer order: type, EndLevel and
+	// the size of each ring.
+	private static final int[] TYPES = { 0x1, 0x16, 0x3c, 0x28, 0x13 };
+	private static final int[] END_LEVELS = { 2, 0, 3, 0, 1 };
+	private static final int[][] RINGS = { { 4 }, { 4, 3 }, { 4 }, { 3 }, { 5 } };
+
+	private int failures;
+
+	private void expect(String what, Object expected, Object actual) {
+		if (!expected.equals(actual)) {
+			failures++;
+			System.out.println("  " + what + ": expected " + expected + ", got " + actual);
+		}
+	}
+
+	private void check(Polygons polygons) {
+		expect("polygons", TYPES.length, polygons.size());
+		for (int p = 0; p < Math.min(TYPES.length, polygons.size()); p++) {
+			expect("type of polygon " + p, TYPES[p], polygons.type(p));
+			expect("EndLevel of polygon " + p, END_LEVELS[p], polygons.endLevel(p));
+			expect("rings of polygon " + p, Arrays.toString(RINGS[p]),
+					Arrays.toString(polygons.ringSizes(p)));
+		}
+
+		// each level covers three presses of the zoom buttons, from 3 fully
+		// zoomed out down to 0.
+		int[] levels = { 3, 3, 3, 2, 2, 2, 1, 1, 1, 0, 0, 0, 0 };
+		for (int zooms = 0; zooms < levels.length; zooms++)
+			expect("level after " + zooms + " zooms", levels[zooms],
+					Polygons.level(Mapper.MIN_ZOOM * Math.pow(Mapper.ZOOM_FACTOR, zooms)));
+
+		// the whole fixture at the first scale of each level, where only the
+		// polygons whose EndLevel is at least the level are drawn, and a box
+		// away from all of them.
+		Location a = Location.newFromLatLon(-36.85, 174.69);
+		Location b = Location.newFromLatLon(-36.99, 174.77);
+		String[] drawn = { "[2]", "[0, 2]", "[0, 2, 4]", "[0, 1, 2, 3, 4]" };
+		for (int k = 0; k < drawn.length; k++) {
+			double scale = Mapper.MIN_ZOOM * Math.pow(Mapper.ZOOM_FACTOR, 3 * k);
+			expect("drawn at level " + (3 - k), drawn[k], Arrays.toString(polygons.visible(
+					a.x, b.y, b.x, a.y, scale)));
+		}
+		expect("drawn away from them", "[]", Arrays.toString(polygons.visible(
+				b.x + 1, b.y, b.x + 2, a.y, Mapper.MAX_ZOOM)));
+		System.out.printf("%d polygons: %d wrong%n", polygons.size(), failures);
+	}
+
+	/**
+	 * Times loading a .mp file, and drawing the polygons of random tiles of
+	 * it at the first scale of each level.
+	 */
+	private static void measure(File file) {
+		Polygons polygons = null;
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			polygons = new Polygons(file);
+			System.out.printf("Loaded %d polygons from %s in %.0f ms%n", polygons.size(),
+					file, (System.nanoTime() - start) / 1e6);
+		}
+
+		double[] extent = polygons.extent();
+		double minX = extent[0], minY = extent[1], maxX = extent[2], maxY = extent[3];
+
+		int size = TileCache.TILE_SIZE;
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(SEED);
+		for (int k = 0; k <= 3; k++) {
+			double scale = Mapper.MIN_ZOOM * Math.pow(Mapper.ZOOM_FACTOR, 3 * k);
+			double span = size / scale;
+			int tiles = 200;
+			long total = 0, worst = 0;
+			int drawn = 0;
+			for (int t = 0; t < tiles; t++) {
+				double x = minX + random.nextDouble() * Math.max(0, maxX - minX - span);
+				double y = minY + span + random.nextDouble() * Math.max(0, maxY - minY - span);
+				Graphics2D g = image.createGraphics();
+				long start = System.nanoTime();
+				polygons.draw(g, x, y - span, x + span, y, new Location(x, y), scale);
+				long took = System.nanoTime() - start;
+				g.dispose();
+				drawn += polygons.visible(x, y - span, x + span, y, scale).length;
+				// the first tiles warm up the JIT.
+				if (t >= tiles / 4) {
+					total += took;
+					worst = Math.max(worst, took);
+				}
+			}
+			System.out.printf("Level %d: %.1f polygons a tile, %.2f ms a tile on average, "
+					+ "%.2f ms at worst%n", 3 - k, (double) drawn / tiles,
+					total / 1e6 / (tiles - tiles / 4), worst / 1e6);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		File fixture = File.createTempFile("polygons", ".mp");
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(fixture));
+			for (String line : FIXTURE)
+				out.println(line);
+			out.close();
+			PolygonCheck check = new PolygonCheck();
+			check.check(new Polygons(fixture));
+			if (check.failures > 0)
+				throw new RuntimeException("polygon check failed.");
+			System.out.println("All polygons read right");
+		} finally {
+			fixture.delete();
+		}
+		if (args.length > 0)
+			measure(new File(args[0]));
+	}
+}
@@ -0,0 +1,319 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The area features of the map (parks, water, buildings and so on) from
+ * polygon-shapes.mp, drawn underneath the roads.
+ *
+ * The file is read a line at a time, one [POLYGON] ... [END] block after
+ * another, and each polygon's rings go straight into flat coordinate arrays:
+ * polygon p has the rings [ringOffset[p], ringOffset[p + 1]), and ring r has
+ * the points [pointOffset[r], pointOffset[r + 1]) of x and y. A polygon may
+ * have its shape at several levels of detail (Data0, Data1, ...); only the
+ * most detailed is kept, which may be several rings (for holes, or separate
+ * parts). Coordinates are stored as floats, already converted to Location
+ * space.
+ *
+ * The polygons are sorted into layers by type when they are loaded, so that
+ * drawing them in index order puts built-up areas at the bottom, then parks,
+ * then water, then buildings on top. Drawing only looks at the polygons an
+ * RTree over their bounding boxes says are in view. EndLevel says how far out
+ * a polygon is still shown: each level covers ZOOMS_PER_LEVEL presses of the
+ * zoom buttons, starting with TOP_LEVEL when fully zoomed out, and polygons
+ * smaller than a pixel are skipped too. Nothing changes once loaded, so
+ * several tiles can draw at once.
+ */
+public class Polygons {
+
+	// the level drawn when fully zoomed out, and how many presses of the zoom
+	// buttons each level covers.
+	private static final int TOP_LEVEL = 3;
+	private static final int ZOOMS_PER_LEVEL = 3;
+
+	// the colour of each layer (see layer()).
+	private static final Color[] LAYER_COLOURS = { new Color(240, 236, 228),
+			new Color(208, 230, 200), new Color(192, 216, 240),
+			new Color(224, 222, 218) };
+
+	private int count, ringCount, pointCount;
+	private int[] types = new int[256];
+	private byte[] endLevels = new byte[256];
+	private int[] ringOffset = new int[257];
+	private int[] pointOffset = new int[257];
+	private float[] xs = new float[4096], ys = new float[4096];
+
+	// the bounding box of each polygon.
+	private final double[] minX, minY, maxX, maxY;
+	private final RTree index;
+
+	public Polygons(File file) {
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(file));
+			parse(br);
+			br.close();
+		} catch (IOException e) {
+			throw new RuntimeException("file reading failed.");
+		}
+		sortIntoLayers();
+
+		minX = new double[count];
+		minY = new double[count];
+		maxX = new double[count];
+		maxY = new double[count];
+		for (int p = 0; p < count; p++) {
+			minX[p] = minY[p] = Double.MAX_VALUE;
+			maxX[p] = maxY[p] = -Double.MAX_VALUE;
+			for (int i = pointOffset[ringOffset[p]]; i < pointOffset[ringOffset[p + 1]]; i++) {
+				minX[p] = Math.min(minX[p], xs[i]);
+				minY[p] = Math.min(minY[p], ys[i]);
+				maxX[p] = Math.max(maxX[p], xs[i]);
+				maxY[p] = Math.max(maxY[p], ys[i]);
+			}
+		}
+		index = new RTree(minX, minY, maxX, maxY);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the type of polygon p (its Type= line).
+	 */
+	int type(int p) {
+		return types[p];
+	}
+
+	/**
+	 * Returns the EndLevel of polygon p.
+	 */
+	int endLevel(int p) {
+		return endLevels[p];
+	}
+
+	/**
+	 * Returns how many points each ring of polygon p has.
+	 */
+	int[] ringSizes(int p) {
+		int[] sizes = new int[ringOffset[p + 1] - ringOffset[p]];
+		for (int r = 0; r < sizes.length; r++)
+			sizes[r] = pointOffset[ringOffset[p] + r + 1] - pointOffset[ringOffset[p] + r];
+		return sizes;
+	}
+
+	/**
+	 * Returns the box around every polygon, as minX, minY, maxX and maxY.
+	 */
+	double[] extent() {
+		double[] extent = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+				-Double.MAX_VALUE };
+		for (int p = 0; p < count; p++) {
+			extent[0] = Math.min(extent[0], minX[p]);
+			extent[1] = Math.min(extent[1], minY[p]);
+			extent[2] = Math.max(extent[2], maxX[p]);
+			extent[3] = Math.max(extent[3], maxY[p]);
+		}
+		return extent;
+	}
+
+	/**
+	 * Returns the polygons that can be seen in the given box at this scale,
+	 * in the order they are drawn.
+	 */
+	int[] visible(double viewMinX, double viewMinY, double viewMaxX,
+			double viewMaxY, double scale) {
+		int level = level(scale);
+		double pixel = 1 / scale;
+		int[][] found = { new int[64] };
+		int[] n = { 0 };
+		index.query(viewMinX, viewMinY, viewMaxX, viewMaxY, p -> {
+			if (endLevels[p] < level)
+				return;
+			if (maxX[p] - minX[p] < pixel && maxY[p] - minY[p] < pixel)
+				return;
+			if (n[0] == found[0].length)
+				found[0] = Arrays.copyOf(found[0], 2 * n[0]);
+			found[0][n[0]++] = p;
+		});
+		// index order is layer order.
+		int[] visible = Arrays.copyOf(found[0], n[0]);
+		Arrays.sort(visible);
+		return visible;
+	}
+
+	/**
+	 * Draws the polygons that can be seen in the given box at this scale.
+	 */
+	public void draw(Graphics2D g, double viewMinX, double viewMinY,
+			double viewMaxX, double viewMaxY, Location origin, double scale) {
+		for (int p : visible(viewMinX, viewMinY, viewMaxX, viewMaxY, scale)) {
+			Path2D.Float path = new Path2D.Float(Path2D.WIND_EVEN_ODD);
+			for (int r = ringOffset[p]; r < ringOffset[p + 1]; r++) {
+				for (int i = pointOffset[r]; i < pointOffset[r + 1]; i++) {
+					float x = (float) ((xs[i] - origin.x) * scale);
+					float y = (float) ((origin.y - ys[i]) * scale);
+					if (i == pointOffset[r])
+						path.moveTo(x, y);
+					else
+						path.lineTo(x, y);
+				}
+				path.closePath();
+			}
+			g.setColor(LAYER_COLOURS[layer(types[p])]);
+			g.fill(path);
+		}
+	}
+
+	/**
+	 * Reads the [POLYGON] blocks, adding each polygon's most detailed rings
+	 * to the arrays as they come.
+	 */
+	private void parse(BufferedReader br) throws IOException {
+		boolean inPolygon = false;
+		int type = 0, endLevel = 0, dataLevel = 0, firstRing = 0;
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("[POLYGON]")) {
+				inPolygon = true;
+				type = endLevel = 0;
+				dataLevel = Integer.MAX_VALUE;
+				firstRing = ringCount;
+			} else if (!inPolygon) {
+				continue;
+			} else if (line.startsWith("[END")) {
+				inPolygon = false;
+				// the background and coverage areas would hide everything.
+				if (type == 0x4a || type == 0x4b || ringCount == firstRing) {
+					ringCount = firstRing;
+					pointCount = pointOffset[firstRing];
+					continue;
+				}
+				if (count == types.length) {
+					types = Arrays.copyOf(types, 2 * count);
+					endLevels = Arrays.copyOf(endLevels, 2 * count);
+					ringOffset = Arrays.copyOf(ringOffset, 2 * count + 1);
+				}
+				types[count] = type;
+				endLevels[count] = (byte) Math.min(endLevel, Byte.MAX_VALUE);
+				ringOffset[++count] = ringCount;
+			} else if (line.startsWith("Type=")) {
+				type = Integer.decode(line.substring(5).trim());
+			} else if (line.startsWith("EndLevel=")) {
+				endLevel = Integer.parseInt(line.substring(9).trim());
+			} else if (line.startsWith("Data")) {
+				int equals = line.indexOf('=');
+				int level = Integer.parseInt(line.substring(4, equals));
+				if (level > dataLevel)
+					continue;
+				if (level < dataLevel) {
+					// a more detailed shape replaces the one we have.
+					ringCount = firstRing;
+					pointCount = pointOffset[firstRing];
+					dataLevel = level;
+				}
+				parseRing(line, equals + 1);
+			}
+		}
+	}
+
+	/**
+	 * Adds the ring of (lat,lon) pairs starting at the given position, unless
+	 * it has too few points to be an area.
+	 */
+	private void parseRing(String line, int pos) {
+		int first = pointCount;
+		while ((pos = line.indexOf('(', pos)) >= 0) {
+			int comma = line.indexOf(',', pos), close = line.indexOf(')', comma);
+			double lat = Double.parseDouble(line.substring(pos + 1, comma));
+			double lon = Double.parseDouble(line.substring(comma + 1, close));
+			Location location = Location.newFromLatLon(lat, lon);
+			if (pointCount == xs.length) {
+				xs = Arrays.copyOf(xs, 2 * pointCount);
+				ys = Arrays.copyOf(ys, 2 * pointCount);
+			}
+			xs[pointCount] = (float) location.x;
+			ys[pointCount] = (float) location.y;
+			pointCount++;
+			pos = close;
+		}
+		if (pointCount - first < 3) {
+			pointCount = first;
+			return;
+		}
+		if (ringCount + 1 == pointOffset.length)
+			pointOffset = Arrays.copyOf(pointOffset, 2 * pointOffset.length);
+		pointOffset[++ringCount] = pointCount;
+	}
+
+	/**
+	 * Reorders the polygons by layer, keeping the file order within each
+	 * layer, and cuts the arrays down to size.
+	 */
+	private void sortIntoLayers() {
+		int[] order = new int[count];
+		int[] layerStart = new int[LAYER_COLOURS.length + 1];
+		for (int p = 0; p < count; p++)
+			layerStart[layer(types[p]) + 1]++;
+		for (int l = 0; l < LAYER_COLOURS.length; l++)
+			layerStart[l + 1] += layerStart[l];
+		for (int p = 0; p < count; p++)
+			order[layerStart[layer(types[p])]++] = p;
+
+		int[] newTypes = new int[count];
+		byte[] newEndLevels = new byte[count];
+		int[] newRingOffset = new int[count + 1];
+		int[] newPointOffset = new int[ringCount + 1];
+		float[] newXs = new float[pointCount], newYs = new float[pointCount];
+		int rings = 0, points = 0;
+		for (int k = 0; k < count; k++) {
+			int p = order[k];
+			newTypes[k] = types[p];
+			newEndLevels[k] = endLevels[p];
+			for (int r = ringOffset[p]; r < ringOffset[p + 1]; r++) {
+				int length = pointOffset[r + 1] - pointOffset[r];
+				System.arraycopy(xs, pointOffset[r], newXs, points, length);
+				System.arraycopy(ys, pointOffset[r], newYs, points, length);
+				points += length;
+				newPointOffset[++rings] = points;
+			}
+			newRingOffset[k + 1] = rings;
+		}
+		types = newTypes;
+		endLevels = newEndLevels;
+		ringOffset = newRingOffset;
+		pointOffset = newPointOffset;
+		xs = newXs;
+		ys = newYs;
+	}
+
+	/**
+	 * Returns which layer a type of polygon is drawn in: built-up areas,
+	 * parks and woods, water, or buildings and everything else.
+	 */
+	private static int layer(int type) {
+		if (type >= 0x01 && type <= 0x03)
+			return 0;
+		if ((type >= 0x14 && type <= 0x1f) || (type >= 0x4e && type <= 0x53))
+			return 1;
+		if (type >= 0x28 && type <= 0x4d)
+			return 2;
+		return 3;
+	}
+
+	/**
+	 * Returns the level of detail for a scale; polygons whose EndLevel is
+	 * below it aren't drawn. Level k starts at the scale MIN_ZOOM *
+	 * ZOOM_FACTOR^(ZOOMS_PER_LEVEL * (TOP_LEVEL - k)).
+	 */
+	static int level(double scale) {
+		int zooms = (int) Math.floor(Math.log(scale / Mapper.MIN_ZOOM)
+				/ Math.log(Mapper.ZOOM_FACTOR) + 1e-9);
+		return Math.max(0, TOP_LEVEL - zooms / ZOOMS_PER_LEVEL);
+	}
+}
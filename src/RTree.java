@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A static R-tree over a set of axis-aligned bounding boxes, bulk-loaded with
+ * the Sort-Tile-Recursive (STR) algorithm, used to find everything that might
+ * be visible in the current viewport. Items are identified by their position
+ * in the arrays the tree was built from, and a query reports every item whose
+ * box intersects the query rectangle.
+ *
+ * The tree is packed into flat arrays: the leaves come first, then each level
+ * above them, and the root last. Every tree node covers a contiguous range of
+ * the level below it (or of the item order, for leaves), so no child pointers
+ * are needed. The tree never changes once built, so it can be queried from
+ * several threads at once.
+ */
+public class RTree {
+
+	// how many entries each tree node holds.
+	private static final int NODE_SIZE = 16;
+
+	// item ids, in leaf order.
+	private final int[] items;
+	private final double[] itemMinX, itemMinY, itemMaxX, itemMaxY;
+
+	// tree nodes: bounding box and the [first, last) range of children.
+	private double[] minX, minY, maxX, maxY;
+	private int[] first, last;
+	private int nodeCount, leafCount;
+
+	public RTree(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+		int n = minX.length;
+		this.itemMinX = minX;
+		this.itemMinY = minY;
+		this.itemMaxX = maxX;
+		this.itemMaxY = maxY;
+
+		int capacity = 1;
+		for (int level = n; level > 1; level = (level + NODE_SIZE - 1)
+				/ NODE_SIZE)
+			capacity += (level + NODE_SIZE - 1) / NODE_SIZE;
+		this.minX = new double[capacity];
+		this.minY = new double[capacity];
+		this.maxX = new double[capacity];
+		this.maxY = new double[capacity];
+		this.first = new int[capacity];
+		this.last = new int[capacity];
+
+		// the leaves group the items in STR order.
+		double[] cx = new double[n], cy = new double[n];
+		for (int i = 0; i < n; i++) {
+			cx[i] = (minX[i] + maxX[i]) / 2;
+			cy[i] = (minY[i] + maxY[i]) / 2;
+		}
+		items = strOrder(cx, cy);
+		for (int i = 0; i < n; i += NODE_SIZE) {
+			int end = Math.min(i + NODE_SIZE, n);
+			int node = addNode(i, end);
+			for (int j = i; j < end; j++) {
+				int item = items[j];
+				grow(node, minX[item], minY[item], maxX[item], maxY[item]);
+			}
+		}
+		leafCount = nodeCount;
+
+		// then each level groups the one below it, until there is only one.
+		int levelStart = 0;
+		while (nodeCount - levelStart > 1) {
+			int levelEnd = nodeCount;
+			reorder(levelStart, levelEnd);
+			for (int i = levelStart; i < levelEnd; i += NODE_SIZE) {
+				int end = Math.min(i + NODE_SIZE, levelEnd);
+				int node = addNode(i, end);
+				for (int j = i; j < end; j++)
+					grow(node, this.minX[j], this.minY[j], this.maxX[j],
+							this.maxY[j]);
+			}
+			levelStart = levelEnd;
+		}
+	}
+
+	/**
+	 * Makes a tree that was built before, from the itemBoxes(), leafCount(),
+	 * ranges() and boxes() it had (see MapSnapshot), without building it
+	 * again.
+	 */
+	RTree(double[][] itemBoxes, int leafCount, int[][] ranges, double[][] boxes) {
+		this.itemMinX = itemBoxes[0];
+		this.itemMinY = itemBoxes[1];
+		this.itemMaxX = itemBoxes[2];
+		this.itemMaxY = itemBoxes[3];
+		this.items = ranges[0];
+		this.first = ranges[1];
+		this.last = ranges[2];
+		this.minX = boxes[0];
+		this.minY = boxes[1];
+		this.maxX = boxes[2];
+		this.maxY = boxes[3];
+		this.nodeCount = first.length;
+		this.leafCount = leafCount;
+	}
+
+	/**
+	 * Returns the boxes of the items, as minX, minY, maxX and maxY. Not to be
+	 * modified.
+	 */
+	double[][] itemBoxes() {
+		return new double[][] { itemMinX, itemMinY, itemMaxX, itemMaxY };
+	}
+
+	int leafCount() {
+		return leafCount;
+	}
+
+	/**
+	 * Returns the item order, then the first and last child of each tree
+	 * node. Not to be modified.
+	 */
+	int[][] ranges() {
+		return new int[][] { items, Arrays.copyOf(first, nodeCount),
+				Arrays.copyOf(last, nodeCount) };
+	}
+
+	/**
+	 * Returns the bounding boxes of the tree nodes, as minX, minY, maxX and
+	 * maxY.
+	 */
+	double[][] boxes() {
+		return new double[][] { Arrays.copyOf(minX, nodeCount),
+				Arrays.copyOf(minY, nodeCount), Arrays.copyOf(maxX, nodeCount),
+				Arrays.copyOf(maxY, nodeCount) };
+	}
+
+	public int size() {
+		return items.length;
+	}
+
+	/**
+	 * Calls the visitor with every item whose box intersects the given
+	 * rectangle (edges included). Items are visited at most once each, in no
+	 * particular order.
+	 */
+	public void query(double qMinX, double qMinY, double qMaxX, double qMaxY,
+			IntConsumer visitor) {
+		if (nodeCount == 0)
+			return;
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = nodeCount - 1;
+		while (top > 0) {
+			int node = stack[--top];
+			if (minX[node] > qMaxX || maxX[node] < qMinX
+					|| minY[node] > qMaxY || maxY[node] < qMinY)
+				continue;
+
+			if (node < leafCount) {
+				for (int i = first[node]; i < last[node]; i++) {
+					int item = items[i];
+					if (itemMinX[item] <= qMaxX && itemMaxX[item] >= qMinX
+							&& itemMinY[item] <= qMaxY
+							&& itemMaxY[item] >= qMinY)
+						visitor.accept(item);
+				}
+			} else {
+				for (int child = first[node]; child < last[node]; child++) {
+					if (top == stack.length)
+						stack = Arrays.copyOf(stack, 2 * top);
+					stack[top++] = child;
+				}
+			}
+		}
+	}
+
+	private int addNode(int from, int to) {
+		int node = nodeCount++;
+		first[node] = from;
+		last[node] = to;
+		minX[node] = minY[node] = Double.POSITIVE_INFINITY;
+		maxX[node] = maxY[node] = Double.NEGATIVE_INFINITY;
+		return node;
+	}
+
+	private void grow(int node, double x0, double y0, double x1, double y1) {
+		minX[node] = Math.min(minX[node], x0);
+		minY[node] = Math.min(minY[node], y0);
+		maxX[node] = Math.max(maxX[node], x1);
+		maxY[node] = Math.max(maxY[node], y1);
+	}
+
+	/**
+	 * Rearranges the tree nodes in [from, to) into STR order, so that grouping
+	 * them consecutively gives compact parents.
+	 */
+	private void reorder(int from, int to) {
+		int n = to - from;
+		double[] cx = new double[n], cy = new double[n];
+		for (int i = 0; i < n; i++) {
+			cx[i] = (minX[from + i] + maxX[from + i]) / 2;
+			cy[i] = (minY[from + i] + maxY[from + i]) / 2;
+		}
+		int[] order = strOrder(cx, cy);
+		minX = permute(minX, from, order);
+		minY = permute(minY, from, order);
+		maxX = permute(maxX, from, order);
+		maxY = permute(maxY, from, order);
+		first = permute(first, from, order);
+		last = permute(last, from, order);
+	}
+
+	private static double[] permute(double[] a, int from, int[] order) {
+		double[] copy = Arrays.copyOfRange(a, from, from + order.length);
+		for (int i = 0; i < order.length; i++)
+			a[from + i] = copy[order[i]];
+		return a;
+	}
+
+	private static int[] permute(int[] a, int from, int[] order) {
+		int[] copy = Arrays.copyOfRange(a, from, from + order.length);
+		for (int i = 0; i < order.length; i++)
+			a[from + i] = copy[order[i]];
+		return a;
+	}
+
+	/**
+	 * Sort-Tile-Recursive ordering of a set of points: sort them by x, cut
+	 * them into about sqrt(n / NODE_SIZE) vertical slices, and sort each slice
+	 * by y. Consecutive runs of NODE_SIZE in the result are then close
+	 * together in both directions.
+	 */
+	private static int[] strOrder(double[] cx, double[] cy) {
+		int n = cx.length;
+		int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+		int slices = (int) Math.ceil(Math.sqrt(leaves));
+		int sliceSize = slices == 0 ? n : NODE_SIZE
+				* ((leaves + slices - 1) / slices);
+
+		int[] order = sortedBy(cx, 0, n, null);
+		for (int s = 0; s < n; s += sliceSize)
+			sortedBy(cy, s, Math.min(s + sliceSize, n), order);
+		return order;
+	}
+
+	/**
+	 * Sorts the indices in [from, to) of order by the given key. If order is
+	 * null, a new identity order over the whole key array is made and sorted.
+	 */
+	private static int[] sortedBy(double[] key, int from, int to, int[] order) {
+		if (order == null) {
+			order = new int[key.length];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+		}
+		// boxing keeps this simple, and it only runs once at load time.
+		Integer[] range = new Integer[to - from];
+		for (int i = from; i < to; i++)
+			range[i - from] = order[i];
+		Arrays.sort(range, (a, b) -> Double.compare(key[a], key[b]));
+		for (int i = from; i < to; i++)
+			order[i] = range[i - from];
+		return order;
+	}
+}
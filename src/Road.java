@@ -1,32 +1,89 @@
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 
 /**
  * Road represents ... a road ... in our graph, which is some metadata and a
  * collection of Segments. We have lots of information about Roads, but don't
- * use much of it.
+ * use much of it. The metadata is kept in the graph's RoadAttributes, and the
+ * segments of a road are looked up through the GraphCore, so a Road is just
+ * its index.
  * 
  * @author tony
  */
 public class Road {
-	public final int roadID;
-	public final int oneway;
-	public final String name, city;
-	public final Collection<Segment> components;
+	// the speed limit of each speed category, in km/h. category 7 is "no
+	// limit", which we take to be 130km/h.
+	private static final int[] SPEED_LIMITS = { 5, 20, 40, 60, 80, 100, 110, 130 };
 
-	public Road(int roadID, int type, String label, String city, int oneway,
-			int speed, int roadclass, int notforcar, int notforpede,
-			int notforbicy) {
-		this.roadID = roadID;
-		this.city = city;
-		this.oneway = oneway;
-		this.name = label;
-		this.components = new HashSet<Segment>();
+	public final int index; // position of this road in the GraphCore arrays.
+	private final Graph graph;
+
+	/**
+	 * Makes the road whose attributes were added to the graph's
+	 * RoadAttributes at the given index.
+	 */
+	public Road(Graph graph, int index) {
+		this.graph = graph;
+		this.index = index;
+	}
+
+	public int getRoadID() {
+		return graph.roadAttributes.getRoadID(index);
+	}
+
+	public String getName() {
+		return graph.roadAttributes.getName(index);
+	}
+
+	public String getCity() {
+		return graph.roadAttributes.getCity(index);
+	}
+
+	public int getType() {
+		return graph.roadAttributes.getType(index);
+	}
+
+	public int getSpeed() {
+		return graph.roadAttributes.getSpeed(index);
+	}
+
+	public int getRoadClass() {
+		return graph.roadAttributes.getRoadClass(index);
+	}
+
+	public boolean isOneway() {
+		return graph.roadAttributes.isOneway(index);
+	}
+
+	public boolean isNotForCar() {
+		return graph.roadAttributes.isNotForCar(index);
+	}
+
+	public boolean isNotForPedestrians() {
+		return graph.roadAttributes.isNotForPedestrians(index);
+	}
+
+	public boolean isNotForBicycles() {
+		return graph.roadAttributes.isNotForBicycles(index);
+	}
+
+	/**
+	 * Returns the speed limit of this road in km/h. Unknown categories are
+	 * taken to be the slowest.
+	 */
+	public int getSpeedLimit() {
+		int speed = getSpeed();
+		if (speed < 0 || speed >= SPEED_LIMITS.length)
+			return SPEED_LIMITS[0];
+		return SPEED_LIMITS[speed];
 	}
 
-	public void addSegment(Segment seg) {
-		components.add(seg);
+	/**
+	 * Returns the segments that make up this road, as a read-only view over
+	 * the graph core.
+	 */
+	public List<Segment> getSegments() {
+		return graph.core.roadSegments(index);
 	}
 }
 
-// code for COMP261 assignments
\ No newline at end of file
+// code for COMP261 assignments
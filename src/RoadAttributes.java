@@ -0,0 +1,199 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The attributes of every road, stored by column rather than in the Road
+ * objects, which just read them from here by their index.
+ *
+ * Names and cities repeat a lot (every fragment of a road has its own row in
+ * the data, and there are only a few hundred cities), so they are dictionary
+ * encoded: each distinct string is kept once, in a shared table, and a road
+ * stores the int codes of its name and city. The numeric attributes are small,
+ * so they are kept in byte and short columns, and the yes/no ones are packed
+ * into the bits of a single byte.
+ *
+ * Roads are added one at a time as they are parsed. The columns grow as
+ * needed, and trim() cuts them down to size (and drops the lookup table used
+ * to find codes) once they are all in.
+ */
+public class RoadAttributes {
+
+	// the bits of the flags column.
+	private static final int ONEWAY = 1, NOT_FOR_CAR = 2, NOT_FOR_PEDE = 4,
+			NOT_FOR_BICY = 8;
+
+	// the distinct names and cities, by code, and the code of each while
+	// roads are still being added.
+	private final ArrayList<String> strings = new ArrayList<>();
+	private Map<String, Integer> codes = new HashMap<>();
+
+	private int count;
+	private int[] roadIds = new int[1024];
+	private int[] nameCodes = new int[1024], cityCodes = new int[1024];
+	private short[] types = new short[1024];
+	private byte[] speeds = new byte[1024], roadClasses = new byte[1024];
+	private byte[] flags = new byte[1024];
+
+	/**
+	 * Adds a road's attributes, and returns the index to read them back with.
+	 */
+	public int add(int roadID, int type, String name, String city, int oneway,
+			int speed, int roadclass, int notforcar, int notforpede, int notforbicy) {
+		if (type != (short) type || speed != (byte) speed || roadclass != (byte) roadclass)
+			throw new RuntimeException("road attribute out of range.");
+		if (count == roadIds.length)
+			grow(2 * count);
+		int i = count++;
+		roadIds[i] = roadID;
+		nameCodes[i] = code(name);
+		cityCodes[i] = code(city);
+		types[i] = (short) type;
+		speeds[i] = (byte) speed;
+		roadClasses[i] = (byte) roadclass;
+		flags[i] = (byte) ((oneway == 1 ? ONEWAY : 0)
+				| (notforcar == 1 ? NOT_FOR_CAR : 0)
+				| (notforpede == 1 ? NOT_FOR_PEDE : 0)
+				| (notforbicy == 1 ? NOT_FOR_BICY : 0));
+		return i;
+	}
+
+	/**
+	 * Cuts the columns down to the roads added so far. Roads can't be added
+	 * after this.
+	 */
+	public void trim() {
+		grow(count);
+		strings.trimToSize();
+		codes = null;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getRoadID(int road) {
+		return roadIds[road];
+	}
+
+	public String getName(int road) {
+		return strings.get(nameCodes[road]);
+	}
+
+	public String getCity(int road) {
+		return strings.get(cityCodes[road]);
+	}
+
+	public int getType(int road) {
+		return types[road];
+	}
+
+	public int getSpeed(int road) {
+		return speeds[road];
+	}
+
+	public int getRoadClass(int road) {
+		return roadClasses[road];
+	}
+
+	public boolean isOneway(int road) {
+		return (flags[road] & ONEWAY) != 0;
+	}
+
+	public boolean isNotForCar(int road) {
+		return (flags[road] & NOT_FOR_CAR) != 0;
+	}
+
+	public boolean isNotForPedestrians(int road) {
+		return (flags[road] & NOT_FOR_PEDE) != 0;
+	}
+
+	public boolean isNotForBicycles(int road) {
+		return (flags[road] & NOT_FOR_BICY) != 0;
+	}
+
+	/**
+	 * Estimates how many bytes of heap the road attributes take, as they are
+	 * stored here, and as they were before, when each Road held every
+	 * attribute itself. Both sides come from the same model, over the same
+	 * roads, and neither is measured:
+	 *
+	 * - before, each Road object had nine int fields (its index, roadID,
+	 * type, oneway, speed, roadclass and the three access flags) and three
+	 * references (name, city and the graph), and its own name and city
+	 * String, as both parsers made a new String for every field they read;
+	 *
+	 * - now, each Road object has its index and the graph, and the store has
+	 * its columns, one String per distinct name or city, and the table of
+	 * them.
+	 *
+	 * Objects have a 12-byte header and arrays a 16-byte one, references are
+	 * compressed to 4 bytes, everything is padded to 8 bytes, and a String is
+	 * a 24-byte object with a byte array of one byte per (Latin-1) character.
+	 */
+	public String describeMemory() {
+		long stringBytes = 0, oldBytes = 0;
+		for (String s : strings)
+			stringBytes += stringSize(s);
+		for (int i = 0; i < count; i++)
+			oldBytes += stringSize(getName(i)) + stringSize(getCity(i));
+		oldBytes += count * align(12 + 4 * 9 + 4 * 3);
+		long newBytes = count * align(12 + 4 + 4) + stringBytes
+				+ align(12 + 4 + 4) + arraySize(4L * strings.size())
+				+ arraySize(4L * count) * 3 + arraySize(2L * count) + arraySize(count) * 3;
+		return String.format("Road attributes of %d roads (%d distinct names and cities): "
+				+ "an estimated %.1f KB, against %.1f KB with every attribute in the Road "
+				+ "objects (a model of the object sizes, not measured)", count, strings.size(),
+				newBytes / 1024.0, oldBytes / 1024.0);
+	}
+
+	private int code(String s) {
+		Integer code = codes.get(s);
+		if (code == null) {
+			code = strings.size();
+			strings.add(s);
+			codes.put(s, code);
+		}
+		return code;
+	}
+
+	private void grow(int capacity) {
+		roadIds = Arrays.copyOf(roadIds, capacity);
+		nameCodes = Arrays.copyOf(nameCodes, capacity);
+		cityCodes = Arrays.copyOf(cityCodes, capacity);
+		types = Arrays.copyOf(types, capacity);
+		speeds = Arrays.copyOf(speeds, capacity);
+		roadClasses = Arrays.copyOf(roadClasses, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+	}
+
+	private static long stringSize(String s) {
+		// the String object and its byte array.
+		return align(24) + arraySize(s.length());
+	}
+
+	private static long arraySize(long bytes) {
+		return align(16 + bytes);
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) / 8 * 8;
+	}
+
+	/**
+	 * Prints the memory estimate for the roads of a map, which only needs
+	 * its roads file. Usage: java RoadAttributes directory
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("usage: java RoadAttributes <map directory>");
+			return;
+		}
+		Graph graph = new Graph();
+		ParallelParser.parseRoads(new File(args[0], "roadID-roadInfo.tab"), graph);
+		graph.roadAttributes.trim();
+		System.out.println(graph.roadAttributes.describeMemory());
+	}
+}
@@ -0,0 +1,253 @@
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the roads by name and city. A road with one name in one city
+ * is usually split into many Road records in the data, so they are gathered
+ * into a Group, which has everything needed to show the road worked out up
+ * front: its total length, its bounding box, and its segments merged into as
+ * few polylines as possible, packed into a single path.
+ *
+ * Names and cities are normalised (trimmed, lower case, single spaces)
+ * before they are compared, so finding the groups with a name is one hash
+ * lookup, and highlighting a group is one draw call, with no walking over its
+ * roads and segments each frame. Roads we don't have a name for ("-") aren't
+ * indexed, as in the Trie.
+ */
+public class RoadIndex {
+
+	/**
+	 * All the roads with one name in one city.
+	 */
+	public static class Group {
+		// as written in the data (for the first of the roads), for display.
+		public final String name, city;
+		// the total length of the group's segments, in km.
+		public final double length;
+		public final double minX, minY, maxX, maxY;
+		private final GraphCore core;
+		// road indices.
+		private final int[] roads;
+		// the merged polylines, in map coordinates.
+		private final Path2D.Float path;
+
+		/**
+		 * Makes group number id. Every segment of the map is in at most one
+		 * group, so the scratch arrays are shared by all the groups: the
+		 * group of each segment, whether each segment has been drawn into a
+		 * path yet, and how many of the group's segments are at each node
+		 * (left at zero afterwards).
+		 */
+		private Group(GraphCore core, String name, String city, int[] roads,
+				int id, int[] edgeGroup, boolean[] used, int[] degree) {
+			this.core = core;
+			this.name = name;
+			this.city = city;
+			this.roads = roads;
+
+			double total = 0;
+			int edgeCount = 0;
+			for (int r : roads) {
+				for (int i = core.roadOffset[r]; i < core.roadOffset[r + 1]; i++) {
+					int e = core.roadEdges[i];
+					total += core.edgeLength[e];
+					degree[core.edgeFrom[e]]++;
+					degree[core.edgeTo[e]]++;
+					edgeCount++;
+				}
+			}
+			length = total;
+
+			// chain the segments into polylines, starting from the loose ends
+			// (nodes with an odd number of segments) so that a road without
+			// branches comes out as one line, then picking up any loops.
+			path = new Path2D.Float(Path2D.WIND_NON_ZERO, edgeCount * 4);
+			double[] bounds = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+			for (int pass = 0; pass < 2; pass++) {
+				for (int r : roads) {
+					for (int i = core.roadOffset[r]; i < core.roadOffset[r + 1]; i++) {
+						int e = core.roadEdges[i];
+						for (int node = core.edgeFrom[e], end = 0; end < 2; end++, node = core.edgeTo[e])
+							if (pass == 1 || degree[node] % 2 == 1)
+								chain(node, id, edgeGroup, used, bounds);
+					}
+				}
+			}
+			for (int r : roads) {
+				for (int i = core.roadOffset[r]; i < core.roadOffset[r + 1]; i++) {
+					int e = core.roadEdges[i];
+					degree[core.edgeFrom[e]] = degree[core.edgeTo[e]] = 0;
+				}
+			}
+			minX = bounds[0];
+			minY = bounds[1];
+			maxX = bounds[2];
+			maxY = bounds[3];
+		}
+
+		/**
+		 * Adds a polyline to the path, following unused segments of the group
+		 * from the node for as long as there are any, and grows the bounds to
+		 * fit it.
+		 */
+		private void chain(int node, int id, int[] edgeGroup, boolean[] used,
+				double[] bounds) {
+			boolean first = true;
+			while (true) {
+				int next = -1;
+				for (int i = core.adjOffset[node]; i < core.adjOffset[node + 1]; i++) {
+					int e = core.adjEdge[i];
+					if (edgeGroup[e] == id && !used[e]) {
+						next = e;
+						break;
+					}
+				}
+				if (next < 0)
+					return;
+				used[next] = true;
+				// the points run from the segment's start to its end.
+				Location[] points = core.segments[next].points;
+				boolean forward = core.edgeFrom[next] == node;
+				for (int i = 0; i < points.length; i++) {
+					Location p = points[forward ? i : points.length - 1 - i];
+					if (first)
+						path.moveTo(p.x, p.y);
+					else if (i > 0)
+						// the first point is where the last segment ended.
+						path.lineTo(p.x, p.y);
+					first = false;
+					bounds[0] = Math.min(bounds[0], p.x);
+					bounds[1] = Math.min(bounds[1], p.y);
+					bounds[2] = Math.max(bounds[2], p.x);
+					bounds[3] = Math.max(bounds[3], p.y);
+				}
+				node = core.opposite(next, node);
+			}
+		}
+
+		public List<Road> getRoads() {
+			List<Road> result = new ArrayList<>(roads.length);
+			for (int r : roads)
+				result.add(core.roads[r]);
+			return result;
+		}
+
+		/**
+		 * Returns whether any of the group could be in the given box.
+		 */
+		public boolean intersects(double minX, double minY, double maxX, double maxY) {
+			return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY
+					&& this.maxY >= minY;
+		}
+
+		/**
+		 * Draws the whole group in one go, in the current colour and stroke.
+		 */
+		public void draw(Graphics2D g, Location origin, double scale) {
+			// the same mapping as Location.asPoint.
+			AffineTransform toScreen = new AffineTransform(scale, 0, 0, -scale,
+					-origin.x * scale, origin.y * scale);
+			g.draw(toScreen.createTransformedShape(path));
+		}
+	}
+
+	private final GraphCore core;
+	// the groups by normalised name and city, and by normalised name alone.
+	// they are most of the work of loading a map, and aren't needed until a
+	// road is searched for, so they are only made the first time they are
+	// asked for.
+	private Map<String, Group> groups;
+	private Map<String, List<Group>> byName;
+
+	public RoadIndex(GraphCore core) {
+		this.core = core;
+	}
+
+	private void build() {
+		groups = new HashMap<>();
+		byName = new HashMap<>();
+		Map<String, List<Integer>> members = new HashMap<>();
+		for (int r = 0; r < core.roadCount; r++) {
+			Road road = core.roads[r];
+			if (road.getName().equals("-"))
+				continue;
+			members.computeIfAbsent(key(road.getName(), road.getCity()), k -> new ArrayList<>()).add(r);
+		}
+		int[] edgeGroup = new int[core.edgeCount];
+		boolean[] used = new boolean[core.edgeCount];
+		int[] degree = new int[core.nodeCount];
+		Arrays.fill(edgeGroup, -1);
+		int id = 0;
+		for (Map.Entry<String, List<Integer>> entry : members.entrySet()) {
+			List<Integer> list = entry.getValue();
+			int[] roads = new int[list.size()];
+			for (int i = 0; i < roads.length; i++) {
+				roads[i] = list.get(i);
+				for (int j = core.roadOffset[roads[i]]; j < core.roadOffset[roads[i] + 1]; j++)
+					edgeGroup[core.roadEdges[j]] = id;
+			}
+			Road first = core.roads[roads[0]];
+			Group group = new Group(core, first.getName(), first.getCity(), roads,
+					id++, edgeGroup, used, degree);
+			groups.put(entry.getKey(), group);
+			byName.computeIfAbsent(normalise(group.name), k -> new ArrayList<>()).add(group);
+		}
+	}
+
+	/**
+	 * Returns the group with the given name in the given city, or null.
+	 */
+	public synchronized Group get(String name, String city) {
+		if (groups == null)
+			build();
+		return groups.get(key(name, city));
+	}
+
+	/**
+	 * Returns the groups with the given name, one for each city it's in.
+	 */
+	public synchronized List<Group> get(String name) {
+		if (groups == null)
+			build();
+		List<Group> result = byName.get(normalise(name));
+		return result == null ? Collections.emptyList() : result;
+	}
+
+	public synchronized int size() {
+		if (groups == null)
+			build();
+		return groups.size();
+	}
+
+	/**
+	 * Puts a name or city in the form they're compared in: trimmed, lower
+	 * case, and with single spaces between words.
+	 */
+	public static String normalise(String s) {
+		StringBuilder result = new StringBuilder(s.length());
+		boolean space = false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = result.length() > 0;
+			} else {
+				if (space)
+					result.append(' ');
+				space = false;
+				result.append(Character.toLowerCase(c));
+			}
+		}
+		return result.toString();
+	}
+
+	private static String key(String name, String city) {
+		return normalise(name) + '\0' + normalise(city);
+	}
+}
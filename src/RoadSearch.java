@@ -0,0 +1,166 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs the search box's queries as they are typed, on a background thread, so
+ * typing never waits for a search.
+ *
+ * Each query waits DEBOUNCE_MILLIS before it starts, and is dropped if another
+ * comes in meanwhile, so a burst of typing only searches once. Queries are
+ * numbered as they come in, and a search whose number is no longer the latest
+ * is dropped before it starts and its results are never shown, so a slow
+ * search can't overwrite a newer one. Results are handed over on the Swing
+ * event thread.
+ *
+ * The search keeps the trie cursor of the last query. When the new query just
+ * adds characters to it, as it does while typing, the trie is only walked over
+ * the new characters, and a query that already matched nothing is known to
+ * match nothing straight away.
+ */
+public class RoadSearch {
+
+	// how long to wait for more typing before searching.
+	private static final long DEBOUNCE_MILLIS = 75;
+	// whether a search that no road name starts with looks for names that
+	// are a typo or two away instead, and how long it may take.
+	private static final boolean FUZZY_SEARCH = true;
+	private static final long FUZZY_BUDGET_NANOS = 20000000;
+
+	/**
+	 * What a query found: the road groups to highlight, whether they are an
+	 * exact match for the query, and the text to show.
+	 */
+	public static class Result {
+		public final String query;
+		public final List<RoadIndex.Group> groups;
+		public final boolean exact;
+		public final String text;
+
+		Result(String query, List<RoadIndex.Group> groups, boolean exact, String text) {
+			this.query = query;
+			this.groups = groups;
+			this.exact = exact;
+			this.text = text;
+		}
+	}
+
+	private final Trie trie;
+	private final RoadIndex index;
+	private final Consumer<Result> publish;
+	private final ScheduledExecutorService executor;
+	// the number of the latest query.
+	private final AtomicLong latest = new AtomicLong();
+	// the query waiting out its debounce, guarded by this.
+	private ScheduledFuture<?> pending;
+	// the cursor of the last query searched. only used on the search thread.
+	private Trie.Cursor cursor;
+
+	/**
+	 * Makes a search over the trie, finding the roads with each name in the
+	 * index, that hands each result to publish, on the event thread.
+	 */
+	public RoadSearch(Trie trie, RoadIndex index, Consumer<Result> publish) {
+		this.trie = trie;
+		this.index = index;
+		this.publish = publish;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "road-search");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Searches for the query soon, unless another comes in first. Returns
+	 * straight away.
+	 */
+	public synchronized void submit(String query) {
+		long number = latest.incrementAndGet();
+		if (pending != null)
+			pending.cancel(false);
+		pending = executor.schedule(() -> run(query, number), DEBOUNCE_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the search thread; used when the map is replaced.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void run(String query, long number) {
+		if (number != latest.get())
+			return;
+		Result result = search(query);
+		if (number != latest.get())
+			return;
+		SwingUtilities.invokeLater(() -> {
+			if (number == latest.get())
+				publish.accept(result);
+		});
+	}
+
+	/**
+	 * Runs a query. As per the specification, if a road's name matches the
+	 * query exactly, only the roads with that name are highlighted (in every
+	 * city that has one); otherwise it's the roads with the best few names
+	 * starting with the query, or if there are none, with names a typo or two
+	 * away from it. The exact match ignores case and extra spaces, as
+	 * RoadIndex does, but the trie's prefix and fuzzy matches are case
+	 * sensitive.
+	 */
+	Result search(String query) {
+		List<RoadIndex.Group> exact = index.get(query);
+		if (!exact.isEmpty())
+			return new Result(query, exact, true, describe(exact));
+
+		cursor = trie.find(cursor, query);
+
+		if (trie.count(cursor) == 0) {
+			if (!FUZZY_SEARCH)
+				return new Result(query, new ArrayList<>(), false, "");
+			// one typo allowed in short queries, two in longer ones.
+			List<String> names = trie.fuzzy(query, query.length() <= 4 ? 1 : 2,
+					FUZZY_BUDGET_NANOS);
+			String text = names.isEmpty() ? "" : "Did you mean: " + String.join("; ", names);
+			return new Result(query, groupsNamed(names), false, text);
+		}
+
+		List<String> names = trie.complete(cursor);
+		// note how many names didn't fit.
+		String text = String.join("; ", names);
+		int more = trie.count(cursor) - names.size();
+		if (more > 0)
+			text += " (and " + more + " more)";
+		return new Result(query, groupsNamed(names), false, text);
+	}
+
+	private List<RoadIndex.Group> groupsNamed(List<String> names) {
+		List<RoadIndex.Group> groups = new ArrayList<>();
+		for (String name : names)
+			groups.addAll(index.get(name));
+		return groups;
+	}
+
+	/**
+	 * Lists the cities a name is in, and how long the road is in each.
+	 */
+	private static String describe(List<RoadIndex.Group> groups) {
+		StringBuilder text = new StringBuilder(groups.get(0).name);
+		for (int i = 0; i < groups.size(); i++) {
+			RoadIndex.Group group = groups.get(i);
+			text.append(i == 0 ? ": " : "; ");
+			text.append(String.format("%s (%.2f km)", group.city, group.length));
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,37 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A route found by one of the routing engines: its total cost, the ids of the
+ * segments it uses, in order from the start node to the target node, how
+ * many nodes the search expanded to find it, and whether it took a second
+ * search over the turn restriction states (see Router).
+ */
+public class Route {
+
+	public final double length;
+	public final int[] edges;
+	public final int expanded;
+	public final boolean withTurns;
+
+	public Route(double length, int[] edges, int expanded) {
+		this(length, edges, expanded, false);
+	}
+
+	public Route(double length, int[] edges, int expanded, boolean withTurns) {
+		this.length = length;
+		this.edges = edges;
+		this.expanded = expanded;
+		this.withTurns = withTurns;
+	}
+
+	/**
+	 * Returns the Segments of the route, in order.
+	 */
+	public List<Segment> getSegments(GraphCore core) {
+		List<Segment> segments = new ArrayList<>(edges.length);
+		for (int e : edges)
+			segments.add(core.segments[e]);
+		return segments;
+	}
+}
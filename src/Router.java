@@ -0,0 +1,329 @@
+/**
+ * Point-to-point shortest paths over the directed arcs of a GraphCore, by A*
+ * from one end or from both ends at once. The searches run on an IndexedHeap
+ * with decrease-key and keep their state in reusable SearchContexts, so a
+ * query allocates nothing per node, and paths are read back from the parent
+ * edge of each node in time proportional to their length.
+ *
+ * Routes can be the shortest by distance, or the fastest by travel time at
+ * each road's speed limit. The estimate of the remaining cost comes from the
+ * landmarks if the router was given some (which must have been made with the
+ * same cost), or else the straight-line distance, divided by the map's
+ * stretch (and for travel time by the top speed on the map as well) so it
+ * never overestimates.
+ *
+ * Given the map's Components, the router turns away pairs of nodes that
+ * certainly aren't connected straight away, rather than searching everything
+ * reachable from the start first.
+ *
+ * Closed segments (see Closures) are never used. Closing roads only makes
+ * routes longer, so the components and landmarks worked out for the open map
+ * still give valid answers and estimates.
+ *
+ * If the map has turn restrictions, the router can be given them. Each query
+ * still searches as if there were none first: the cheapest route ignoring
+ * the restrictions is also the cheapest one honouring them, unless it makes a
+ * forbidden turn. Only then is the search run again over the states of
+ * TurnRestrictions (one per node, plus one per way into each restricted
+ * intersection), skipping forbidden turns. That search only goes forwards,
+ * so a bidirectional query falls back to it too, and the Route says when it
+ * was needed. Maps without restrictions are searched exactly as before.
+ *
+ * A router reuses the same contexts for every query, so it must only be used
+ * by one thread at a time.
+ */
+public class Router {
+
+	// what a route costs.
+	public enum Cost {
+		DISTANCE, TIME;
+
+		/**
+		 * Returns the cost of each segment: its length in km, or the hours it
+		 * takes to drive.
+		 */
+		public double[] weights(GraphCore core) {
+			return this == TIME ? core.edgeTime : core.edgeLength;
+		}
+	}
+
+	private final GraphCore core;
+	private final Landmarks landmarks;
+	private final double[] weight;
+	// the straight-line distance divided by this never overestimates the
+	// cost: the map's stretch (see GraphCore.maxStretch), times the top speed
+	// when the cost is time. it is infinite if the map has a segment of
+	// length zero between two places, and the estimates are then all 0.
+	private final double bound;
+	private final SearchContext forward, backward;
+	// null if there are no turn restrictions to honour.
+	private final TurnRestrictions restrictions;
+	// the state each state was reached from, when searching with restrictions.
+	private final int[] parentState;
+	// null if unreachable pairs have to be found by searching.
+	private final Components components;
+	private final Closures closures;
+
+	/**
+	 * Makes a router for shortest routes over the given graph. landmarks may
+	 * be null, to use the straight-line distance.
+	 */
+	public Router(GraphCore core, Landmarks landmarks) {
+		this(core, landmarks, Cost.DISTANCE);
+	}
+
+	/**
+	 * Makes a router over the given graph that minimises the given cost.
+	 * landmarks may be null, to use the straight-line distance.
+	 */
+	public Router(GraphCore core, Landmarks landmarks, Cost cost) {
+		this(core, landmarks, cost, null);
+	}
+
+	/**
+	 * Makes a router over the given graph that minimises the given cost and
+	 * never makes a forbidden turn. landmarks and restrictions may be null.
+	 */
+	public Router(GraphCore core, Landmarks landmarks, Cost cost,
+			TurnRestrictions restrictions) {
+		this(core, landmarks, cost, restrictions, null);
+	}
+
+	/**
+	 * Makes a router over the given graph that minimises the given cost,
+	 * never makes a forbidden turn, and uses the graph's components to reject
+	 * unreachable targets. landmarks, restrictions and components may be null.
+	 */
+	public Router(GraphCore core, Landmarks landmarks, Cost cost,
+			TurnRestrictions restrictions, Components components) {
+		this(core, landmarks, cost, restrictions, components, null);
+	}
+
+	/**
+	 * Makes a router over the given graph that minimises the given cost,
+	 * never makes a forbidden turn, uses the graph's components to reject
+	 * unreachable targets, and keeps off closed segments. landmarks,
+	 * restrictions, components and closures may all be null.
+	 */
+	public Router(GraphCore core, Landmarks landmarks, Cost cost,
+			TurnRestrictions restrictions, Components components, Closures closures) {
+		this.core = core;
+		this.components = components;
+		this.closures = closures != null ? closures : new Closures(core);
+		this.landmarks = landmarks;
+		this.weight = cost.weights(core);
+		double stretch = core.maxStretch();
+		this.bound = Double.isInfinite(stretch) ? stretch
+				: cost == Cost.TIME ? stretch * core.topSpeed : stretch;
+		if (restrictions == null || restrictions.isEmpty()) {
+			this.restrictions = null;
+			this.parentState = null;
+			this.forward = new SearchContext(core.nodeCount);
+		} else {
+			this.restrictions = restrictions;
+			this.parentState = new int[restrictions.stateCount()];
+			this.forward = new SearchContext(restrictions.stateCount());
+		}
+		this.backward = new SearchContext(core.nodeCount);
+	}
+
+	/**
+	 * A* from the start node to the target node, searching again with the
+	 * turn restrictions if the route makes a forbidden turn. Returns null if
+	 * the target can't be reached.
+	 */
+	public Route route(int start, int target) {
+		if (components != null && !components.mayReach(start, target))
+			return null;
+		boolean[] closed = closures.snapshot();
+		SearchContext s = forward;
+		s.reset();
+		s.relax(start, 0, -1, lowerBound(start, target));
+		int expanded = 0;
+		while (!s.heap.isEmpty()) {
+			int node = s.heap.poll();
+			s.settle(node);
+			expanded++;
+			if (node == target)
+				return honourTurns(start, target, closed,
+						new Route(s.g(node), s.path(core, node), expanded));
+
+			double g = s.g(node);
+			for (int i = core.outOffset[node]; i < core.outOffset[node + 1]; i++) {
+				int neigh = core.outTarget[i];
+				int edge = core.outEdge[i];
+				if (s.isSettled(neigh) || closed[edge])
+					continue;
+				double gNeigh = g + weight[edge];
+				if (gNeigh < s.g(neigh))
+					s.relax(neigh, gNeigh, edge, gNeigh + lowerBound(neigh, target));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A* from both ends at once: forwards from the start over the out arcs,
+	 * and backwards from the target over the in arcs, taking turns by
+	 * whichever has the smaller key at the head of its queue. Returns null if
+	 * the target can't be reached.
+	 *
+	 * Both sides use the same average potential p(v) = (h_t(v) - h_s(v)) / 2,
+	 * forwards as +p and backwards as -p, where h_t and h_s are lower bounds on
+	 * the distance to the target and from the start. This is consistent for
+	 * both sides at once, so each is just Dijkstra on reduced lengths, and with
+	 * keys g + p forwards and g - p backwards the search can stop as soon as
+	 * the two queue heads add up to at least the best path found so far.
+	 *
+	 * If the route makes a forbidden turn, the search is run again with the
+	 * turn restrictions, forwards only.
+	 */
+	public Route routeBidirectional(int start, int target) {
+		if (components != null && !components.mayReach(start, target))
+			return null;
+		boolean[] closed = closures.snapshot();
+		forward.reset();
+		backward.reset();
+		forward.relax(start, 0, -1, potential(start, start, target));
+		backward.relax(target, 0, -1, -potential(target, start, target));
+
+		// the shortest path found so far, and the node where its two halves
+		// meet.
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+		int expanded = 0;
+		while (!forward.heap.isEmpty() && !backward.heap.isEmpty()) {
+			double forwardKey = forward.heap.peekKey();
+			double backwardKey = backward.heap.peekKey();
+			if (forwardKey + backwardKey >= best)
+				break;
+
+			boolean isForward = forwardKey <= backwardKey;
+			SearchContext s = isForward ? forward : backward;
+			SearchContext other = isForward ? backward : forward;
+			int[] offset = isForward ? core.outOffset : core.inOffset;
+			int[] targets = isForward ? core.outTarget : core.inTarget;
+			int[] edges = isForward ? core.outEdge : core.inEdge;
+			double sign = isForward ? 1 : -1;
+
+			int node = s.heap.poll();
+			s.settle(node);
+			expanded++;
+			double g = s.g(node);
+			if (g + other.g(node) < best) {
+				best = g + other.g(node);
+				meet = node;
+			}
+			for (int i = offset[node]; i < offset[node + 1]; i++) {
+				int neigh = targets[i];
+				int edge = edges[i];
+				if (closed[edge])
+					continue;
+				double gNeigh = g + weight[edge];
+				if (!s.isSettled(neigh) && gNeigh < s.g(neigh))
+					s.relax(neigh, gNeigh, edge, gNeigh + sign * potential(neigh, start, target));
+				// a path through this arc, joining up with the other search.
+				if (gNeigh + other.g(neigh) < best) {
+					best = gNeigh + other.g(neigh);
+					meet = neigh;
+				}
+			}
+		}
+		if (meet < 0)
+			return null;
+
+		// the forward half from the start to where the searches met, then the
+		// backward half (which the backward context holds from the target end)
+		// the other way round.
+		int[] first = forward.path(core, meet);
+		int[] second = backward.path(core, meet);
+		int[] path = new int[first.length + second.length];
+		System.arraycopy(first, 0, path, 0, first.length);
+		for (int i = 0; i < second.length; i++)
+			path[first.length + i] = second[second.length - 1 - i];
+		return honourTurns(start, target, closed, new Route(best, path, expanded));
+	}
+
+	/**
+	 * Returns the route if there are no turn restrictions or it makes no
+	 * forbidden turn, and otherwise the route found by searching again with
+	 * them, counting the nodes both searches expanded.
+	 */
+	private Route honourTurns(int start, int target, boolean[] closed, Route route) {
+		if (restrictions == null || restrictions.allows(start, route.edges))
+			return route;
+		return routeWithTurns(start, target, closed, route.expanded);
+	}
+
+	/**
+	 * A* over the turn restriction states, from the start node (where any
+	 * turn is allowed, as nothing came before it) until any state at the
+	 * target is settled. A state that arrived along a segment may not leave
+	 * along any segment that turn is forbidden onto. The count of expanded
+	 * nodes starts from the given one, for the search that came first.
+	 */
+	private Route routeWithTurns(int start, int target, boolean[] closed, int expanded) {
+		SearchContext s = forward;
+		s.reset();
+		s.relax(start, 0, -1, lowerBound(start, target));
+		parentState[start] = -1;
+		while (!s.heap.isEmpty()) {
+			int state = s.heap.poll();
+			s.settle(state);
+			expanded++;
+			int node = restrictions.node(state);
+			if (node == target)
+				return new Route(s.g(state), turnPath(state), expanded, true);
+
+			double g = s.g(state);
+			int in = restrictions.inEdge(state);
+			for (int i = core.outOffset[node]; i < core.outOffset[node + 1]; i++) {
+				int edge = core.outEdge[i];
+				if (closed[edge] || in >= 0 && restrictions.isForbidden(in, node, edge))
+					continue;
+				int neigh = core.outTarget[i];
+				int next = restrictions.state(neigh, edge);
+				if (s.isSettled(next))
+					continue;
+				double gNeigh = g + weight[edge];
+				if (s.relax(next, gNeigh, edge, gNeigh + lowerBound(neigh, target)))
+					parentState[next] = state;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the segments on the way to the given state, by following the
+	 * parent states back to the start.
+	 */
+	private int[] turnPath(int state) {
+		int length = 0;
+		for (int v = state; parentState[v] != -1; v = parentState[v])
+			length++;
+		int[] edges = new int[length];
+		for (int v = state; parentState[v] != -1; v = parentState[v])
+			edges[--length] = forward.parentEdge(v);
+		return edges;
+	}
+
+	/**
+	 * An estimate of the cost from a node to the target that is never too
+	 * high: the landmarks, or the straight-line distance scaled down by the
+	 * bound.
+	 */
+	private double lowerBound(int node, int target) {
+		if (landmarks != null)
+			return landmarks.estimate(node, target);
+		return core.distance(node, target) / bound;
+	}
+
+	/**
+	 * The average potential used by the bidirectional search.
+	 */
+	private double potential(int node, int start, int target) {
+		if (landmarks != null)
+			return (landmarks.estimate(node, target) - landmarks.estimate(start, node)) / 2;
+		return (core.distance(node, target) - core.distance(start, node)) / (2 * bound);
+	}
+}
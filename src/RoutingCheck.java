@@ -0,0 +1,382 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+/**
+ * Checks the routers against a plain Dijkstra search over the Node and
+ * Segment objects, the way routes were found before the GraphCore, on random
+ * pairs of nodes. Each route has to be a real path from the start to the
+ * target, going the right way along one-way roads, and cost what it says it
+ * costs and what Dijkstra says the cheapest route costs. It prints how many
+ * routes each router got right, and fails if any were wrong. The map gets an
+ * extra segment of length zero right across it first, so that the
+ * straight-line estimates are checked on a map where they could overestimate.
+ *
+ * The routers are then checked again with turn restrictions, made up at
+ * random intersections and read in through a restrictions.tab file, against a
+ * Dijkstra search whose states are the segments it arrived by, so that no
+ * route may make a forbidden turn.
+ *
+ * A DistanceMatrix over random sources and targets is checked the same way,
+ * entry by entry, with every road open and with some of them closed.
+ */
+public class RoutingCheck {
+
+	// the same pairs every run.
+	private static final long SEED = 261;
+	private static final double EPSILON = 1e-9;
+
+	private final GraphCore core;
+	private final int[] starts, targets;
+	// the restrictions the routes have to honour, or null.
+	private TurnRestrictions turns;
+	private int failures;
+
+	private RoutingCheck(Graph graph, int pairs) {
+		this.core = graph.core;
+		Random random = new Random(SEED);
+		starts = new int[pairs];
+		targets = new int[pairs];
+		for (int i = 0; i < pairs; i++) {
+			starts[i] = random.nextInt(core.nodeCount);
+			targets[i] = random.nextInt(core.nodeCount);
+		}
+	}
+
+	/**
+	 * Works out the cheapest costs with Dijkstra, then checks the routes one
+	 * router finds for every pair. With turn restrictions, it also says how
+	 * many routes were found by a second search that honours them.
+	 */
+	private void check(String name, double[] weight,
+			BiFunction<Integer, Integer, Route> router) {
+		int wrong = 0, withTurns = 0;
+		for (int i = 0; i < starts.length; i++) {
+			double expected = turns == null ? dijkstra(weight, starts[i], targets[i])
+					: dijkstraWithTurns(weight, starts[i], targets[i]);
+			Route route = router.apply(starts[i], targets[i]);
+			double cost = route == null ? Double.POSITIVE_INFINITY : route.length;
+			if (route != null && route.withTurns)
+				withTurns++;
+			if (route != null && !isPath(route, weight, starts[i], targets[i])) {
+				wrong++;
+			} else if (Math.abs(cost - expected) > EPSILON
+					|| Double.isInfinite(cost) != Double.isInfinite(expected)) {
+				wrong++;
+			}
+		}
+		System.out.printf("%s: %d of %d routes right", name, starts.length - wrong,
+				starts.length);
+		System.out.println(turns == null ? ""
+				: " (" + withTurns + " found by searching again with the turns)");
+		failures += wrong;
+	}
+
+	/**
+	 * Works out a DistanceMatrix between random sources and targets, and
+	 * checks every entry against Dijkstra, with the segments closed in the
+	 * graph costing infinity.
+	 */
+	private void checkMatrix(String name, Graph graph, int sources, int targets) {
+		Random random = new Random(SEED);
+		int[] from = new int[sources], to = new int[targets];
+		for (int i = 0; i < sources; i++)
+			from[i] = random.nextInt(core.nodeCount);
+		for (int j = 0; j < targets; j++)
+			to[j] = random.nextInt(core.nodeCount);
+		double[][] matrix = DistanceMatrix.compute(graph, nodeIds(from), nodeIds(to));
+
+		double[] weight = core.edgeLength.clone();
+		for (int e = 0; e < core.edgeCount; e++)
+			if (graph.closures.isClosed(e))
+				weight[e] = Double.POSITIVE_INFINITY;
+		int wrong = 0;
+		for (int i = 0; i < sources; i++) {
+			for (int j = 0; j < targets; j++) {
+				double expected = dijkstra(weight, from[i], to[j]);
+				if (Double.isInfinite(matrix[i][j]) != Double.isInfinite(expected)
+						|| Math.abs(matrix[i][j] - expected) > EPSILON)
+					wrong++;
+			}
+		}
+		System.out.printf("%s: %d of %d entries right%n", name, sources * targets - wrong,
+				sources * targets);
+		failures += wrong;
+	}
+
+	private int[] nodeIds(int[] nodes) {
+		int[] ids = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+			ids[i] = core.nodeIds[nodes[i]];
+		return ids;
+	}
+
+	/**
+	 * Returns whether the route's segments lead from the start to the target,
+	 * with no forbidden turns, and add up to its cost.
+	 */
+	private boolean isPath(Route route, double[] weight, int start, int target) {
+		Node at = core.nodes[start];
+		double cost = 0;
+		int previous = -1;
+		for (int e : route.edges) {
+			Segment segment = core.segments[e];
+			if (turns != null && previous >= 0 && turns.isForbidden(previous, at.index, e))
+				return false;
+			previous = e;
+			if (segment.start == at)
+				at = segment.end;
+			else if (segment.end == at && !segment.road.isOneway())
+				at = segment.start;
+			else
+				return false;
+			cost += weight[e];
+		}
+		return at == core.nodes[target] && Math.abs(cost - route.length) < EPSILON;
+	}
+
+	/**
+	 * The cost of the cheapest route from start to target, by a Dijkstra
+	 * search over the Node and Segment objects, or infinity if there isn't
+	 * one.
+	 */
+	private double dijkstra(double[] weight, int start, int target) {
+		double[] dist = new double[core.nodeCount];
+		boolean[] visited = new boolean[core.nodeCount];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		PriorityQueue<double[]> fringe = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+		dist[start] = 0;
+		fringe.add(new double[] { 0, start });
+		while (!fringe.isEmpty()) {
+			Node node = core.nodes[(int) fringe.poll()[1]];
+			if (visited[node.index])
+				continue;
+			visited[node.index] = true;
+			if (node.index == target)
+				break;
+			for (Segment segment : node.getSegments()) {
+				Node neighbour;
+				if (segment.start == node)
+					neighbour = segment.end;
+				else if (!segment.road.isOneway())
+					neighbour = segment.start;
+				else
+					continue;
+				double d = dist[node.index] + weight[segment.id];
+				if (d < dist[neighbour.index]) {
+					dist[neighbour.index] = d;
+					fringe.add(new double[] { d, neighbour.index });
+				}
+			}
+		}
+		return dist[target];
+	}
+
+	/**
+	 * The cost of the cheapest route from start to target that makes no
+	 * forbidden turn, or infinity if there isn't one. The states of the search
+	 * are the ends of the segments, 2 * id for arriving at a segment's start
+	 * and 2 * id + 1 for its end, so each knows the segment it came along.
+	 */
+	private double dijkstraWithTurns(double[] weight, int start, int target) {
+		if (start == target)
+			return 0;
+		double[] dist = new double[2 * core.edgeCount];
+		boolean[] visited = new boolean[2 * core.edgeCount];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		PriorityQueue<double[]> fringe = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+		// the start, which nothing came before.
+		fringe.add(new double[] { 0, -1 });
+		while (!fringe.isEmpty()) {
+			double[] head = fringe.poll();
+			int state = (int) head[1];
+			Node node = core.nodes[start];
+			Segment in = null;
+			if (state >= 0) {
+				if (visited[state])
+					continue;
+				visited[state] = true;
+				in = core.segments[state / 2];
+				node = state % 2 == 1 ? in.end : in.start;
+				if (node.index == target)
+					return head[0];
+			}
+			for (Segment segment : node.getSegments()) {
+				int next;
+				if (segment.start == node)
+					next = 2 * segment.id + 1;
+				else if (!segment.road.isOneway())
+					next = 2 * segment.id;
+				else
+					continue;
+				if (in != null && turns.isForbidden(in.id, node.index, segment.id))
+					continue;
+				double d = head[0] + weight[segment.id];
+				if (d < dist[next]) {
+					dist[next] = d;
+					fringe.add(new double[] { d, next });
+				}
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Adds a segment of length zero along a two-way road between the nodes
+	 * furthest west and furthest east, and indexes the graph again. Routes
+	 * across the map can then cost far less than the straight line suggests,
+	 * which a straight-line estimate must not overestimate.
+	 */
+	private static void addZeroLengthSegment(Graph graph) {
+		GraphCore core = graph.core;
+		int west = 0, east = 0;
+		for (int i = 0; i < core.nodeCount; i++) {
+			if (core.nodeX[i] < core.nodeX[west])
+				west = i;
+			if (core.nodeX[i] > core.nodeX[east])
+				east = i;
+		}
+		Road road = null;
+		for (Road r : core.roads)
+			if (!r.isOneway() && r.getSpeedLimit() > 0) {
+				road = r;
+				break;
+			}
+		Node start = core.nodes[west], end = core.nodes[east];
+		graph.segments.add(new Segment(core.edgeCount, road, start, end, 0,
+				new Location[] { start.location, end.location }));
+		graph.nodeIndex = null;
+		graph.segmentIndex = null;
+		graph.levelOfDetail = null;
+		graph.components = null;
+		graph.index();
+	}
+
+	/**
+	 * Makes up turn restrictions at random intersections, from one of the
+	 * segments there onto another (or back the same way), writes them to a
+	 * restrictions.tab file in a temporary directory, and reads them back.
+	 */
+	private static TurnRestrictions makeRestrictions(Graph graph, int count)
+			throws IOException {
+		GraphCore core = graph.core;
+		Random random = new Random(SEED);
+		File dir = File.createTempFile("restrictions", "");
+		dir.delete();
+		dir.mkdir();
+		File file = new File(dir, TurnRestrictions.FILENAME);
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(file));
+			out.println("NodeID\tRoadID\tNodeID\tRoadID\tNodeID");
+			for (int made = 0; made < count;) {
+				int v = random.nextInt(core.nodeCount);
+				int degree = core.adjOffset[v + 1] - core.adjOffset[v];
+				if (degree < 3)
+					continue;
+				int i = core.adjOffset[v] + random.nextInt(degree);
+				int j = core.adjOffset[v] + random.nextInt(degree);
+				out.println(core.nodeIds[core.adjTarget[i]] + "\t"
+						+ core.roadIds[core.edgeRoad[core.adjEdge[i]]] + "\t"
+						+ core.nodeIds[v] + "\t"
+						+ core.roadIds[core.edgeRoad[core.adjEdge[j]]] + "\t"
+						+ core.nodeIds[core.adjTarget[j]]);
+				made++;
+			}
+			out.close();
+			List<int[]> rows = Parser.parseRestrictions(file);
+			return new TurnRestrictions(graph, rows);
+		} finally {
+			file.delete();
+			dir.delete();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("usage: java RoutingCheck <map directory> [pairs]");
+			return;
+		}
+		File dir = new File(args[0]);
+		int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		Graph graph = MapSnapshot.open(new File(dir, "nodeID-lat-lon.tab"), new File(
+				dir, "roadID-roadInfo.tab"), new File(dir,
+				"roadSeg-roadID-length-nodeID-nodeID-coords.tab"), null);
+		addZeroLengthSegment(graph);
+		RoutingCheck check = new RoutingCheck(graph, pairs);
+		GraphCore core = graph.core;
+
+		Router astar = new Router(core, null);
+		check.check("A*", core.edgeLength, astar::route);
+
+		Landmarks landmarks = new Landmarks(core, core.edgeLength, Landmarks.DEFAULT_COUNT);
+		Router alt = new Router(core, landmarks);
+		check.check("ALT", core.edgeLength, alt::route);
+
+		check.check("bidirectional A*", core.edgeLength, astar::routeBidirectional);
+		check.check("bidirectional ALT", core.edgeLength, alt::routeBidirectional);
+
+		// the fastest routes, whose straight-line estimate is also divided by
+		// the top speed, and whose landmarks are made from the travel times.
+		Router fastest = new Router(core, null, Router.Cost.TIME);
+		check.check("A* for time", core.edgeTime, fastest::route);
+		check.check("bidirectional A* for time", core.edgeTime,
+				fastest::routeBidirectional);
+		Router fastestAlt = new Router(core, new Landmarks(core, core.edgeTime,
+				Landmarks.DEFAULT_COUNT), Router.Cost.TIME);
+		check.check("ALT for time", core.edgeTime, fastestAlt::route);
+
+		ContractionHierarchy hierarchy = new ContractionHierarchy(core, core.edgeLength);
+		check.check("contraction hierarchy", core.edgeLength, hierarchy::route);
+
+		// the customisable one, customised again for travel time, and then
+		// with some segments closed (costing infinity).
+		CustomizableHierarchy customizable = new CustomizableHierarchy(core, core.edgeLength);
+		check.check("customizable hierarchy", core.edgeLength, customizable::route);
+		customizable.customise(core.edgeTime);
+		check.check("customised for time", core.edgeTime, customizable::route);
+		double[] closed = core.edgeLength.clone();
+		Random random = new Random(SEED);
+		for (int i = 0; i < core.edgeCount / 20; i++)
+			closed[random.nextInt(core.edgeCount)] = Double.POSITIVE_INFINITY;
+		customizable.customise(closed);
+		check.check("customised with closures", closed, customizable::route);
+
+		// the distance matrix, with every road open and then with the same
+		// segments closed, which are opened again afterwards.
+		check.checkMatrix("distance matrix", graph, 20, 40);
+		for (int e = 0; e < core.edgeCount; e++)
+			if (Double.isInfinite(closed[e]))
+				graph.closures.close(core.segments[e]);
+		check.checkMatrix("distance matrix with closures", graph, 20, 40);
+		for (int e = 0; e < core.edgeCount; e++)
+			if (Double.isInfinite(closed[e]))
+				graph.closures.reopen(core.segments[e]);
+
+		// the same again with turn restrictions. the routers search again over
+		// the restriction states whenever the route they find first makes a
+		// forbidden turn, and have to find the cheapest route either way.
+		TurnRestrictions turns = makeRestrictions(graph, 3000);
+		System.out.printf("Made %d forbidden turns%n", turns.size());
+		check.turns = turns;
+		Router turnRouter = new Router(core, null, Router.Cost.DISTANCE, turns);
+		check.check("A* with turns", core.edgeLength, turnRouter::route);
+		check.check("bidirectional with turns", core.edgeLength,
+				turnRouter::routeBidirectional);
+		Router turnAlt = new Router(core, landmarks, Router.Cost.DISTANCE, turns);
+		check.check("ALT with turns", core.edgeLength, turnAlt::route);
+		graph.restrictions = turns;
+		RoutingService service = new RoutingService(graph);
+		check.check("routing service with turns", core.edgeLength,
+				(s, t) -> service.route(core.nodeIds[s], core.nodeIds[t]));
+
+		if (check.failures > 0)
+			throw new RuntimeException("routing check failed.");
+		System.out.println("All routes checked");
+	}
+}
@@ -0,0 +1,145 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A thread-safe front end to the Router, for answering many route queries at
+ * once, such as from offline jobs. The loaded Graph is only ever read, and all
+ * the state of a search lives in a Router (and its SearchContexts) that one
+ * query has to itself, so any number of queries can run in parallel.
+ *
+ * Routers are pooled rather than kept per thread, since each one holds arrays
+ * the size of the map, and an executor may start a new thread (or virtual
+ * thread) for every task. The pool only ever grows to as many routers as
+ * there have been queries running at the same time.
+ *
+ * Queries are given by node ID, as in the tab files, not by node index. Routes
+ * honour the graph's turn restrictions and keep off closed roads, and pairs in
+ * different components are answered without a search.
+ */
+public class RoutingService {
+
+	// how many queries of a batch go into one task.
+	private static final int BATCH_CHUNK = 64;
+
+	private final Graph graph;
+	private final Landmarks landmarks;
+	private final Router.Cost cost;
+	private final ExecutorService executor;
+	private final ConcurrentLinkedQueue<Router> routers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Makes a service that runs batches on the common fork-join pool, and
+	 * uses the straight-line distance estimate.
+	 */
+	public RoutingService(Graph graph) {
+		this(graph, Router.Cost.DISTANCE, null, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Makes a service that finds routes of the least given cost, and runs
+	 * batches on the given executor, which could be a ForkJoinPool or one that
+	 * starts a virtual thread per task. landmarks may be null, to use the
+	 * straight-line distance estimate; otherwise they must have been made with
+	 * the same cost.
+	 */
+	public RoutingService(Graph graph, Router.Cost cost, Landmarks landmarks,
+			ExecutorService executor) {
+		this.graph = graph;
+		this.cost = cost;
+		this.landmarks = landmarks;
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns the best route between two nodes (by the service's cost), or
+	 * null if there isn't one. Runs on the calling thread.
+	 */
+	public Route route(int fromNodeID, int toNodeID) {
+		int from = index(fromNodeID), to = index(toNodeID);
+		Router router = routers.poll();
+		if (router == null)
+			router = new Router(graph.core, landmarks, cost, graph.restrictions,
+					graph.components, graph.closures);
+		try {
+			return router.routeBidirectional(from, to);
+		} finally {
+			routers.offer(router);
+		}
+	}
+
+	/**
+	 * Routes every pair (from[i], to[i]) on the executor, and returns the
+	 * routes in the same order, with null for pairs that aren't connected.
+	 * Blocks until they are all done.
+	 */
+	public Route[] routeAll(int[] fromNodeIDs, int[] toNodeIDs) {
+		if (fromNodeIDs.length != toNodeIDs.length)
+			throw new IllegalArgumentException("from and to must be the same length.");
+		Route[] routes = new Route[fromNodeIDs.length];
+
+		List<Future<?>> tasks = new ArrayList<>();
+		for (int start = 0; start < routes.length; start += BATCH_CHUNK) {
+			int first = start, last = Math.min(start + BATCH_CHUNK, routes.length);
+			tasks.add(executor.submit(() -> {
+				for (int i = first; i < last; i++)
+					routes[i] = route(fromNodeIDs[i], toNodeIDs[i]);
+			}));
+		}
+		try {
+			for (Future<?> task : tasks)
+				task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("routing interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("routing failed.", e.getCause());
+		}
+		return routes;
+	}
+
+	private int index(int nodeID) {
+		Node node = graph.nodes.get(nodeID);
+		if (node == null)
+			throw new IllegalArgumentException("no node with ID " + nodeID);
+		return node.index;
+	}
+
+	/**
+	 * Times a batch of random queries over the map in the given directory.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("usage: java RoutingService <map directory> [queries]");
+			return;
+		}
+		File dir = new File(args[0]);
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		Graph graph = MapSnapshot.open(new File(dir, "nodeID-lat-lon.tab"),
+				new File(dir, "roadID-roadInfo.tab"), new File(dir,
+						"roadSeg-roadID-length-nodeID-nodeID-coords.tab"), null);
+		RoutingService service = new RoutingService(graph);
+
+		int[] from = new int[count], to = new int[count];
+		Random random = new Random(0);
+		for (int i = 0; i < count; i++) {
+			from[i] = graph.core.nodeIds[random.nextInt(graph.core.nodeCount)];
+			to[i] = graph.core.nodeIds[random.nextInt(graph.core.nodeCount)];
+		}
+		long start = System.nanoTime();
+		Route[] routes = service.routeAll(from, to);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int found = 0;
+		for (Route route : routes)
+			if (route != null)
+				found++;
+		System.out.printf("%d queries (%d connected) in %.2f s: %.0f queries/s on %d threads%n",
+				count, found, seconds, count / seconds, ForkJoinPool.commonPool().getParallelism());
+	}
+}
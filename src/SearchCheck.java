@@ -0,0 +1,195 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Checks the trie's fuzzy search against working out the edit distance from
+ * the query to every road name. The queries are the start of random road
+ * names with a typo or two put in. For each, every name the trie finds has to
+ * start within the allowed distance of the query, closer names have to come
+ * first, and no name that was left out may be closer than one that was found;
+ * if fewer than Trie.TOP_K names are close enough, it has to find all of them.
+ *
+ * The prefix search is checked the same way, against ranking every name that
+ * starts with the prefix: it has to return exactly the best Trie.TOP_K of
+ * them, in order. It prints how many queries of each kind were right, and
+ * fails if any weren't.
+ */
+public class SearchCheck {
+
+	// the same queries every run.
+	private static final long SEED = 21;
+	// long enough that no search runs out of time, so every search is
+	// complete.
+	private static final long BUDGET_NANOS = 60000000000L;
+
+	/**
+	 * Returns the smallest edit distance from the query to any prefix of the
+	 * name.
+	 */
+	private static int prefixDistance(String query, String name) {
+		// row[j] is the distance from the first i characters of the name to
+		// the first j of the query.
+		int[] row = new int[query.length() + 1], next = new int[query.length() + 1];
+		for (int j = 0; j <= query.length(); j++)
+			row[j] = j;
+		int best = row[query.length()];
+		for (int i = 1; i <= name.length(); i++) {
+			next[0] = i;
+			for (int j = 1; j <= query.length(); j++) {
+				int change = row[j - 1] + (name.charAt(i - 1) == query.charAt(j - 1) ? 0 : 1);
+				next[j] = Math.min(change, Math.min(row[j], next[j - 1]) + 1);
+			}
+			int[] swap = row;
+			row = next;
+			next = swap;
+			best = Math.min(best, row[query.length()]);
+		}
+		return best;
+	}
+
+	/**
+	 * Returns whether the names the trie found are the right ones for the
+	 * query.
+	 */
+	private static boolean check(String query, int maxDistance, List<String> found,
+			List<String> names) {
+		Map<String, Integer> close = new HashMap<>();
+		for (String name : names) {
+			int d = prefixDistance(query, name);
+			if (d <= maxDistance)
+				close.put(name, d);
+		}
+		if (found.size() != Math.min(Trie.TOP_K, close.size()))
+			return false;
+		int last = 0;
+		for (String name : found) {
+			Integer d = close.get(name);
+			if (d == null || d < last)
+				return false;
+			last = d;
+		}
+		Set<String> kept = new HashSet<>(found);
+		for (Map.Entry<String, Integer> entry : close.entrySet())
+			if (!kept.contains(entry.getKey()) && entry.getValue() < last)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the names in order of importance, worked out from the Road and
+	 * Segment objects: the highest class of road with the name first, then the
+	 * longest total length of road with it, then alphabetical. The lengths are
+	 * added up road by road, in the same order the trie adds them, so equal
+	 * lengths come out exactly equal.
+	 */
+	private static List<String> rank(Graph graph, List<String> names) {
+		Map<Road, List<Segment>> segments = new HashMap<>();
+		for (Segment segment : graph.segments)
+			segments.computeIfAbsent(segment.road, k -> new ArrayList<>()).add(segment);
+		Map<String, Integer> roadClass = new HashMap<>();
+		Map<String, Double> length = new HashMap<>();
+		for (Road road : graph.core.roads) {
+			roadClass.merge(road.getName(), road.getRoadClass(), Math::max);
+			double total = length.getOrDefault(road.getName(), 0.0);
+			for (Segment segment : segments.getOrDefault(road, new ArrayList<>()))
+				total += segment.length;
+			length.put(road.getName(), total);
+		}
+		List<String> ranked = new ArrayList<>(names);
+		ranked.sort(Comparator.comparing((String name) -> -roadClass.get(name))
+				.thenComparing(name -> -length.get(name))
+				.thenComparing(Comparator.naturalOrder()));
+		return ranked;
+	}
+
+	/**
+	 * Returns whether the trie's completions of a prefix are the best
+	 * Trie.TOP_K names starting with it, in order, and whether it counts them
+	 * all, both from the root and from the cursor of a shorter prefix.
+	 */
+	private static boolean checkPrefix(Trie trie, String prefix, List<String> ranked) {
+		List<String> expected = new ArrayList<>();
+		int count = 0;
+		for (String name : ranked) {
+			if (!name.startsWith(prefix))
+				continue;
+			if (count++ < Trie.TOP_K)
+				expected.add(name);
+		}
+		Trie.Cursor shorter = trie.find(prefix.substring(0, prefix.length() / 2));
+		return trie.complete(prefix).equals(expected)
+				&& trie.complete(trie.find(shorter, prefix)).equals(expected)
+				&& trie.count(prefix) == count;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("usage: java SearchCheck <map directory> [queries]");
+			return;
+		}
+		File dir = new File(args[0]);
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		Graph graph = MapSnapshot.open(new File(dir, "nodeID-lat-lon.tab"), new File(
+				dir, "roadID-roadInfo.tab"), new File(dir,
+				"roadSeg-roadID-length-nodeID-nodeID-coords.tab"), null);
+		Trie trie = new Trie(graph.core);
+		Set<String> distinct = new TreeSet<>();
+		for (Road road : graph.roads.values())
+			if (!road.getName().equals("-"))
+				distinct.add(road.getName());
+		List<String> names = new ArrayList<>(distinct);
+
+		Random random = new Random(SEED);
+		int wrong = 0;
+		for (int i = 0; i < queries; i++) {
+			String name = names.get(random.nextInt(names.size()));
+			StringBuilder query = new StringBuilder(name.substring(0,
+					1 + random.nextInt(name.length())));
+			// put in a typo or two: an extra character, a missing one, or a
+			// wrong one.
+			for (int typos = 1 + random.nextInt(2); typos > 0; typos--) {
+				int at = random.nextInt(query.length() + 1);
+				char c = (char) ('a' + random.nextInt(26));
+				int kind = random.nextInt(3);
+				if (kind == 0)
+					query.insert(at, c);
+				else if (at < query.length() && kind == 1)
+					query.deleteCharAt(at);
+				else if (at < query.length())
+					query.setCharAt(at, c);
+			}
+			// as many typos as RoadSearch allows.
+			int maxDistance = query.length() <= 4 ? 1 : 2;
+			List<String> found = trie.fuzzy(query.toString(), maxDistance, BUDGET_NANOS);
+			if (!check(query.toString(), maxDistance, found, names)) {
+				wrong++;
+				System.out.println("  wrong names for \"" + query + "\": " + found);
+			}
+		}
+		System.out.printf("%d of %d fuzzy searches right%n", queries - wrong, queries);
+
+		// prefixes of random names, from empty up to the whole name.
+		List<String> ranked = rank(graph, names);
+		int prefixWrong = 0;
+		for (int i = 0; i < queries; i++) {
+			String name = names.get(random.nextInt(names.size()));
+			String prefix = name.substring(0, random.nextInt(name.length() + 1));
+			if (!checkPrefix(trie, prefix, ranked)) {
+				prefixWrong++;
+				System.out.println("  wrong names for \"" + prefix + "\": " + trie.complete(prefix));
+			}
+		}
+		System.out.printf("%d of %d prefix searches right%n", queries - prefixWrong, queries);
+		wrong += prefixWrong;
+		if (wrong > 0)
+			throw new RuntimeException("search check failed.");
+	}
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * The state of one shortest path search (distances, the segment each node was
+ * reached by, which nodes are settled, and the queue), kept in flat arrays
+ * indexed by node so it can be reused from one query to the next.
+ *
+ * Rather than clearing the arrays for every query, each query gets a new
+ * version number, and a node's entries only count if they were written in the
+ * current version. A query therefore costs time in the nodes it touches, not
+ * in the size of the map, and allocates nothing per node.
+ *
+ * A context belongs to one search at a time; it is not thread-safe.
+ */
+public class SearchContext {
+
+	public final IndexedHeap heap;
+
+	private final double[] g;
+	private final int[] parentEdge;
+	// the version in which each node was last reached, and settled.
+	private final int[] reached, settled;
+	private int version;
+
+	public SearchContext(int nodeCount) {
+		heap = new IndexedHeap(nodeCount);
+		g = new double[nodeCount];
+		parentEdge = new int[nodeCount];
+		reached = new int[nodeCount];
+		settled = new int[nodeCount];
+	}
+
+	/**
+	 * Starts a new search, forgetting everything from the last one.
+	 */
+	public void reset() {
+		heap.clear();
+		if (++version == Integer.MAX_VALUE) {
+			// only after two billion searches, but then the old stamps would
+			// start to look current again.
+			Arrays.fill(reached, 0);
+			Arrays.fill(settled, 0);
+			version = 1;
+		}
+	}
+
+	public boolean isReached(int node) {
+		return reached[node] == version;
+	}
+
+	/**
+	 * Returns the best distance to the node found so far in this search, or
+	 * infinity if it hasn't been reached.
+	 */
+	public double g(int node) {
+		return reached[node] == version ? g[node] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the segment the node was reached by (or the arc, for searches
+	 * over some other graph), or -1 for the node the search started from.
+	 */
+	public int parentEdge(int node) {
+		return parentEdge[node];
+	}
+
+	public boolean isSettled(int node) {
+		return settled[node] == version;
+	}
+
+	public void settle(int node) {
+		settled[node] = version;
+	}
+
+	/**
+	 * Records that the node can be reached with distance g through the given
+	 * segment, if that is better than what is known, and queues it with the
+	 * given key. Returns whether it was better.
+	 */
+	public boolean relax(int node, double g, int edge, double key) {
+		if (reached[node] == version && g >= this.g[node])
+			return false;
+		reached[node] = version;
+		this.g[node] = g;
+		parentEdge[node] = edge;
+		heap.update(node, key);
+		return true;
+	}
+
+	/**
+	 * Returns the segments on the way from the node the search started from
+	 * to the given node, in that order, by following the parent edges back.
+	 */
+	public int[] path(GraphCore core, int node) {
+		int length = 0;
+		for (int v = node; parentEdge[v] != -1; v = core.opposite(parentEdge[v], v))
+			length++;
+		int[] edges = new int[length];
+		for (int v = node; parentEdge[v] != -1; v = core.opposite(parentEdge[v], v))
+			edges[--length] = parentEdge[v];
+		return edges;
+	}
+}
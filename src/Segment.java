@@ -11,27 +11,30 @@ import java.awt.Point;
  */
 public class Segment {
 
+	public final int id; // position of this segment in the GraphCore arrays.
 	public final Road road;
 	public final Node start, end;
 	public final double length;
 	public final Location[] points;
 
-	public Segment(Graph graph, int roadID, double length, int node1ID,
-			int node2ID, double[] coords) {
+	public Segment(Graph graph, int id, int roadID, double length,
+			int node1ID, int node2ID, double[] coords) {
+		this(id, graph.roads.get(roadID), graph.nodes.get(node1ID), graph.nodes
+				.get(node2ID), length, new Location[coords.length / 2]);
 
-		this.road = graph.roads.get(roadID);
-		this.start = graph.nodes.get(node1ID);
-		this.end = graph.nodes.get(node2ID);
-		this.length = length;
-
-		points = new Location[coords.length / 2];
 		for (int i = 0; i < points.length; i++) {
 			points[i] = Location.newFromLatLon(coords[2 * i], coords[2 * i + 1]);
 		}
+	}
 
-		this.road.addSegment(this);
-		this.start.addSegment(this);
-		this.end.addSegment(this);
+	public Segment(int id, Road road, Node start, Node end, double length,
+			Location[] points) {
+		this.id = id;
+		this.road = road;
+		this.start = start;
+		this.end = end;
+		this.length = length;
+		this.points = points;
 	}
 
 	public void draw(Graphics g, Location origin, double scale) {
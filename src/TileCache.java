@@ -0,0 +1,158 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The base map (every segment and node, but no highlights) cut into fixed-size
+ * image tiles that are rendered in the background and kept in a bounded LRU
+ * cache, so that panning and redrawing only has to copy images onto the
+ * screen.
+ *
+ * Tiles sit on a grid anchored at the Location origin, one grid per zoom
+ * level, where zoom level z is the scale MIN_ZOOM * ZOOM_FACTOR^z. Drawing a
+ * view copies whichever of its tiles are cached and queues the rest on a
+ * worker pool; when a tile is finished the given callback is run (from the
+ * worker thread), which should ask for a repaint. Queued tiles that have
+ * scrolled out of view by the time a worker gets to them are dropped.
+ */
+public class TileCache {
+
+	public static final int TILE_SIZE = 256;
+	// how much memory the cached tiles may use between them.
+	private static final long MAX_BYTES = 64L << 20;
+	private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+
+	private final Graph graph;
+	private final Runnable onTileReady;
+	private final ExecutorService workers;
+
+	// guarded by this.
+	private final Map<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+			return size() * TILE_BYTES > MAX_BYTES;
+		}
+	};
+	private final Set<Long> pending = new HashSet<>();
+
+	// the tiles of the most recently drawn view.
+	private volatile Set<Long> wanted = Collections.emptySet();
+
+	public TileCache(Graph graph, Runnable onTileReady) {
+		this.graph = graph;
+		this.onTileReady = onTileReady;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		this.workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "tile-renderer");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Draws the part of the base map in view, using the cached tiles and
+	 * queueing any that are missing. Never waits for a tile to render.
+	 */
+	public void draw(Graphics g, Dimension area, Location origin, double scale) {
+		int zoom = zoomLevel(scale);
+		double tileScale = scaleOf(zoom);
+
+		// the pixel position of the view's top-left on this level's grid.
+		double ox = origin.x * tileScale, oy = -origin.y * tileScale;
+		int tx0 = Math.floorDiv((int) Math.floor(ox), TILE_SIZE);
+		int ty0 = Math.floorDiv((int) Math.floor(oy), TILE_SIZE);
+		int tx1 = Math.floorDiv((int) Math.floor(ox + area.width), TILE_SIZE);
+		int ty1 = Math.floorDiv((int) Math.floor(oy + area.height), TILE_SIZE);
+
+		Set<Long> visible = new HashSet<>();
+		for (int ty = ty0; ty <= ty1; ty++)
+			for (int tx = tx0; tx <= tx1; tx++)
+				visible.add(key(zoom, tx, ty));
+		wanted = visible;
+
+		for (int ty = ty0; ty <= ty1; ty++) {
+			for (int tx = tx0; tx <= tx1; tx++) {
+				long key = key(zoom, tx, ty);
+				BufferedImage tile;
+				synchronized (this) {
+					tile = tiles.get(key);
+				}
+				if (tile != null) {
+					int u = (int) Math.round(tx * TILE_SIZE - ox);
+					int v = (int) Math.round(ty * TILE_SIZE - oy);
+					g.drawImage(tile, u, v, null);
+				} else {
+					request(key, zoom, tx, ty);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the workers; used when the map is replaced.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	private synchronized void request(long key, int zoom, int tx, int ty) {
+		if (pending.add(key))
+			workers.execute(() -> render(key, zoom, tx, ty));
+	}
+
+	private void render(long key, int zoom, int tx, int ty) {
+		try {
+			if (!wanted.contains(key))
+				return;
+
+			double scale = scaleOf(zoom);
+			Location tileOrigin = new Location(tx * TILE_SIZE / scale, -ty
+					* TILE_SIZE / scale);
+			BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = tile.createGraphics();
+			graph.drawBase(g, new Dimension(TILE_SIZE, TILE_SIZE), tileOrigin,
+					scale);
+			g.dispose();
+
+			synchronized (this) {
+				tiles.put(key, tile);
+			}
+			onTileReady.run();
+		} finally {
+			synchronized (this) {
+				pending.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the zoom level nearest to the given scale. Zooming only ever
+	 * multiplies or divides the scale by ZOOM_FACTOR, so this is exact up to
+	 * rounding.
+	 */
+	private static int zoomLevel(double scale) {
+		return (int) Math.round(Math.log(scale / Mapper.MIN_ZOOM)
+				/ Math.log(Mapper.ZOOM_FACTOR));
+	}
+
+	private static double scaleOf(int zoom) {
+		return Mapper.MIN_ZOOM * Math.pow(Mapper.ZOOM_FACTOR, zoom);
+	}
+
+	private static long key(int zoom, int tx, int ty) {
+		return ((long) zoom << 48) ^ ((long) (tx & 0xFFFFFF) << 24)
+				^ (ty & 0xFFFFFF);
+	}
+}
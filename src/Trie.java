@@ -1,92 +1,466 @@
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 /**
- * This is an implementation of a trie, used for the search box. We cheat a bit
- * and store references to the actual Road objects in each node, blowing the
- * memory efficiency but making this easy to implement.
- * 
+ * This is an implementation of a trie, used for the search box. It is a
+ * compressed (radix) trie over the distinct road names, stored in flat arrays,
+ * so it takes little memory and answers a prefix query in O(|prefix| + k).
+ *
+ * The names are sorted, so the names under any node of the trie are a
+ * contiguous range of them, and a node only needs that range and how long its
+ * prefix is; its label is the part of its first name between the end of its
+ * parent's prefix and the end of its own. The nodes are numbered breadth
+ * first, so the children of a node have consecutive numbers, in order of their
+ * first character.
+ *
+ * Names are kept and compared exactly as they are in the data, so prefix and
+ * fuzzy queries are case sensitive (the data is all lower case), unlike
+ * RoadIndex, which normalises what it compares.
+ *
+ * Every node also keeps the best few names under it (TOP_K of them, best
+ * first), ranked by the most important class of road with that name, then by
+ * the total length of road with that name, so the big roads come up first.
+ * Roads are referred to by their index in the GraphCore.
+ *
+ * For mistyped queries there is also a fuzzy search, which finds the names
+ * that start with something within an edit distance or two of the query. It
+ * walks the trie with a Levenshtein automaton, kept as one row of edit
+ * distances per character of the prefix (the row says how far the prefix is
+ * from each prefix of the query), so a branch is dropped as soon as nothing
+ * below it could come close enough. When the end of the query is close enough
+ * to a prefix, every name under it matches, and the node's best names stand in
+ * for all of them.
+ *
  * @author tony
  */
 public class Trie {
-	TrieNode root = new TrieNode();
+	// how many names a query returns at most.
+	public static final int TOP_K = 20;
 
-	public Trie(Collection<Road> roads) {
-		for (Road road : roads) {
-			add(road);
+	private final GraphCore core;
+	// the distinct road names, sorted.
+	private final String[] names;
+	// the roads with each name, in CSR form.
+	private final int[] nameRoadOffset, nameRoads;
+
+	// each node: the range of names under it, the length of its prefix, and
+	// the first character of its label (which runs from the end of its
+	// parent's prefix to the end of its own).
+	private int nodeCount;
+	private int[] lo, hi, depth;
+	private char[] firstChar;
+	// the children of node v are the nodes [childOffset[v], childOffset[v+1]).
+	private int[] childOffset;
+	// the best names under node v are topNames[topOffset[v], topOffset[v+1]).
+	private int[] topOffset, topNames;
+	// the position of each name when all are sorted best first.
+	private int[] position;
+	// the length of the longest name.
+	private int maxLength;
+
+	public Trie(GraphCore core) {
+		this.core = core;
+
+		// the distinct names (leaving out roads we don't have a name for),
+		// and the roads with each.
+		Integer[] order = new Integer[core.roadCount];
+		int named = 0;
+		for (int r = 0; r < core.roadCount; r++)
+			if (!core.roads[r].getName().equals("-"))
+				order[named++] = r;
+		Arrays.sort(order, 0, named, (a, b) -> core.roads[a].getName().compareTo(core.roads[b].getName()));
+		List<String> distinct = new ArrayList<>();
+		int[] offsets = new int[named + 1];
+		nameRoads = new int[named];
+		for (int i = 0; i < named; i++) {
+			String name = core.roads[order[i]].getName();
+			if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).equals(name)) {
+				offsets[distinct.size()] = i;
+				distinct.add(name);
+			}
+			nameRoads[i] = order[i];
 		}
+		names = distinct.toArray(new String[0]);
+		for (String name : names)
+			maxLength = Math.max(maxLength, name.length());
+		offsets[names.length] = named;
+		nameRoadOffset = Arrays.copyOf(offsets, names.length + 1);
+
+		build();
+		rank();
 	}
 
 	/**
-	 * Adds a given road to the Trie.
+	 * Where a prefix ends up in the trie. Finding a longer query from the
+	 * cursor of one of its prefixes (as when someone types another character)
+	 * only has to look at the new characters.
 	 */
-	public void add(Road road) {
-		// if we don't have any data on the road, leave it out.
-		if (road.name.equals("-"))
-			return;
+	public static final class Cursor {
+		public final String prefix;
+		// the node whose names are those starting with the prefix, or -1.
+		private final int node;
 
-		// traverse the trie using the name of the road. at each step, either a
-		// node already exists for that letter (if) or we need to make a new one
-		// (else).
-		TrieNode node = this.root;
-		char[] name = road.name.toCharArray();
-		for (int i = 0; i < name.length; i++) {
-			if (node.children.containsKey(name[i])) {
-				node = node.children.get(name[i]);
-			} else {
-				TrieNode next = new TrieNode();
-				node.children.put(name[i], next);
-				node = next;
+		private Cursor(String prefix, int node) {
+			this.prefix = prefix;
+			this.node = node;
+		}
+	}
+
+	/**
+	 * Returns the cursor for a prefix, starting from the root.
+	 */
+	public Cursor find(String prefix) {
+		return new Cursor(prefix, locate(0, 0, prefix));
+	}
+
+	/**
+	 * Returns the cursor for a prefix, carrying on from an earlier cursor if
+	 * its prefix starts the new one. from may be null.
+	 */
+	public Cursor find(Cursor from, String prefix) {
+		if (from == null || !prefix.startsWith(from.prefix))
+			return find(prefix);
+		// nothing starts with a longer prefix either.
+		if (from.node < 0)
+			return new Cursor(prefix, -1);
+		return new Cursor(prefix, locate(from.node, from.prefix.length(), prefix));
+	}
+
+	/**
+	 * Returns the best (up to TOP_K) distinct names that start with the given
+	 * prefix, best first.
+	 */
+	public List<String> complete(String prefix) {
+		return complete(find(prefix));
+	}
+
+	public List<String> complete(Cursor cursor) {
+		int v = cursor.node;
+		if (v < 0)
+			return Collections.emptyList();
+		List<String> result = new ArrayList<>(topOffset[v + 1] - topOffset[v]);
+		for (int i = topOffset[v]; i < topOffset[v + 1]; i++)
+			result.add(names[topNames[i]]);
+		return result;
+	}
+
+	/**
+	 * Returns how many distinct names start with the given prefix.
+	 */
+	public int count(String prefix) {
+		return count(find(prefix));
+	}
+
+	public int count(Cursor cursor) {
+		return cursor.node < 0 ? 0 : hi[cursor.node] - lo[cursor.node];
+	}
+
+	/**
+	 * Returns all the roads with exactly the given name.
+	 */
+	public List<Road> getRoads(String name) {
+		return getRoads(find(name));
+	}
+
+	/**
+	 * Returns all the roads named exactly the cursor's prefix.
+	 */
+	public List<Road> getRoads(Cursor cursor) {
+		int v = cursor.node, length = cursor.prefix.length();
+		if (v < 0 || depth[v] != length || names[lo[v]].length() != length)
+			return Collections.emptyList();
+		List<Road> roads = new ArrayList<>();
+		for (int i = nameRoadOffset[lo[v]]; i < nameRoadOffset[lo[v] + 1]; i++)
+			roads.add(core.roads[nameRoads[i]]);
+		return roads;
+	}
+
+	/**
+	 * Returns the best (up to TOP_K) distinct names that start with something
+	 * at most maxDistance edits (insertions, deletions or substitutions) away
+	 * from the query: the closest first, and the most important first among
+	 * equally close names. Names that start with the query itself come first.
+	 * If the search takes longer than the budget, it stops and returns the
+	 * best found so far.
+	 */
+	public List<String> fuzzy(String query, int maxDistance, long budgetNanos) {
+		FuzzySearch search = new FuzzySearch(query, maxDistance, budgetNanos);
+		int[] first = search.rows[0];
+		for (int j = 0; j < first.length; j++)
+			first[j] = j;
+		// the empty prefix is as far from the query as the query is long.
+		if (query.length() <= maxDistance)
+			search.record(0, query.length());
+		walk(search, 0, Math.min(query.length(), maxDistance + 1));
+
+		Integer[] found = search.found.keySet().toArray(new Integer[0]);
+		Arrays.sort(found, (a, b) -> {
+			int da = search.found.get(a), db = search.found.get(b);
+			return da != db ? da - db : position[a] - position[b];
+		});
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < found.length && i < TOP_K; i++)
+			result.add(names[found[i]]);
+		return result;
+	}
+
+	/**
+	 * Carries the automaton on down through the children of v. best is the
+	 * closest any prefix on the way to v has come to the whole query (or
+	 * maxDistance + 1 if none is close enough); below that, only a closer one
+	 * is worth finding. Returns false once the budget has run out.
+	 */
+	private boolean walk(FuzzySearch search, int v, int best) {
+		int m = search.query.length();
+		for (int c = childOffset[v]; c < childOffset[v + 1]; c++) {
+			if (++search.visited % 256 == 0 && System.nanoTime() > search.deadline)
+				return false;
+			String label = names[lo[c]];
+			int closest = best;
+			boolean alive = true;
+			for (int i = depth[v]; i < depth[c] && alive; i++) {
+				int[] row = search.rows[i], next = search.rows[i + 1];
+				char ch = label.charAt(i);
+				next[0] = i + 1;
+				int min = next[0];
+				for (int j = 1; j <= m; j++) {
+					int cost = search.query.charAt(j - 1) == ch ? 0 : 1;
+					next[j] = Math.min(row[j - 1] + cost, Math.min(row[j], next[j - 1]) + 1);
+					min = Math.min(min, next[j]);
+				}
+				if (next[m] < closest) {
+					// every name under c starts with this prefix.
+					closest = next[m];
+					search.record(c, closest);
+				}
+				// the distances along the rest of the path can't get smaller
+				// than the smallest in the row.
+				alive = min < closest;
 			}
+			if (alive && !walk(search, c, closest))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The state of one fuzzy search.
+	 */
+	private class FuzzySearch {
+		final String query;
+		final long deadline;
+		// a row of the automaton for each length of prefix.
+		final int[][] rows;
+		// the distance of every name found so far.
+		final Map<Integer, Integer> found = new HashMap<>();
+		int visited;
+
+		FuzzySearch(String query, int maxDistance, long budgetNanos) {
+			this.query = query;
+			this.deadline = System.nanoTime() + budgetNanos;
+			this.rows = new int[maxLength + 1][query.length() + 1];
+		}
+
+		/**
+		 * Notes that every name under v is the given distance away, keeping
+		 * the best names under it.
+		 */
+		void record(int v, int distance) {
+			for (int i = topOffset[v]; i < topOffset[v + 1]; i++)
+				found.merge(topNames[i], distance, Math::min);
+		}
+	}
+
+	/**
+	 * Returns the node whose names are exactly those starting with the
+	 * prefix, or -1 if there are none, starting from node v, where the first
+	 * matched characters of the prefix are already known to lead. The prefix
+	 * may end part way through the node's label.
+	 */
+	private int locate(int v, int matched, String prefix) {
+		// the rest of v's own label, if the last prefix ended inside it.
+		for (int i = matched; i < Math.min(depth[v], prefix.length()); i++)
+			if (names[lo[v]].charAt(i) != prefix.charAt(i))
+				return -1;
+		while (depth[v] < prefix.length()) {
+			int c = child(v, prefix.charAt(depth[v]));
+			if (c < 0)
+				return -1;
+			String label = names[lo[c]];
+			int end = Math.min(depth[c], prefix.length());
+			for (int i = depth[v] + 1; i < end; i++)
+				if (label.charAt(i) != prefix.charAt(i))
+					return -1;
+			v = c;
 		}
+		return v;
+	}
 
-		// finally, add a reference to the road to the terminal node of its
-		// name.
-		node.data.add(road);
+	/**
+	 * Returns the child of v whose label starts with the given character, or
+	 * -1.
+	 */
+	private int child(int v, char c) {
+		int from = childOffset[v], to = childOffset[v + 1] - 1;
+		while (from <= to) {
+			int mid = (from + to) >>> 1;
+			if (firstChar[mid] < c)
+				from = mid + 1;
+			else if (firstChar[mid] > c)
+				to = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
 	}
 
 	/**
-	 * Returns all Roads whose names start with a given prefix.
+	 * Builds the nodes breadth first. A node with names [lo, hi) and prefix
+	 * length d has a child for each run of names with the same character at
+	 * d, and that child's prefix is as long as all the names in the run have
+	 * in common.
 	 */
-	public Collection<Road> get(String prefix) {
-		// first, traverse to the end of the prefix.
-		TrieNode node = root;
-		for (char c : prefix.toCharArray()) {
-			node = node.children.get(c);
+	private void build() {
+		int capacity = Math.max(16, 2 * names.length + 1);
+		lo = new int[capacity];
+		hi = new int[capacity];
+		depth = new int[capacity];
+		firstChar = new char[capacity];
+		childOffset = new int[capacity + 1];
+		hi[0] = names.length;
+		nodeCount = 1;
 
-			if (node == null)
-				return new HashSet<>();
+		for (int v = 0; v < nodeCount; v++) {
+			childOffset[v] = nodeCount;
+			int d = depth[v];
+			int i = lo[v];
+			// a name that is exactly the prefix sorts first, and has no child.
+			if (i < hi[v] && names[i].length() == d)
+				i++;
+			while (i < hi[v]) {
+				char c = names[i].charAt(d);
+				int j = i + 1;
+				while (j < hi[v] && names[j].charAt(d) == c)
+					j++;
+				// the run's common prefix is the common prefix of its first
+				// and last names, as they are sorted.
+				int common = commonPrefix(names[i], names[j - 1]);
+				if (nodeCount == lo.length)
+					grow();
+				lo[nodeCount] = i;
+				hi[nodeCount] = j;
+				depth[nodeCount] = common;
+				firstChar[nodeCount] = c;
+				nodeCount++;
+				i = j;
+			}
 		}
+		childOffset[nodeCount] = nodeCount;
+		lo = Arrays.copyOf(lo, nodeCount);
+		hi = Arrays.copyOf(hi, nodeCount);
+		depth = Arrays.copyOf(depth, nodeCount);
+		firstChar = Arrays.copyOf(firstChar, nodeCount);
+		childOffset = Arrays.copyOf(childOffset, nodeCount + 1);
+	}
+
+	private void grow() {
+		int capacity = 2 * lo.length;
+		lo = Arrays.copyOf(lo, capacity);
+		hi = Arrays.copyOf(hi, capacity);
+		depth = Arrays.copyOf(depth, capacity);
+		firstChar = Arrays.copyOf(firstChar, capacity);
+		childOffset = Arrays.copyOf(childOffset, capacity + 1);
+	}
 
-		// then, accumulate all the roads referenced by the Trie at the end of
-		// the prefix.
-		Collection<Road> names = new HashSet<>();
-		traverse(node, names);
-		return names;
+	private static int commonPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
 	}
 
 	/**
-	 * Performs a traversal of the Trie rooted at the given TrieNode,
-	 * accumulating all the Roads into a provided Collection.
+	 * Works out the best names under every node, from the bottom up: the
+	 * children all have higher numbers than their parent, so going backwards
+	 * each node can merge its children's lists (and its own name, if it has
+	 * one) without looking any further down.
 	 */
-	private static void traverse(TrieNode root, Collection<Road> elems) {
-		elems.addAll(root.data);
+	private void rank() {
+		position = rankNames();
 
-		for (Character c : root.children.keySet()) {
-			traverse(root.children.get(c), elems);
+		int[][] top = new int[nodeCount][];
+		int[] merged = new int[TOP_K];
+		int total = 0;
+		for (int v = nodeCount - 1; v >= 0; v--) {
+			int size = 0;
+			if (lo[v] < hi[v] && names[lo[v]].length() == depth[v])
+				merged[size++] = lo[v];
+			for (int c = childOffset[v]; c < childOffset[v + 1]; c++)
+				size = merge(merged, size, top[c], position);
+			top[v] = Arrays.copyOf(merged, size);
+			total += size;
+		}
+
+		topOffset = new int[nodeCount + 1];
+		topNames = new int[total];
+		for (int v = 0; v < nodeCount; v++) {
+			topOffset[v + 1] = topOffset[v] + top[v].length;
+			System.arraycopy(top[v], 0, topNames, topOffset[v], top[v].length);
 		}
 	}
 
 	/**
-	 * Represents a single node in the trie. It contains a collection of the
-	 * Roads whose names are exactly the traversal down to this node.
+	 * Merges a list of names into the first size entries of into, both best
+	 * first, keeping at most TOP_K. Returns the new size.
 	 */
-	private class TrieNode {
-		Map<Character, TrieNode> children = new HashMap<>();
-		Collection<Road> data = new HashSet<>();
+	private static int merge(int[] into, int size, int[] list, int[] position) {
+		int[] a = Arrays.copyOf(into, size);
+		int i = 0, j = 0, k = 0;
+		while (k < TOP_K && (i < a.length || j < list.length)) {
+			if (j == list.length || i < a.length && position[a[i]] < position[list[j]])
+				into[k++] = a[i++];
+			else
+				into[k++] = list[j++];
+		}
+		return k;
+	}
+
+	/**
+	 * Returns the position of each name in order of importance: the highest
+	 * class of road with the name, then the total length of road with it,
+	 * then alphabetical.
+	 */
+	private int[] rankNames() {
+		int[] roadClass = new int[names.length];
+		double[] length = new double[names.length];
+		for (int n = 0; n < names.length; n++) {
+			for (int i = nameRoadOffset[n]; i < nameRoadOffset[n + 1]; i++) {
+				int r = nameRoads[i];
+				roadClass[n] = Math.max(roadClass[n], core.roads[r].getRoadClass());
+				for (int s = core.roadOffset[r]; s < core.roadOffset[r + 1]; s++)
+					length[n] += core.edgeLength[core.roadEdges[s]];
+			}
+		}
+		Integer[] order = new Integer[names.length];
+		for (int n = 0; n < names.length; n++)
+			order[n] = n;
+		Arrays.sort(order, (a, b) -> {
+			if (roadClass[a] != roadClass[b])
+				return roadClass[b] - roadClass[a];
+			if (length[a] != length[b])
+				return Double.compare(length[b], length[a]);
+			return a - b;
+		});
+		int[] position = new int[names.length];
+		for (int i = 0; i < names.length; i++)
+			position[order[i]] = i;
+		return position;
 	}
 }
 
-// code for COMP261 assignments
\ No newline at end of file
+// code for COMP261 assignments
@@ -0,0 +1,182 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks how the rows of a restrictions.tab file are matched to the segments
+ * at their intersection, on a small map written out as tab files in a
+ * temporary directory and loaded the way any other map is. Every row is
+ * written with the turn it should forbid (or none, if it should be skipped),
+ * and the check fails unless exactly those turns are forbidden.
+ *
+ * The map is a crossroads at node 1, with roads 10 running west to east, 20
+ * north and 30 south (by two parallel segments), and road 40, which doesn't
+ * reach the crossroads, looping from the north arm round to the east arm.
+ * Every segment is 0.3 km, except road 40's (0.25 km each), the second
+ * southern one (0.35 km) and the last on the east arm (0.6 km).
+ *
+ * <pre>
+ *              7
+ *              |
+ *              6 -- 9
+ *              |    |
+ *    2 -- 3 -- 1 -- 4 -- 5 ---- 10
+ *              ||
+ *              8
+ * </pre>
+ */
+public class TurnRestrictionCheck {
+
+	private static final String[] NODES = { "1\t-36.870000\t174.700000",
+			"2\t-36.870000\t174.693200", "3\t-36.870000\t174.696600",
+			"4\t-36.870000\t174.703400", "5\t-36.870000\t174.706800",
+			"6\t-36.867300\t174.700000", "7\t-36.864600\t174.700000",
+			"8\t-36.872700\t174.700000", "9\t-36.867300\t174.703000",
+			"10\t-36.870000\t174.713500" };
+
+	private static final String[] ROADS = { "10\t3\tmain st\ttest\t0\t3\t1\t0\t0\t0",
+			"20\t6\tnorth rd\ttest\t0\t2\t0\t0\t0\t0",
+			"30\t6\tsouth rd\ttest\t0\t2\t0\t0\t0\t0",
+			"40\t6\tloop ln\ttest\t0\t1\t0\t0\t0\t0" };
+
+	// road ID, length and the two node IDs of each segment, which the
+	// expected turns below refer to by position.
+	private static final Object[][] SEGMENTS = { { 10, 0.3, 3, 1 }, // 0: west
+			{ 10, 0.3, 2, 3 }, // 1
+			{ 10, 0.3, 1, 4 }, // 2: east
+			{ 10, 0.3, 4, 5 }, // 3
+			{ 10, 0.6, 5, 10 }, // 4
+			{ 20, 0.3, 1, 6 }, // 5: north
+			{ 20, 0.3, 6, 7 }, // 6
+			{ 30, 0.3, 1, 8 }, // 7: south
+			{ 30, 0.35, 8, 1 }, // 8: south again
+			{ 40, 0.25, 6, 9 }, // 9
+			{ 40, 0.25, 9, 4 } }; // 10
+
+	// each row of restrictions.tab, and the turns at node 1 (from one segment
+	// onto another) that it should forbid.
+	private static final Object[][] ROWS = {
+			// both nodes next to the intersection.
+			{ "3\t10\t1\t20\t6", new int[][] { { 0, 5 } } },
+			// both further along the road the row names.
+			{ "2\t10\t1\t10\t5", new int[][] { { 0, 2 } } },
+			// onto both of two parallel segments.
+			{ "7\t20\t1\t30\t8", new int[][] { { 5, 7 }, { 5, 8 } } },
+			// a U-turn.
+			{ "3\t10\t1\t10\t3", new int[][] { { 0, 0 } } },
+			// road 40 doesn't reach the intersection, but node 5 can only be
+			// reached one way out of it within MATCH_RADIUS.
+			{ "5\t40\t1\t20\t7", new int[][] { { 2, 5 } } },
+			// node 9 can be reached two ways out of it, so it's unclear.
+			{ "9\t40\t1\t10\t3", new int[0][] },
+			// node 10 is 1.2 km along road 10, beyond MATCH_RADIUS.
+			{ "10\t10\t1\t30\t8", new int[0][] },
+			// node 3 can't be reached along road 30.
+			{ "3\t30\t1\t20\t6", new int[0][] },
+			// an unknown node, and an unknown road.
+			{ "99\t10\t1\t20\t6", new int[0][] },
+			{ "3\t77\t1\t20\t6", new int[0][] } };
+
+	private int failures;
+
+	/**
+	 * Checks every turn between the segments at node 1 against the turns the
+	 * rows should forbid, and that nothing else is forbidden.
+	 */
+	private void check(Graph graph) {
+		GraphCore core = graph.core;
+		int[] edge = new int[SEGMENTS.length];
+		for (int s = 0; s < SEGMENTS.length; s++)
+			edge[s] = find(core, SEGMENTS[s]);
+
+		Set<Long> expected = new HashSet<>();
+		for (Object[] row : ROWS)
+			for (int[] turn : (int[][]) row[1])
+				expected.add((long) turn[0] << 32 | turn[1]);
+		int via = graph.nodes.get(1).index;
+		for (int a = 0; a < SEGMENTS.length; a++) {
+			for (int b = 0; b < SEGMENTS.length; b++) {
+				if (!touches(core, edge[a], via) || !touches(core, edge[b], via))
+					continue;
+				boolean forbidden = graph.restrictions.isForbidden(edge[a], via, edge[b]);
+				if (forbidden != expected.contains((long) a << 32 | b)) {
+					failures++;
+					System.out.println("  from segment " + a + " onto " + b + ": expected "
+							+ (forbidden ? "allowed" : "forbidden"));
+				}
+			}
+		}
+		if (graph.restrictions.size() != expected.size()) {
+			failures++;
+			System.out.println("  expected " + expected.size() + " forbidden turns, got "
+					+ graph.restrictions.size());
+		}
+		System.out.printf("%d rows: %d forbidden turns, %d wrong%n", ROWS.length,
+				graph.restrictions.size(), failures);
+	}
+
+	private static int find(GraphCore core, Object[] segment) {
+		for (int e = 0; e < core.edgeCount; e++)
+			if (core.roadIds[core.edgeRoad[e]] == (int) segment[0]
+					&& core.edgeLength[e] == (double) segment[1]
+					&& core.nodeIds[core.edgeFrom[e]] == (int) segment[2]
+					&& core.nodeIds[core.edgeTo[e]] == (int) segment[3])
+				return e;
+		throw new RuntimeException("segment " + segment[0] + " from " + segment[2]
+				+ " to " + segment[3] + " was not loaded");
+	}
+
+	private static boolean touches(GraphCore core, int e, int node) {
+		return core.edgeFrom[e] == node || core.edgeTo[e] == node;
+	}
+
+	private static void write(File file, String header, String[] lines)
+			throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		if (header != null)
+			out.println(header);
+		for (String line : lines)
+			out.println(line);
+		out.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		File dir = File.createTempFile("restrictions", "");
+		dir.delete();
+		dir.mkdir();
+		File nodes = new File(dir, "nodeID-lat-lon.tab");
+		File roads = new File(dir, "roadID-roadInfo.tab");
+		File segments = new File(dir, "roadSeg-roadID-length-nodeID-nodeID-coords.tab");
+		File restrictions = new File(dir, TurnRestrictions.FILENAME);
+		try {
+			write(nodes, null, NODES);
+			write(roads, "roadid\ttype\tlabel\tcity\toneway\tspeed\troadclass\tnotforcar"
+					+ "\tnotforpede\tnotforbicy", ROADS);
+			String[] lines = new String[SEGMENTS.length];
+			for (int s = 0; s < SEGMENTS.length; s++) {
+				Object[] seg = SEGMENTS[s];
+				lines[s] = seg[0] + "\t" + seg[1] + "\t" + seg[2] + "\t" + seg[3] + "\t"
+						+ NODES[(int) seg[2] - 1].split("\t", 2)[1] + "\t"
+						+ NODES[(int) seg[3] - 1].split("\t", 2)[1];
+			}
+			write(segments, "roadID\tlength\tnodeID1\tnodeID2\tcoords", lines);
+			String[] rows = new String[ROWS.length];
+			for (int r = 0; r < ROWS.length; r++)
+				rows[r] = (String) ROWS[r][0];
+			write(restrictions, "NodeID\tRoadID\tNodeID\tRoadID\tNodeID", rows);
+
+			TurnRestrictionCheck check = new TurnRestrictionCheck();
+			check.check(new Graph(nodes, roads, segments, null));
+			if (check.failures > 0)
+				throw new RuntimeException("turn restriction check failed.");
+			System.out.println("All restrictions matched");
+		} finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,303 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The turns that are not allowed, from restrictions.tab, in a form the router
+ * can check cheaply while it relaxes arcs.
+ *
+ * Each restriction forbids going from one segment onto another at the
+ * intersection they share. A row names the nodes the turn comes from and goes
+ * to, which needn't be next to the intersection, so the segments are found by
+ * walking from the intersection towards each (see branches()), and rows where
+ * that doesn't say clearly which segments are meant are skipped. The
+ * forbidden turns are packed into longs and kept sorted, so checking a turn is
+ * a binary search, and only intersections that have a restriction (the via
+ * nodes) ever need checking. The key records which end of the in segment the
+ * turn is at as well, since a U-turn, or a turn between two segments joining
+ * the same pair of nodes, could be at either.
+ *
+ * A search that honours restrictions has to tell apart the different ways of
+ * arriving at a via node, since which turns are allowed depends on it. So,
+ * rather than a full line graph, only the via nodes are split: the search
+ * states are the nodes themselves (0 to nodeCount - 1), followed by one state
+ * for each arc into each via node. Every other node is reached the same way
+ * whichever segment it came from.
+ */
+public class TurnRestrictions {
+
+	public static final String FILENAME = "restrictions.tab";
+	// how far (in km) to walk from an intersection looking for the nodes a
+	// restriction comes from and goes to.
+	private static final double MATCH_RADIUS = 1.0;
+
+	private final GraphCore core;
+	// ((2 * in segment + which end) << 32 | out segment), sorted.
+	private final long[] forbidden;
+	// for each via node, the first of its extra states (as an offset past
+	// nodeCount), or -1 for nodes that aren't via nodes.
+	private final int[] viaBase;
+	// the node and the arriving segment of each extra state.
+	private final int[] stateNode, stateEdge;
+
+	/**
+	 * Makes an empty set of restrictions.
+	 */
+	public TurnRestrictions(GraphCore core) {
+		this.core = core;
+		this.forbidden = new long[0];
+		this.viaBase = null;
+		this.stateNode = this.stateEdge = new int[0];
+	}
+
+	/**
+	 * Works out the forbidden turns from the rows of restrictions.tab, as read
+	 * by Parser.parseRestrictions. Rows that don't match the map (unknown IDs,
+	 * or nodes that can't be reached from the intersection, or can be reached
+	 * more than one way) are skipped, with a warning saying how many.
+	 */
+	public TurnRestrictions(Graph graph, List<int[]> rows) {
+		this.core = graph.core;
+		long[] turns = new long[16];
+		int count = 0, skipped = 0;
+		boolean[] isVia = new boolean[core.nodeCount];
+		for (int[] row : rows) {
+			Node from = graph.nodes.get(row[0]), via = graph.nodes.get(row[2]);
+			Node to = graph.nodes.get(row[4]);
+			Road in = graph.roads.get(row[1]), out = graph.roads.get(row[3]);
+			if (from == null || via == null || to == null || in == null || out == null) {
+				skipped++;
+				continue;
+			}
+
+			// there can be more than one segment between the same two nodes,
+			// so forbid every combination.
+			int before = count;
+			int v = via.index;
+			for (int i : branches(v, from.index, in.index)) {
+				for (int j : branches(v, to.index, out.index)) {
+					if (count == turns.length)
+						turns = Arrays.copyOf(turns, 2 * count);
+					turns[count++] = key(core.adjEdge[i], v, core.adjEdge[j]);
+				}
+			}
+			if (count == before)
+				skipped++;
+			else
+				isVia[v] = true;
+		}
+		Arrays.sort(turns, 0, count);
+		this.forbidden = Arrays.copyOf(turns, count);
+		if (skipped > 0)
+			System.out.println("Warning: skipped " + skipped + " of " + rows.size()
+					+ " turn restrictions that don't match the map");
+
+		// the via nodes, and a state for each arc into them.
+		viaBase = new int[core.nodeCount];
+		Arrays.fill(viaBase, -1);
+		int states = 0;
+		for (int v = 0; v < core.nodeCount; v++) {
+			if (isVia[v]) {
+				viaBase[v] = states;
+				states += core.inOffset[v + 1] - core.inOffset[v];
+			}
+		}
+		stateNode = new int[states];
+		stateEdge = new int[states];
+		for (int v = 0; v < core.nodeCount; v++) {
+			if (viaBase[v] < 0)
+				continue;
+			for (int i = core.inOffset[v]; i < core.inOffset[v + 1]; i++) {
+				stateNode[viaBase[v] + i - core.inOffset[v]] = v;
+				stateEdge[viaBase[v] + i - core.inOffset[v]] = core.inEdge[i];
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return forbidden.length == 0;
+	}
+
+	/**
+	 * Returns how many turns are forbidden.
+	 */
+	public int size() {
+		return forbidden.length;
+	}
+
+	/**
+	 * Returns whether driving along one segment into the via node and
+	 * straight onto another segment is forbidden.
+	 */
+	public boolean isForbidden(int inEdge, int via, int outEdge) {
+		return Arrays.binarySearch(forbidden, key(inEdge, via, outEdge)) >= 0;
+	}
+
+	/**
+	 * Returns whether a route along the given segments from the start node
+	 * makes no forbidden turn.
+	 */
+	public boolean allows(int start, int[] edges) {
+		int at = start, previous = -1;
+		for (int edge : edges) {
+			if (previous >= 0 && viaBase[at] >= 0 && isForbidden(previous, at, edge))
+				return false;
+			previous = edge;
+			at = core.opposite(edge, at);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns how many search states there are: one per node, and one per arc
+	 * into each via node.
+	 */
+	public int stateCount() {
+		return core.nodeCount + stateNode.length;
+	}
+
+	/**
+	 * Returns the state for arriving at a node along a segment.
+	 */
+	public int state(int node, int inEdge) {
+		if (viaBase == null || viaBase[node] < 0)
+			return node;
+		for (int i = core.inOffset[node]; i < core.inOffset[node + 1]; i++)
+			if (core.inEdge[i] == inEdge)
+				return core.nodeCount + viaBase[node] + i - core.inOffset[node];
+		return node;
+	}
+
+	/**
+	 * Returns the node a state is at.
+	 */
+	public int node(int state) {
+		return state < core.nodeCount ? state : stateNode[state - core.nodeCount];
+	}
+
+	/**
+	 * Returns the segment a state arrived by, or -1 if it doesn't matter
+	 * (for the plain node states).
+	 */
+	public int inEdge(int state) {
+		return state < core.nodeCount ? -1 : stateEdge[state - core.nodeCount];
+	}
+
+	/**
+	 * Returns the arcs out of the via node (as positions in adjEdge) that a
+	 * restriction's from or to node lies along, or nothing if that isn't
+	 * clear. If the node is next to the via node, they are the arcs to it.
+	 * Otherwise a walk goes out along each arc in turn, no further than
+	 * MATCH_RADIUS and never back through the via node, to see if the node
+	 * can be reached that way. If the named road meets the via node, the walk
+	 * only follows that road, and the arcs are the ones towards the node
+	 * along it (the nearest way, if there's more than one). If it doesn't
+	 * (the road IDs in restrictions.tab don't always match the segments), the
+	 * walk can take any road, and the node has to be reachable along just one
+	 * way out of the via node, as otherwise there's no telling which way the
+	 * row meant. Parallel arcs to the same neighbour count as one way, and are
+	 * all returned.
+	 */
+	private int[] branches(int via, int target, int road) {
+		boolean onRoad = false, adjacent = false;
+		for (int i = core.adjOffset[via]; i < core.adjOffset[via + 1]; i++) {
+			onRoad |= core.edgeRoad[core.adjEdge[i]] == road;
+			adjacent |= core.adjTarget[i] == target;
+		}
+
+		int neighbour = -1, reached = 0;
+		if (adjacent) {
+			neighbour = target;
+		} else {
+			double nearest = Double.POSITIVE_INFINITY;
+			for (int i = core.adjOffset[via]; i < core.adjOffset[via + 1]; i++) {
+				int n = core.adjTarget[i];
+				if (n == via || !isFirstArc(via, i, road, onRoad))
+					continue;
+				double d = walk(via, n, target, road, onRoad);
+				if (d < Double.POSITIVE_INFINITY) {
+					reached++;
+					if (d < nearest) {
+						nearest = d;
+						neighbour = n;
+					}
+				}
+			}
+			if (!onRoad && reached > 1)
+				return new int[0];
+		}
+		if (neighbour < 0)
+			return new int[0];
+
+		int[] result = new int[core.adjOffset[via + 1] - core.adjOffset[via]];
+		int n = 0;
+		for (int i = core.adjOffset[via]; i < core.adjOffset[via + 1]; i++)
+			if (core.adjTarget[i] == neighbour
+					&& (!onRoad || core.edgeRoad[core.adjEdge[i]] == road))
+				result[n++] = i;
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Returns whether arc i is the first out of the via node to its neighbour
+	 * that the walk may take, so each neighbour is only walked from once.
+	 */
+	private boolean isFirstArc(int via, int i, int road, boolean onRoad) {
+		if (onRoad && core.edgeRoad[core.adjEdge[i]] != road)
+			return false;
+		for (int j = core.adjOffset[via]; j < i; j++)
+			if (core.adjTarget[j] == core.adjTarget[i]
+					&& (!onRoad || core.edgeRoad[core.adjEdge[j]] == road))
+				return false;
+		return true;
+	}
+
+	/**
+	 * A Dijkstra search from the via node out through one neighbour, that
+	 * never goes back through the via node or further than MATCH_RADIUS, and
+	 * only along the road if onRoad is set. Returns how far the target is, or
+	 * infinity if it wasn't reached.
+	 */
+	private double walk(int via, int neighbour, int target, int road, boolean onRoad) {
+		double first = Double.POSITIVE_INFINITY;
+		for (int i = core.adjOffset[via]; i < core.adjOffset[via + 1]; i++) {
+			int e = core.adjEdge[i];
+			if (core.adjTarget[i] == neighbour && (!onRoad || core.edgeRoad[e] == road))
+				first = Math.min(first, core.edgeLength[e]);
+		}
+		if (first > MATCH_RADIUS)
+			return Double.POSITIVE_INFINITY;
+
+		Map<Integer, Double> dist = new HashMap<>();
+		PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+		dist.put(neighbour, first);
+		queue.add(new double[] { first, neighbour });
+		while (!queue.isEmpty()) {
+			double[] head = queue.poll();
+			int u = (int) head[1];
+			if (head[0] > dist.get(u))
+				continue;
+			if (u == target)
+				return head[0];
+			for (int i = core.adjOffset[u]; i < core.adjOffset[u + 1]; i++) {
+				int e = core.adjEdge[i], n = core.adjTarget[i];
+				double d = head[0] + core.edgeLength[e];
+				if (n == via || d > MATCH_RADIUS || (onRoad && core.edgeRoad[e] != road))
+					continue;
+				Double old = dist.get(n);
+				if (old == null || d < old) {
+					dist.put(n, d);
+					queue.add(new double[] { d, n });
+				}
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private long key(int inEdge, int via, int outEdge) {
+		int end = core.edgeTo[inEdge] == via ? 1 : 0;
+		return ((long) (2 * inEdge + end) << 32) | outEdge;
+	}
+}